@@ -0,0 +1,74 @@
+package it.tesi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+//Synthetic trades of the benchmarks, drawn from a fixed seed so that every run (and every commit) measures the same
+//book: spot, volatility, strike and maturity around the values of the sample portfolio, calls only.
+final class BenchmarkTrades {
+
+    private static final double[] MATURITIES = {0.5, 1.0, 1.5, 2.0, 3.0, 5.0};
+    private static final String[] CURRENCIES = {"USD", "EUR", "GBP", "JPY"};
+    private static final int NUMBER_OF_BUCKETS = 13;
+
+
+    private BenchmarkTrades() {
+    }
+
+    //Trades of a product (Stock, European, Bermudan) to be priced, one underlying per trade
+    static List<Trade> createTrades(String product, int numberOfTrades, long seed) {
+        Random random = new Random(seed);
+        List<Trade> trades = new ArrayList<>(numberOfTrades);
+        for (int i = 0; i < numberOfTrades; i++) {
+            trades.add(createTrade(product, i + 1, "BENCH" + i, random, false));
+        }
+        return trades;
+    }
+
+    //Priced options with random greeks and CVR: one spot, repo and implied volatility risk factor per trade,
+    //the rates on the tenors of the maturities of a few currencies
+    static List<Trade> createPricedTrades(int numberOfRiskFactors, long seed) {
+        Random random = new Random(seed);
+        List<Trade> trades = new ArrayList<>(numberOfRiskFactors);
+        for (int i = 0; i < numberOfRiskFactors; i++) {
+            String product = random.nextBoolean() ? "European" : "Bermudan";
+            trades.add(createTrade(product, i + 1, "BENCH" + i, random, true));
+        }
+        return trades;
+    }
+
+    private static Trade createTrade(String product, int dealNumber, String underlying, Random random, boolean isPriced) {
+        RiskFactorRegistry registry = RiskFactorRegistry.getDefault();
+        String riskFactorDelta = registry.getName(registry.getSpotId(underlying));
+        int bucket = 1 + (dealNumber - 1) % NUMBER_OF_BUCKETS;
+        double underlyingPrice = 80.0 + 40.0 * random.nextDouble();
+
+        if (product.equalsIgnoreCase("Stock")) {
+            return new SimpleTrade("BENCH", dealNumber, "Stock", "Stock", riskFactorDelta, null, underlying, bucket, 0.0, "USD",
+                    1.0, 0.0, new double[0], underlyingPrice, 0.0, new double[0], 0.0,
+                    0.0, isPriced ? underlyingPrice : 0.0, 0.0, 0.0, 0.0);
+        }
+
+        double maturity = MATURITIES[random.nextInt(MATURITIES.length)];
+        double volatility = 0.20 + 0.15 * random.nextDouble();
+        double strike = Math.round(underlyingPrice * (0.8 + 0.4 * random.nextDouble()));
+        boolean isBermudan = product.equalsIgnoreCase("Bermudan");
+        double[] exerciseDates = isBermudan ? new double[]{maturity / 2, maturity} : new double[0];
+        double[] strikes = isBermudan ? new double[]{strike, strike} : new double[]{strike};
+        String riskFactorVega = registry.getName(registry.getImpliedVolatilityId(underlying, maturity));
+        String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+
+        Trade trade = new SimpleTrade("BENCH", dealNumber, "Option", product, riskFactorDelta, riskFactorVega, underlying, bucket, 1.0, currency,
+                1.0, volatility, strikes, underlyingPrice, maturity, exerciseDates, 0.02, 0.0,
+                isPriced ? 10.0 * random.nextDouble() : 0.0,
+                isPriced ? 100.0 * random.nextDouble() - 50.0 : 0.0,
+                isPriced ? 20.0 * random.nextDouble() : 0.0,
+                isPriced ? -10.0 * random.nextDouble() : 0.0,
+                isPriced ? -10.0 * random.nextDouble() : 0.0);
+        if (isPriced) {
+            trade.setRateAndRepoDelta(100.0 * random.nextDouble(), -100.0 * random.nextDouble());
+        }
+        return trade;
+    }
+}
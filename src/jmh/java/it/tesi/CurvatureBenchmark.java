@@ -0,0 +1,81 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//CurvatureRiskCalculator.priceOption of a book of options: up and down revaluations of every trade with the shocks
+//of its bucket, without revaluation cache. Same engines and parameters as PricingBenchmark.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class CurvatureBenchmark {
+
+    private static final int SEED = 1234;
+
+    @Param({"European", "Bermudan"})
+    private String product;
+
+    //"default" (PricingEngineRegistry.createDefault()) or "montecarlo" (MC-AAD for Europeans and Bermudans)
+    @Param({"default", "montecarlo"})
+    private String engine;
+
+    @Param({"10000"})
+    private int numberOfPaths;
+
+    @Param({"1000"})
+    private int numberOfSteps;
+
+    @Param({"10"})
+    private int numberOfTrades;
+
+    private CurvatureRiskCalculator curvatureRiskCalculator;
+    private List<Trade> trades;
+    //[trade][up, down]
+    private double[][] shockedUnderlyingPrices;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PricingEngineRegistry engineRegistry = PricingEngineRegistry.createDefault();
+        engineRegistry.registerEngine("Bermudan", new LatticePricingEngine(numberOfSteps));
+        if (engine.equalsIgnoreCase("montecarlo")) {
+            MonteCarloPricingEngine monteCarloEngine = new MonteCarloPricingEngine(numberOfPaths, SEED, new BrownianMotionCache(16), PathGenerator.MERSENNE, true);
+            engineRegistry.registerEngine("European", monteCarloEngine);
+            engineRegistry.registerEngine("Bermudan", monteCarloEngine);
+        }
+
+        curvatureRiskCalculator = new CurvatureRiskCalculator(engineRegistry);
+        trades = BenchmarkTrades.createTrades(product, numberOfTrades, SEED);
+        shockedUnderlyingPrices = new double[trades.size()][];
+        for (int i = 0; i < trades.size(); i++) {
+            Trade trade = trades.get(i);
+            double riskWeight = CurvatureRiskCalculator.getCurvatureRiskWeight(trade.getBucket());
+            shockedUnderlyingPrices[i] = new double[]{trade.getUnderlyingPrice() * (1 + riskWeight), trade.getUnderlyingPrice() * (1 - riskWeight)};
+        }
+    }
+
+    @Benchmark
+    public void priceOption(Blackhole blackhole) throws CalculationException {
+        for (int i = 0; i < trades.size(); i++) {
+            blackhole.consume(curvatureRiskCalculator.priceOption(trades.get(i), shockedUnderlyingPrices[i]));
+        }
+    }
+}
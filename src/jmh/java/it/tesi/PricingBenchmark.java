@@ -0,0 +1,88 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+//priceAndCalculateGreeks of a book of trades of one product, on the default engines (closed form, lattice) or on the
+//Monte Carlo AAD engine for the options, without the finite difference and analytic checks. Each invocation prices the
+//whole book on the calling thread; the reports are built but not printed. numberOfPaths applies to the Monte Carlo
+//engine and numberOfSteps to the lattice only: the other combinations measure the same work.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PricingBenchmark {
+
+    private static final int SEED = 1234;
+
+    @Param({"Stock", "European", "Bermudan"})
+    private String product;
+
+    //"default" (PricingEngineRegistry.createDefault()) or "montecarlo" (MC-AAD for Europeans and Bermudans)
+    @Param({"default", "montecarlo"})
+    private String engine;
+
+    @Param({"1000", "10000", "100000"})
+    private int numberOfPaths;
+
+    @Param({"100", "1000"})
+    private int numberOfSteps;
+
+    @Param({"10"})
+    private int numberOfTrades;
+
+    private AADPricer pricer;
+    private TradeBook book;
+    private PrintStream standardOutput;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        //Own Brownian motion cache: the paths are generated by the first invocation and shared by the following ones
+        BrownianMotionCache brownianMotionCache = new BrownianMotionCache(16);
+        PricingEngineRegistry engineRegistry = PricingEngineRegistry.createDefault();
+        engineRegistry.registerEngine("Bermudan", new LatticePricingEngine(numberOfSteps));
+        if (engine.equalsIgnoreCase("montecarlo")) {
+            MonteCarloPricingEngine monteCarloEngine = new MonteCarloPricingEngine(numberOfPaths, SEED, brownianMotionCache, PathGenerator.MERSENNE, true);
+            monteCarloEngine.setFiniteDifferenceBenchmark(false);
+            engineRegistry.registerEngine("European", monteCarloEngine);
+            engineRegistry.registerEngine("Bermudan", monteCarloEngine);
+        }
+
+        pricer = new AADPricer(numberOfPaths, SEED, brownianMotionCache, engineRegistry);
+        book = TradeBook.of(BenchmarkTrades.createTrades(product, numberOfTrades, SEED));
+
+        //The reports printed by priceAndCalculateGreeks are discarded
+        standardOutput = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(standardOutput);
+    }
+
+    @Benchmark
+    public TradeBook priceAndCalculateGreeks() throws CalculationException {
+        pricer.priceAndCalculateGreeks(book);
+        return book;
+    }
+}
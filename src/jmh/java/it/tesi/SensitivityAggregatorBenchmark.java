@@ -0,0 +1,146 @@
+package it.tesi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Each stage of SensitivityAggregator (net, weighted, intra and inter-bucket aggregation) on a synthetic book of priced
+//options with numberOfRiskFactors spot risk factors (one option per underlying, spread over the 13 buckets). The
+//inputs of every stage are built once per trial from the output of the previous stage.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class SensitivityAggregatorBenchmark {
+
+    private static final int SEED = 1234;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    private int numberOfRiskFactors;
+
+    //Kernel of the intra-bucket aggregation: "default" (Vector API if available) or "scalar" (plain loops)
+    @Param({"default"})
+    private String aggregationKernel;
+
+    private List<Trade> trades;
+    private SensitivityStore netSensitivitiesDelta;
+    private SensitivityStore netSensitivitiesVega;
+    private SensitivityStore netSensitivitiesRepo;
+    private SensitivityStore netSensitivitiesRate;
+    private SensitivityStore weightedSensitivitiesDelta;
+    private SensitivityStore weightedSensitivitiesVega;
+    private SensitivityStore weightedSensitivitiesRepo;
+    private SensitivityStore weightedSensitivitiesRate;
+    private SensitivityStore curvatureRisk;
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (aggregationKernel.equalsIgnoreCase("scalar")) {
+            SensitivityAggregator.setQuadraticFormKernel(new ScalarQuadraticFormKernel());
+        }
+
+        trades = BenchmarkTrades.createPricedTrades(numberOfRiskFactors, SEED);
+        netSensitivitiesDelta = SensitivityAggregator.calculateNetSensitivityStoreDelta(trades);
+        netSensitivitiesVega = SensitivityAggregator.calculateNetSensitivityStoreVega(trades);
+        netSensitivitiesRepo = SensitivityAggregator.calculateNetSensitivityStoreRepo(trades);
+        netSensitivitiesRate = SensitivityAggregator.calculateNetSensitivityStoreRate(trades);
+        weightedSensitivitiesDelta = SensitivityAggregator.calculateWeightedSensitivitiesDelta(netSensitivitiesDelta);
+        weightedSensitivitiesVega = SensitivityAggregator.calculateWeightedSensitivitiesVega(netSensitivitiesVega);
+        weightedSensitivitiesRepo = SensitivityAggregator.calculateWeightedSensitivitiesRepo(netSensitivitiesRepo);
+        weightedSensitivitiesRate = SensitivityAggregator.calculateWeightedSensitivitiesRate(netSensitivitiesRate);
+
+        //CVR of the trades by spot risk factor, as written by the CurvatureRiskCalculator
+        curvatureRisk = new SensitivityStore(2);
+        for (Trade trade : trades) {
+            int row = curvatureRisk.getRow(trade.getRiskFactorDeltaId(), trade.getBucket());
+            curvatureRisk.add(row, SensitivityStore.CVR_PLUS, trade.getCurvatureRiskPlus());
+            curvatureRisk.add(row, SensitivityStore.CVR_MINUS, trade.getCurvatureRiskMinus());
+        }
+    }
+
+    //Net sensitivities
+
+    @Benchmark
+    public SensitivityStore netDelta() {
+        return SensitivityAggregator.calculateNetSensitivityStoreDelta(trades);
+    }
+
+    @Benchmark
+    public SensitivityStore netVega() {
+        return SensitivityAggregator.calculateNetSensitivityStoreVega(trades);
+    }
+
+    @Benchmark
+    public SensitivityStore netRepo() {
+        return SensitivityAggregator.calculateNetSensitivityStoreRepo(trades);
+    }
+
+    @Benchmark
+    public SensitivityStore netRate() {
+        return SensitivityAggregator.calculateNetSensitivityStoreRate(trades);
+    }
+
+    //Weighted sensitivities
+
+    @Benchmark
+    public SensitivityStore weightedDelta() {
+        return SensitivityAggregator.calculateWeightedSensitivitiesDelta(netSensitivitiesDelta);
+    }
+
+    @Benchmark
+    public SensitivityStore weightedVega() {
+        return SensitivityAggregator.calculateWeightedSensitivitiesVega(netSensitivitiesVega);
+    }
+
+    @Benchmark
+    public SensitivityStore weightedRepo() {
+        return SensitivityAggregator.calculateWeightedSensitivitiesRepo(netSensitivitiesRepo);
+    }
+
+    @Benchmark
+    public SensitivityStore weightedRate() {
+        return SensitivityAggregator.calculateWeightedSensitivitiesRate(netSensitivitiesRate);
+    }
+
+    //Intra-bucket and inter-bucket aggregation, three correlation scenarios
+
+    @Benchmark
+    public CapitalRequirement aggregateDelta() {
+        return SensitivityAggregator.aggregateDelta(weightedSensitivitiesDelta);
+    }
+
+    @Benchmark
+    public CapitalRequirement aggregateVega() {
+        return SensitivityAggregator.aggregateVega(weightedSensitivitiesVega);
+    }
+
+    @Benchmark
+    public CapitalRequirement aggregateCurvature() {
+        return SensitivityAggregator.aggregateCurvature(curvatureRisk);
+    }
+
+    @Benchmark
+    public CapitalRequirement aggregateRepo() {
+        return SensitivityAggregator.aggregateRepo(weightedSensitivitiesRepo);
+    }
+
+    @Benchmark
+    public CapitalRequirement aggregateRate() {
+        return SensitivityAggregator.aggregateRate(weightedSensitivitiesRate);
+    }
+}
@@ -1,194 +1,491 @@
 package it.tesi;
 
 import net.finmath.exception.CalculationException;
-import net.finmath.functions.AnalyticFormulas;
 import net.finmath.montecarlo.*;
 import net.finmath.montecarlo.assetderivativevaluation.*;
 import net.finmath.montecarlo.assetderivativevaluation.models.BlackScholesModel;
-import net.finmath.montecarlo.assetderivativevaluation.products.BermudanOption;
-import net.finmath.montecarlo.assetderivativevaluation.products.EuropeanOption;
-import net.finmath.montecarlo.automaticdifferentiation.RandomVariableDifferentiable;
-import net.finmath.montecarlo.automaticdifferentiation.backward.RandomVariableDifferentiableAAD;
 import net.finmath.montecarlo.automaticdifferentiation.backward.RandomVariableDifferentiableAADFactory;
 import net.finmath.montecarlo.process.*;
 import net.finmath.stochastic.RandomVariable;
 import net.finmath.time.*;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class AADPricer {
 
     private final int numberOfPaths;
-    private final int numberOfTimeSteps;
-    private final double deltaT;
     private final int seed;
+    private final BrownianMotionCache brownianMotionCache;
+    private final PricingEngineRegistry engineRegistry;
+    private ExecutorService executor;
+    private PathGenerator pathGenerator = PathGenerator.MERSENNE;
+    private PathCountController pathCountController;
+    private int chunkSize;
+    private Set<AdjointInput> adjointInputs = EnumSet.allOf(AdjointInput.class);
+    private RevaluationCache revaluationCache;
+
+
+    public AADPricer(int numberOfPaths, int seed) {
+        this(numberOfPaths, seed, BrownianMotionCache.getShared());
+    }
 
+    public AADPricer(int numberOfPaths, int seed, BrownianMotionCache brownianMotionCache) {
+        this(numberOfPaths, seed, brownianMotionCache, PricingEngineRegistry.createDefault());
+    }
 
-    public AADPricer(int numberOfPaths, int numberOfTimeSteps, double deltaT, int seed) {
+    public AADPricer(int numberOfPaths, int seed, BrownianMotionCache brownianMotionCache, PricingEngineRegistry engineRegistry) {
         this.numberOfPaths = numberOfPaths;
-        this.numberOfTimeSteps = numberOfTimeSteps;
-        this.deltaT = deltaT;
         this.seed = seed;
+        this.brownianMotionCache = brownianMotionCache;
+        this.engineRegistry = engineRegistry;
+    }
+
+    //Engines used by priceAndCalculateGreeks, to be shared with the CurvatureRiskCalculator
+    public PricingEngineRegistry getEngineRegistry() {
+        return engineRegistry;
+    }
+
+    public void registerEngine(String product, PricingEngine engine) {
+        engineRegistry.registerEngine(product, engine);
+    }
+
+    //Workers used to price independent trades and chunks (null = sequential pricing on the calling thread).
+    //The same executor serves every call and may be shared with the CurvatureRiskCalculator: it is shut down by the caller.
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    //Random numbers of the simulations of priceAndCalculateGreeksByUnderlying
+    public void setPathGenerator(PathGenerator pathGenerator) {
+        checkPathGenerator(pathGenerator, pathCountController);
+        this.pathGenerator = pathGenerator;
+    }
+
+    public PathGenerator getPathGenerator() {
+        return pathGenerator;
+    }
+
+    //Adaptive number of paths of priceAndCalculateGreeksByUnderlying (null = numberOfPaths paths in a single batch)
+    public void setPathCountController(PathCountController pathCountController) {
+        checkPathGenerator(pathGenerator, pathCountController);
+        this.pathCountController = pathCountController;
+    }
+
+    //The antithetic generator builds the paths in pairs: the batches of the controller, or numberOfPaths without a
+    //controller, must be even (an odd path would be dropped by the chunks of whole pairs)
+    private void checkPathGenerator(PathGenerator pathGenerator, PathCountController pathCountController) {
+        if (pathCountController != null) {
+            pathCountController.checkPathGenerator(pathGenerator);
+        } else if (pathGenerator == PathGenerator.ANTITHETIC && numberOfPaths % 2 != 0) {
+            throw new IllegalArgumentException("Il numero di path deve essere pari per le variabili antitetiche: " + numberOfPaths);
+        }
+    }
+
+    //Maximum number of paths simulated and differentiated on a single tape by priceAndCalculateGreeksByUnderlying
+    //(0 = a single chunk). Peak memory depends on the chunk size, and the chunks may run on separate workers.
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("La dimensione dei chunk non può essere negativa: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    //Inputs differentiated by AAD in priceAndCalculateGreeksByUnderlying: only these are recorded on the tapes,
+    //the greeks with respect to the other inputs are reported as zero
+    public void setAdjointInputs(Set<AdjointInput> adjointInputs) {
+        if (adjointInputs == null) {
+            throw new IllegalArgumentException("Gli input da differenziare non possono essere null.");
+        }
+        this.adjointInputs = adjointInputs.isEmpty() ? EnumSet.noneOf(AdjointInput.class) : EnumSet.copyOf(adjointInputs);
+    }
+
+    public Set<AdjointInput> getAdjointInputs() {
+        return EnumSet.copyOf(adjointInputs);
     }
 
+    //Results of previous runs reused by priceAndCalculateGreeks (null = every trade is priced)
+    public void setRevaluationCache(RevaluationCache revaluationCache) {
+        this.revaluationCache = revaluationCache;
+    }
+
+    //Priced views of the trades (the input trades are not modified)
     public List<Trade> priceAndCalculateGreeks(List<Trade> trades) throws CalculationException {
-        List<Trade> updatedTrades = new ArrayList<>();
-        RandomVariableDifferentiableAADFactory randomVariableFactory = new RandomVariableDifferentiableAADFactory();
+        TradeBook book = TradeBook.of(trades);
+        priceAndCalculateGreeks(book);
+        return book.asList();
+    }
+
+    //Value, delta, vega and standard errors written in place into the columns of the book
+    public void priceAndCalculateGreeks(TradeBook book) throws CalculationException {
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (int i = 0; i < book.size(); i++) {
+            int trade = i;
+            tasks.add(() -> {
+                StringBuilder report = new StringBuilder();
+                priceTrade(book, trade, report);
+                return report.toString();
+            });
+        }
+
+        //The reports are written by the workers into their own buffers and printed here in input order
+        for (String report : invokeAll(tasks, executor)) {
+            System.out.print(report);
+        }
+    }
+
+    //Greeks of a single trade of the book, without the report (streaming pipeline)
+    public void calculateGreeks(TradeBook book, int trade) throws CalculationException {
+        priceTrade(book, trade, null);
+    }
+
+    //Prices trade index of the book and appends its report (null = no report, nothing is formatted)
+    private void priceTrade(TradeBook book, int index, StringBuilder report) throws CalculationException {
+        Trade trade = book.get(index);
+        PricingEngine engine = engineRegistry.getEngine(trade);
+
+        long start = System.nanoTime();
+        String cacheKey = revaluationCache != null ? RevaluationCache.getResultKey(engine, trade) : null;
+        PricingResult result = cacheKey != null ? revaluationCache.getResult(cacheKey) : null;
+        boolean isCached = result != null;
+        if (!isCached) {
+            result = engine.calculate(trade);
+            if (cacheKey != null) {
+                revaluationCache.putResult(cacheKey, result);
+            }
+        }
+        double time = (System.nanoTime() - start) / 1e6;
+
+        if (report != null) {
+            report.append("Calcolando trade: ").append(trade.getDealNumber()).append("\n");
+            report.append(String.format("Underlying %s | Bucket: %s | AssetType: %s | OptionStyle: %s | Engine: %s\n", trade.getUnderlying(), trade.getBucket(), trade.getAssetType(), trade.getOptionStyle(), engine.getName()));
+            report.append(result.getDetails());
+            report.append(String.format("Time Engine: %.3f ms%s\n\n", time, isCached ? " (cache)" : ""));
+        }
+
+        //Aggiorno il Trade con i valori di value, delta e vega
+        book.setGreeks(index, result.getValue(), result.getDelta(), result.getVega());
+        book.setStandardErrors(index, result.getValueStandardError(), result.getDeltaStandardError(), result.getVegaStandardError());
+        book.setVegaByTenor(index, result.getVegaByTenor() != null ? result.getVegaByTenor() : getVegaByTenor(trade, result.getVega()));
+        book.setRateAndRepoDelta(index, result.getRateDelta(), result.getRepoDelta());
+    }
+
+    //Vega of the engines without a volatility term structure (analytic, lattice, shared simulations by underlying)
+    //allocated with the interpolation weights of the implied volatility at the maturity: exact for the Europeans,
+    //first order for the Bermudans, whose vega on the earlier exercise dates stays on the tenors of the maturity
+    private static double[] getVegaByTenor(Trade trade, double vega) {
+        double[] vegaByTenor = VolatilityInterpolator.getInterpolationWeights(trade.getMaturity());
+        for (int k = 0; k < vegaByTenor.length; k++) {
+            vegaByTenor[k] *= vega;
+        }
+        return vegaByTenor;
+    }
 
-        for (Trade trade : trades) {
-            System.out.println("Calcolando trade: " + trade.getDealNumber());
-
-            double deltaAAD = 0.0, deltaFD = 0.0, vegaAAD = 0.0, vegaFD = 0.0;
-            double analyticValue = 0.0, analyticDelta = 0.0, analyticVega = 0.0;
-            double timeAAD = 0.0, timeFD = 0.0, timeAnalytic = 0.0;
-            
-            RandomVariable value = null;
-            RandomVariable valueOriginal = null;
-            RandomVariable valueUp = null;
-            RandomVariable valueVolUp = null;
-            
+    //Runs the tasks on the executor (on the calling thread if null) and returns the results in input order.
+    //The tasks must not call invokeAll on the same executor: with all its workers waiting, they would never run.
+    static <T> List<T> invokeAll(List<Callable<T>> tasks, ExecutorService executor) throws CalculationException {
+        List<T> results = new ArrayList<>();
+
+        if (executor == null || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>();
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<T> future : futures) {
+                results.add(getResult(future));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CalculationException(e);
+        } finally {
+            //On a failure the tasks still queued are not run: the workers stay available to the next calls
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) throws CalculationException {
+        try {
+            return task.call();
+        } catch (CalculationException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CalculationException(e);
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws CalculationException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CalculationException) {
+                throw (CalculationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CalculationException(cause);
+        }
+    }
+
+    //Portfolio pricing: one simulation and one adjoint sweep for all the options sharing an underlying.
+    //Each option is priced on a RescaledAssetModel view with its own scale (1), volatility shift (0), rate shift (0) and
+    //repo rate AAD inputs, so that the gradient of the amount-weighted sum of the payoffs gives the delta, vega, rate
+    //delta and repo delta of every trade (the repo rate is per trade: it does not split the simulations).
+    //The per-unit greeks are obtained dividing by the amount: trades with zero amount get zero greeks.
+    //The paths of each group are split into chunks of chunkSize paths: every chunk is simulated, differentiated and
+    //released in turn (or on its own worker), and the values and gradients are averaged across the chunks.
+    public List<Trade> priceAndCalculateGreeksByUnderlying(List<Trade> trades) throws CalculationException {
+        TradeBook book = TradeBook.of(trades);
+        priceAndCalculateGreeksByUnderlying(book);
+        return book.asList();
+    }
+
+    //Greeks by underlying written in place into the columns of the book
+    public void priceAndCalculateGreeksByUnderlying(TradeBook book) throws CalculationException {
+        Map<String, List<Integer>> optionsByMarketData = new LinkedHashMap<>();
+
+        for (int i = 0; i < book.size(); i++) {
+            Trade trade = book.get(i);
             if (trade.getAssetType().equalsIgnoreCase("Stock")) {
-            	value = new RandomVariableFromDoubleArray(trade.getUnderlyingPrice());
-                deltaAAD = trade.getUnderlyingPrice();
-                vegaAAD = 0.0;
-                
-            } 
-            else {
-                
-                //Definition of Random Differentiable Variable 
-                RandomVariableDifferentiableAAD initialValue = (RandomVariableDifferentiableAAD) randomVariableFactory.createRandomVariable(trade.getUnderlyingPrice());
-                RandomVariableDifferentiable riskFreeRate = randomVariableFactory.createRandomVariable(trade.getRiskFreeRate());
-                RandomVariableDifferentiableAAD volatility = (RandomVariableDifferentiableAAD) randomVariableFactory.createRandomVariable(trade.getVolatility());
-
-                //Black-Scholes model creation
-                BlackScholesModel model = new BlackScholesModel(initialValue, riskFreeRate, volatility, randomVariableFactory);
-
-                //Time discretization and MC simulation
-                TimeDiscretization timeDiscretization = new TimeDiscretizationFromArray(0.0, numberOfTimeSteps, deltaT);
-                BrownianMotion brownianMotion = new BrownianMotionFromMersenneRandomNumbers(timeDiscretization, 1, numberOfPaths, seed);
-                EulerSchemeFromProcessModel process = new EulerSchemeFromProcessModel(model, brownianMotion);
-                MonteCarloAssetModel monteCarloModel = new MonteCarloAssetModel(process);
-
-                //Calculation with AAD
-                long startAAD = System.nanoTime();
-                if (trade.getOptionStyle().equalsIgnoreCase("European")) {
-                    EuropeanOption europeanOption = new EuropeanOption(trade.getUnderlying(), trade.getMaturity(), trade.getStrikes()[0], trade.getOptionType());
-                    value = (RandomVariableDifferentiable) europeanOption.getValue(0.0, monteCarloModel);
-                } else {
-                    double[] exerciseDates = trade.getExerciseDates();
-                    double[] notionals = new double[exerciseDates.length];
-                    double[] strikes = trade.getStrikes();
-
-                    Arrays.fill(notionals, 1.0);
-                    
-
-                    BermudanOption bermudanOption = new BermudanOption(exerciseDates, notionals, strikes, BermudanOption.ExerciseMethod.ESTIMATE_COND_EXPECTATION);
-                    value = bermudanOption.getValue(0.0, monteCarloModel);
-
-                    printGradientInfo((RandomVariableDifferentiableAAD) value);
+                book.setGreeks(i, trade.getUnderlyingPrice(), trade.getUnderlyingPrice(), 0.0);
+                book.setStandardErrors(i, 0.0, 0.0, 0.0);
+                book.setVegaByTenor(i, getVegaByTenor(trade, 0.0));
+                book.setRateAndRepoDelta(i, 0.0, 0.0);
+            } else {
+                //Options on the same underlying share the simulation only if they also share spot, volatility and rate
+                String marketDataKey = trade.getUnderlying() + "|" + trade.getUnderlyingPrice() + "|" + trade.getVolatility() + "|" + trade.getRiskFreeRate();
+                optionsByMarketData.computeIfAbsent(marketDataKey, k -> new ArrayList<>()).add(i);
+            }
+        }
 
-                }
+        RandomVariableDifferentiableAADFactory randomVariableFactory = new RandomVariableDifferentiableAADFactory();
+
+        List<PricingGroup> groups = new ArrayList<>();
+        for (List<Integer> options : optionsByMarketData.values()) {
+            groups.add(new PricingGroup(book, options));
+        }
 
-                Map<Long, RandomVariable> derivative = ((RandomVariableDifferentiableAAD) value).getGradient();
-                deltaAAD = (derivative.get(initialValue.getID()).getAverage()) * trade.getUnderlyingPrice();
-                vegaAAD = (derivative.get(volatility.getID()).getAverage()) * trade.getVolatility();
-                long endAAD = System.nanoTime();
-                timeAAD = (endAAD - startAAD) / 1e6;
-
-                
-                // Calculation with FD
-                long startFD = System.nanoTime();
-
-                BlackScholesModel modelOriginal = new BlackScholesModel(initialValue, riskFreeRate, volatility, randomVariableFactory);
-                MonteCarloAssetModel monteCarloOriginal = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelOriginal, brownianMotion));
-
-                if (trade.getOptionStyle().equalsIgnoreCase("European")) {
-                    EuropeanOption europeanOption = new EuropeanOption(trade.getUnderlying(), trade.getMaturity(), trade.getStrikes()[0], trade.getOptionType());
-                    valueOriginal = (RandomVariableDifferentiable) europeanOption.getValue(0.0, monteCarloOriginal);
-
-                    //Delta
-                    BlackScholesModel modelUp = new BlackScholesModel(initialValue.mult(1.01), riskFreeRate, volatility, randomVariableFactory);
-                    MonteCarloAssetModel monteCarloUp = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelUp, brownianMotion));
-                    valueUp = (RandomVariableDifferentiable) europeanOption.getValue(0.0, monteCarloUp);
-
-                    //Vega
-                    BlackScholesModel modelVolUp = new BlackScholesModel(initialValue, riskFreeRate, volatility.mult(1.01), randomVariableFactory);
-                    MonteCarloAssetModel monteCarloVolUp = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelVolUp, brownianMotion));
-                    valueVolUp = (RandomVariableDifferentiable) europeanOption.getValue(0.0, monteCarloVolUp);
-                } 
-                else { //Bermudan Option
-                    double[] exerciseDates = trade.getExerciseDates();
-                    double[] notionals = new double[exerciseDates.length];
-                    double[] strikes = trade.getStrikes();
-
-                    Arrays.fill(notionals, 1.0);
-
-                    BermudanOption bermudanOption = new BermudanOption(exerciseDates, notionals, strikes, BermudanOption.ExerciseMethod.ESTIMATE_COND_EXPECTATION);
-
-                    valueOriginal = bermudanOption.getValue(0.0, monteCarloOriginal);
-
-                    //Delta FD
-                    BlackScholesModel modelUp = new BlackScholesModel(initialValue.mult(1.01), riskFreeRate, volatility, randomVariableFactory);
-                    MonteCarloAssetModel monteCarloUp = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelUp, brownianMotion));
-                    valueUp = bermudanOption.getValue(0.0, monteCarloUp);
-
-                    //Vega FD
-                    BlackScholesModel modelVolUp = new BlackScholesModel(initialValue, riskFreeRate, volatility.mult(1.01), randomVariableFactory);
-                    MonteCarloAssetModel monteCarloVolUp = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelVolUp, brownianMotion));
-                    valueVolUp = bermudanOption.getValue(0.0, monteCarloVolUp);
+        //Each round prices one batch of paths (numberOfPaths, or the batch size of the controller) for every group
+        //still above its tolerances. The chunks of all these groups are independent tasks; their results are merged
+        //in chunk order, so that the greeks do not depend on the number of threads.
+        List<PricingGroup> activeGroups = groups;
+        while (!activeGroups.isEmpty()) {
+            int batchSize = pathCountController != null ? pathCountController.getBatchSize() : numberOfPaths;
+            //The antithetic generator builds the paths in pairs: the batch is split into chunks of whole pairs
+            int pathsPerUnit = pathGenerator == PathGenerator.ANTITHETIC ? 2 : 1;
+            int numberOfUnits = batchSize / pathsPerUnit;
+            int unitsPerChunk = Math.max(1, chunkSize / pathsPerUnit);
+            int numberOfChunks = chunkSize > 0 ? (numberOfUnits + unitsPerChunk - 1) / unitsPerChunk : 1;
+
+            List<Callable<GroupChunk>> tasks = new ArrayList<>();
+            for (PricingGroup group : activeGroups) {
+                for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+                    //Chunk sizes differ at most by one path (one pair of paths for the antithetic generator)
+                    int pathsInChunk = pathsPerUnit * (numberOfUnits / numberOfChunks + (chunk < numberOfUnits % numberOfChunks ? 1 : 0));
+                    int chunkIndex = group.numberOfChunks + chunk;
+                    tasks.add(() -> priceChunk(group, chunkIndex, pathsInChunk, randomVariableFactory));
                 }
+            }
 
-                //Delta and Vega FD
-                deltaFD = ((valueUp.getAverage() - valueOriginal.getAverage()) / 0.01);
-                vegaFD = ((valueVolUp.getAverage() - valueOriginal.getAverage()) / 0.01); 
-
-                long endFD = System.nanoTime();
-                timeFD = (endFD - startFD) / 1e6;
-
-              
-                //Check with Analytic Formulas
-                if (trade.getOptionStyle().equalsIgnoreCase("European")) {    
-                boolean isCall = trade.getOptionType() == 1.0;
-                analyticValue = AnalyticFormulas.blackScholesOptionValue(trade.getUnderlyingPrice(), trade.getRiskFreeRate(), trade.getVolatility(), trade.getMaturity(), trade.getStrikes()[0], isCall);
-                double deltaCall = AnalyticFormulas.blackScholesOptionDelta(trade.getUnderlyingPrice(), trade.getRiskFreeRate(), trade.getVolatility(), trade.getMaturity(), trade.getStrikes()[0]);
-                analyticDelta = ((trade.getOptionType() == 1.0) ? deltaCall : (deltaCall - 1)) * trade.getUnderlyingPrice();
-                analyticVega = AnalyticFormulas.blackScholesOptionVega(trade.getUnderlyingPrice(), trade.getRiskFreeRate(), trade.getVolatility(), trade.getMaturity(), trade.getStrikes()[0]) * trade.getVolatility();
-               
+            List<GroupChunk> chunks = invokeAll(tasks, executor);
+            List<PricingGroup> nextActiveGroups = new ArrayList<>();
+            for (int g = 0; g < activeGroups.size(); g++) {
+                PricingGroup group = activeGroups.get(g);
+                for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+                    group.merge(chunks.get(g * numberOfChunks + chunk));
+                }
+                group.numberOfChunks += numberOfChunks;
+                if (isBatchNeeded(group)) {
+                    nextActiveGroups.add(group);
                 }
             }
+            activeGroups = nextActiveGroups;
+        }
+
+        for (PricingGroup group : groups) {
+            System.out.print(group.getReport(adjointInputs.contains(AdjointInput.RATE)));
+            for (int i = 0; i < group.options.size(); i++) {
+                int trade = group.tradeIndices[i];
+                book.setGreeks(trade, group.values[i].getMean(), group.deltas[i].getMean(), group.vegas[i].getMean());
+                book.setStandardErrors(trade, group.values[i].getStandardError(pathGenerator), group.deltas[i].getStandardError(pathGenerator), group.vegas[i].getStandardError(pathGenerator));
+                book.setVegaByTenor(trade, getVegaByTenor(group.options.get(i), group.vegas[i].getMean()));
+                book.setRateAndRepoDelta(trade, group.rateDeltas[i].getMean(), group.repoDeltas[i].getMean());
+            }
+        }
+    }
+
+    //Simulation and adjoint sweep of a chunk of paths of a group of options sharing underlying, spot, volatility and rate.
+    //The tape of the chunk is released on return: only its means and mean squares are kept.
+    private GroupChunk priceChunk(PricingGroup group, int chunkIndex, int pathsInChunk, RandomVariableDifferentiableAADFactory randomVariableFactory) throws CalculationException {
+        List<Trade> options = group.options;
+        Trade first = options.get(0);
+        long start = System.nanoTime();
+
+        //A single chunk of numberOfPaths paths is shared with the other pricings through the cache, the chunks use seeds seed, seed + 1, ...
+        BrownianMotion brownianMotion = pathsInChunk == numberOfPaths && chunkIndex == 0
+                ? brownianMotionCache.getBrownianMotion(group.timeDiscretization, 1, numberOfPaths, seed, pathGenerator)
+                : BrownianMotionCache.createBrownianMotion(group.timeDiscretization, 1, pathsInChunk, seed + chunkIndex, pathGenerator);
+
+        //Only the requested inputs are recorded on the tape, the constants of the model are plain random variables
+        RandomVariable initialValue = MonteCarloPricingEngine.createInput(randomVariableFactory, adjointInputs, AdjointInput.SPOT, first.getUnderlyingPrice());
+        RandomVariable riskFreeRate = MonteCarloPricingEngine.createInput(randomVariableFactory, adjointInputs, AdjointInput.RATE, first.getRiskFreeRate());
+        RandomVariable volatility = MonteCarloPricingEngine.createInput(randomVariableFactory, adjointInputs, AdjointInput.VOLATILITY, first.getVolatility());
+
+        BlackScholesModel model = new BlackScholesModel(initialValue, riskFreeRate, volatility, new RandomVariableFromArrayFactory());
+        MonteCarloAssetModel monteCarloModel = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(model, brownianMotion));
+
+        RandomVariable[] scales = new RandomVariable[options.size()];
+        RandomVariable[] volatilityShifts = new RandomVariable[options.size()];
+        RandomVariable[] rateShifts = new RandomVariable[options.size()];
+        RandomVariable[] repoRates = new RandomVariable[options.size()];
+        RandomVariable[] optionValues = new RandomVariable[options.size()];
+        RandomVariable groupValue = null;
+
+        for (int i = 0; i < options.size(); i++) {
+            Trade trade = options.get(i);
+            scales[i] = MonteCarloPricingEngine.createInput(randomVariableFactory, adjointInputs, AdjointInput.SPOT, 1.0);
+            volatilityShifts[i] = MonteCarloPricingEngine.createInput(randomVariableFactory, adjointInputs, AdjointInput.VOLATILITY, 0.0);
+            //Rate shift and repo rate are applied only if differentiated or, for the repo rate, not zero
+            rateShifts[i] = adjointInputs.contains(AdjointInput.RATE) ? MonteCarloPricingEngine.createInput(randomVariableFactory, adjointInputs, AdjointInput.RATE, 0.0) : null;
+            repoRates[i] = adjointInputs.contains(AdjointInput.REPO) || trade.getRepoRate() != 0.0
+                    ? MonteCarloPricingEngine.createInput(randomVariableFactory, adjointInputs, AdjointInput.REPO, trade.getRepoRate()) : null;
+            RescaledAssetModel tradeModel = new RescaledAssetModel(monteCarloModel, scales[i], rateShifts[i], repoRates[i], volatilityShifts[i], brownianMotion, first.getVolatility());
+
+            optionValues[i] = MonteCarloPricingEngine.getOptionValue(trade, tradeModel);
+            groupValue = groupValue == null ? optionValues[i].mult(trade.getAmount()) : groupValue.add(optionValues[i].mult(trade.getAmount()));
+        }
 
+        //Single backward sweep for the whole group
+        Map<Long, RandomVariable> gradient = MonteCarloPricingEngine.getGradient(groupValue);
+
+        GroupChunk groupChunk = new GroupChunk(options.size());
+        for (int i = 0; i < options.size(); i++) {
+            Trade trade = options.get(i);
+            double amount = trade.getAmount();
+            groupChunk.values[i].addBatch(optionValues[i], pathsInChunk);
+            groupChunk.deltas[i].addBatch(MonteCarloPricingEngine.getDerivative(gradient, scales[i]).mult(amount != 0.0 ? 1.0 / amount : 0.0), pathsInChunk);
+            groupChunk.vegas[i].addBatch(MonteCarloPricingEngine.getDerivative(gradient, volatilityShifts[i]).mult(amount != 0.0 ? trade.getVolatility() / amount : 0.0), pathsInChunk);
+            groupChunk.rateDeltas[i].addBatch(MonteCarloPricingEngine.getDerivative(gradient, rateShifts[i]).mult(amount != 0.0 ? 1.0 / amount : 0.0), pathsInChunk);
+            groupChunk.repoDeltas[i].addBatch(MonteCarloPricingEngine.getDerivative(gradient, repoRates[i]).mult(amount != 0.0 ? 1.0 / amount : 0.0), pathsInChunk);
+        }
+        groupChunk.portfolioValue.addBatch(groupValue, pathsInChunk);
+        groupChunk.portfolioDelta.addBatch(MonteCarloPricingEngine.getDerivative(gradient, initialValue).mult(first.getUnderlyingPrice()), pathsInChunk);
+        groupChunk.portfolioVega.addBatch(MonteCarloPricingEngine.getDerivative(gradient, volatility).mult(first.getVolatility()), pathsInChunk);
+        groupChunk.portfolioRho.addBatch(MonteCarloPricingEngine.getDerivative(gradient, riskFreeRate), pathsInChunk);
+        groupChunk.time = (System.nanoTime() - start) / 1e6;
 
-            System.out.printf("Underlying %s | Bucket: %s | AssetType: %s | OptionStyle: %s\n", trade.getUnderlying(), trade.getBucket(), trade.getAssetType(), trade.getOptionStyle());
-            System.out.printf("Value AAD: %.6f | Value FD: %.6f | Value Analytic: %.6f\n", value.getAverage(), (valueOriginal != null ? valueOriginal.getAverage() : 0.0), analyticValue);
-            System.out.printf("Delta AAD: %.6f | Delta FD: %.6f | Analytic Delta: %.6f\n", deltaAAD, deltaFD, analyticDelta);
-            System.out.printf("Vega AAD: %.6f | Vega FD: %.6f | Analytic Vega: %.6f\n", vegaAAD, vegaFD, analyticVega);
-            System.out.printf("Time AAD: %.3f ms | Time FD: %.3f ms | Time Analytic: %.3f ms\n\n", timeAAD, timeFD, timeAnalytic);
-            
-            //Aggiorno il Trade con i valori di valueAAD, deltaAAD e vegaAAD
-            Trade updatedTrade = new Trade(
-                    trade.getPortfolio(), trade.getDealNumber(), trade.getAssetType(), trade.getOptionStyle(),
-                    trade.getRiskFactorDelta(), trade.getRiskFactorVega(), trade.getUnderlying(), trade.getBucket(), trade.getOptionType(),
-                    trade.getCurrency(), trade.getAmount(), trade.getVolatility(),
-                    trade.getStrikes(), trade.getUnderlyingPrice(), trade.getMaturity(), trade.getExerciseDates(),
-                    trade.getRiskFreeRate(), value.getAverage(), deltaAAD, vegaAAD, trade.getCurvatureRiskPlus(), trade.getCurvatureRiskMinus()
-            );
+        return groupChunk;
+    }
 
-            updatedTrades.add(updatedTrade);
+    //True if some option of the group is above the tolerances of its bucket and more paths are allowed
+    private boolean isBatchNeeded(PricingGroup group) {
+        if (pathCountController == null) {
+            return false;
+        }
+        for (int i = 0; i < group.options.size(); i++) {
+            if (pathCountController.isBatchNeeded(group.options.get(i).getBucket(), group.values[i].getNumberOfPaths(),
+                    group.values[i].getStandardError(pathGenerator), group.deltas[i].getStandardError(pathGenerator), group.vegas[i].getStandardError(pathGenerator))) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        return updatedTrades;
+    //Statistics of a chunk of paths of a group: value, delta, vega, rate and repo delta of each option and of the group
+    private static class GroupChunk {
+        protected final MonteCarloStatistics[] values;
+        protected final MonteCarloStatistics[] deltas;
+        protected final MonteCarloStatistics[] vegas;
+        protected final MonteCarloStatistics[] rateDeltas;
+        protected final MonteCarloStatistics[] repoDeltas;
+        protected final MonteCarloStatistics portfolioValue = new MonteCarloStatistics();
+        protected final MonteCarloStatistics portfolioDelta = new MonteCarloStatistics();
+        protected final MonteCarloStatistics portfolioVega = new MonteCarloStatistics();
+        protected final MonteCarloStatistics portfolioRho = new MonteCarloStatistics();
+        //Time spent on the chunks (ms), summed over the chunks of a group
+        protected double time;
+
+        private GroupChunk(int numberOfOptions) {
+            values = new MonteCarloStatistics[numberOfOptions];
+            deltas = new MonteCarloStatistics[numberOfOptions];
+            vegas = new MonteCarloStatistics[numberOfOptions];
+            rateDeltas = new MonteCarloStatistics[numberOfOptions];
+            repoDeltas = new MonteCarloStatistics[numberOfOptions];
+            for (int i = 0; i < numberOfOptions; i++) {
+                values[i] = new MonteCarloStatistics();
+                deltas[i] = new MonteCarloStatistics();
+                vegas[i] = new MonteCarloStatistics();
+                rateDeltas[i] = new MonteCarloStatistics();
+                repoDeltas[i] = new MonteCarloStatistics();
+            }
+        }
     }
-    
-    private static void printGradientInfo(RandomVariableDifferentiable value) {
-        System.out.println("== GRADIENT INFO ==");
 
-        Map<Long, RandomVariable> gradient = value.getGradient();
+    //Group of options sharing the same simulation, with the statistics of the chunks priced so far
+    private static final class PricingGroup extends GroupChunk {
+        private final List<Trade> options;
+        //Indices of the options in the book
+        private final int[] tradeIndices;
+        private final TimeDiscretization timeDiscretization;
+        private int numberOfChunks;
+
+        private PricingGroup(TradeBook book, List<Integer> tradeIndices) {
+            super(tradeIndices.size());
+            this.tradeIndices = tradeIndices.stream().mapToInt(Integer::intValue).toArray();
+            this.options = new ArrayList<>(tradeIndices.size());
+            for (int trade : this.tradeIndices) {
+                options.add(book.get(trade));
+            }
+            //Union of the dates of the options in the group
+            this.timeDiscretization = MonteCarloPricingEngine.getTimeDiscretization(options);
+        }
 
-        for (Map.Entry<Long, RandomVariable> entry : gradient.entrySet()) {
-            Long id = entry.getKey();
-            RandomVariable derivative = entry.getValue();
+        private void merge(GroupChunk chunk) {
+            for (int i = 0; i < options.size(); i++) {
+                values[i].merge(chunk.values[i]);
+                deltas[i].merge(chunk.deltas[i]);
+                vegas[i].merge(chunk.vegas[i]);
+                rateDeltas[i].merge(chunk.rateDeltas[i]);
+                repoDeltas[i].merge(chunk.repoDeltas[i]);
+            }
+            portfolioValue.merge(chunk.portfolioValue);
+            portfolioDelta.merge(chunk.portfolioDelta);
+            portfolioVega.merge(chunk.portfolioVega);
+            portfolioRho.merge(chunk.portfolioRho);
+            time += chunk.time;
+        }
 
-            System.out.printf("Input ID: %d | Derivative avg: %.6f%n", id, derivative.getAverage());
+        private String getReport(boolean withRho) {
+            String report = String.format("Underlying %s | Trades: %d | Portfolio Value: %.6f | Portfolio Delta AAD: %.6f | Portfolio Vega AAD: %.6f | Paths: %d | Chunks: %d | Time AAD: %.3f ms\n",
+                    options.get(0).getUnderlying(), options.size(), portfolioValue.getMean(), portfolioDelta.getMean(), portfolioVega.getMean(),
+                    portfolioValue.getNumberOfPaths(), numberOfChunks, time);
+            if (withRho) {
+                report += String.format("Underlying %s | Portfolio Rho AAD: %.6f\n", options.get(0).getUnderlying(), portfolioRho.getMean());
+            }
+            return report;
         }
     }
 
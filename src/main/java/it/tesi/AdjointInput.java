@@ -0,0 +1,19 @@
+package it.tesi;
+
+//Inputs of the Black-Scholes model that can be differentiated by the AAD engines.
+//Inputs not requested are created as plain random variables: the operations depending only on them
+//are not recorded on the tape and the backward sweep does not visit them.
+public enum AdjointInput {
+
+    //Initial value of the underlying (delta)
+    SPOT,
+
+    //Volatility (vega)
+    VOLATILITY,
+
+    //Risk free rate (rho, dV/dr)
+    RATE,
+
+    //Repo rate / dividend yield of the underlying (dV/dq)
+    REPO
+}
@@ -0,0 +1,52 @@
+package it.tesi;
+
+import net.finmath.functions.AnalyticFormulas;
+
+//Closed-form Black-Scholes engine for European options. The repo rate q (dividend yield) enters as the spot
+//S * exp(-q T) of the Black-Scholes formula.
+public class AnalyticPricingEngine implements PricingEngine {
+
+    @Override
+    public String getName() {
+        return "Analytic";
+    }
+
+    @Override
+    public PricingResult calculate(Trade trade) {
+        boolean isCall = trade.getOptionType() == 1.0;
+        double[] greeks = getValueAndSensitivities(trade.getUnderlyingPrice(), trade.getRiskFreeRate(), trade.getRepoRate(),
+                trade.getVolatility(), trade.getMaturity(), trade.getStrikes()[0], isCall);
+        double value = greeks[0];
+        double delta = greeks[1];
+        double vega = greeks[2];
+
+        return new PricingResult(value, delta, vega, null, greeks[3], greeks[4], 0.0, 0.0, 0.0,
+                String.format("Value Analytic: %.6f | Delta Analytic: %.6f | Vega Analytic: %.6f\n", value, delta, vega)
+                        + String.format("Rate Delta Analytic: %.6f | Repo Delta Analytic: %.6f\n", greeks[3], greeks[4]));
+    }
+
+    @Override
+    public double getValue(Trade trade, double underlyingPrice) {
+        boolean isCall = trade.getOptionType() == 1.0;
+        double spot = underlyingPrice * Math.exp(-trade.getRepoRate() * trade.getMaturity());
+        return AnalyticFormulas.blackScholesOptionValue(spot, trade.getRiskFreeRate(), trade.getVolatility(), trade.getMaturity(), trade.getStrikes()[0], isCall);
+    }
+
+    //Value, delta (dV/dS * S), vega (dV/dsigma * sigma), rate delta (dV/dr) and repo delta (dV/dq) of a European
+    static double[] getValueAndSensitivities(double underlyingPrice, double riskFreeRate, double repoRate, double volatility,
+                                             double maturity, double strike, boolean isCall) {
+        double spot = underlyingPrice * Math.exp(-repoRate * maturity);
+
+        double value = AnalyticFormulas.blackScholesOptionValue(spot, riskFreeRate, volatility, maturity, strike, isCall);
+        double deltaCall = AnalyticFormulas.blackScholesOptionDelta(spot, riskFreeRate, volatility, maturity, strike);
+        double delta = (isCall ? deltaCall : (deltaCall - 1)) * spot;
+        double vega = AnalyticFormulas.blackScholesOptionVega(spot, riskFreeRate, volatility, maturity, strike) * volatility;
+        //Put-call parity C - P = S exp(-q T) - K exp(-r T) for the rho of the put
+        double rhoCall = AnalyticFormulas.blackScholesOptionRho(spot, riskFreeRate, volatility, maturity, strike);
+        double rateDelta = isCall ? rhoCall : rhoCall - strike * maturity * Math.exp(-riskFreeRate * maturity);
+        //dV/dq = dV/dspot * dspot/dq = -T * dV/dspot * spot
+        double repoDelta = -maturity * delta;
+
+        return new double[] {value, delta, vega, rateDelta, repoDelta};
+    }
+}
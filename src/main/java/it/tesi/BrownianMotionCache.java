@@ -0,0 +1,108 @@
+package it.tesi;
+
+import net.finmath.montecarlo.BrownianMotion;
+import net.finmath.montecarlo.BrownianMotionFromMersenneRandomNumbers;
+import net.finmath.time.TimeDiscretization;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class BrownianMotionCache {
+
+    private static final int DEFAULT_MAXIMUM_SIZE = 4;
+    private static final BrownianMotionCache SHARED = new BrownianMotionCache(DEFAULT_MAXIMUM_SIZE);
+
+    private final int maximumSize;
+    private final Map<Key, BrownianMotion> brownianMotions;
+
+
+    public BrownianMotionCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("La dimensione massima della cache deve essere positiva: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+
+        //Access-ordered map: the least recently used Brownian motion is evicted first
+        this.brownianMotions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, BrownianMotion> eldest) {
+                return size() > BrownianMotionCache.this.maximumSize;
+            }
+        };
+    }
+
+    //Cache shared by AADPricer and CurvatureRiskCalculator
+    public static BrownianMotionCache getShared() {
+        return SHARED;
+    }
+
+    public BrownianMotion getBrownianMotion(TimeDiscretization timeDiscretization, int numberOfFactors, int numberOfPaths, int seed) {
+        return getBrownianMotion(timeDiscretization, numberOfFactors, numberOfPaths, seed, PathGenerator.MERSENNE);
+    }
+
+    //Returns the Brownian motion for the given key, creating it on a miss.
+    //The increments are generated lazily (and only once) by the Brownian motion itself, outside of this lock.
+    public synchronized BrownianMotion getBrownianMotion(TimeDiscretization timeDiscretization, int numberOfFactors, int numberOfPaths, int seed, PathGenerator pathGenerator) {
+        Key key = new Key(timeDiscretization.getAsDoubleArray(), numberOfFactors, numberOfPaths, seed, pathGenerator);
+
+        return brownianMotions.computeIfAbsent(key,
+                k -> createBrownianMotion(timeDiscretization, numberOfFactors, numberOfPaths, seed, pathGenerator));
+    }
+
+    //New (not cached) Brownian motion, e.g. for batches of paths used only once
+    public static BrownianMotion createBrownianMotion(TimeDiscretization timeDiscretization, int numberOfFactors, int numberOfPaths, int seed, PathGenerator pathGenerator) {
+        return pathGenerator == PathGenerator.MERSENNE
+                ? new BrownianMotionFromMersenneRandomNumbers(timeDiscretization, numberOfFactors, numberOfPaths, seed)
+                : new VarianceReducedBrownianMotion(timeDiscretization, numberOfFactors, numberOfPaths, seed, pathGenerator);
+    }
+
+    public synchronized int size() {
+        return brownianMotions.size();
+    }
+
+    public synchronized void clear() {
+        brownianMotions.clear();
+    }
+
+
+    //Key of the cache: time discretization, number of factors, number of paths, seed and path generator
+    private static final class Key {
+        private final double[] times;
+        private final int numberOfFactors;
+        private final int numberOfPaths;
+        private final int seed;
+        private final PathGenerator pathGenerator;
+        private final int hashCode;
+
+        private Key(double[] times, int numberOfFactors, int numberOfPaths, int seed, PathGenerator pathGenerator) {
+            this.times = times;
+            this.numberOfFactors = numberOfFactors;
+            this.numberOfPaths = numberOfPaths;
+            this.seed = seed;
+            this.pathGenerator = pathGenerator;
+            this.hashCode = 31 * (31 * (31 * (31 * Arrays.hashCode(times) + numberOfFactors) + numberOfPaths) + seed) + pathGenerator.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return numberOfFactors == key.numberOfFactors
+                    && numberOfPaths == key.numberOfPaths
+                    && seed == key.seed
+                    && pathGenerator == key.pathGenerator
+                    && Arrays.equals(times, key.times);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package it.tesi;
+
+//Capital requirement of a risk class (delta, vega or curvature) in the three correlation scenarios:
+//by bucket (arrays indexed by bucket) and after the inter-bucket aggregation.
+public class CapitalRequirement {
+
+    private final int[] buckets;
+    private final double[][] capitalByBucket;
+    private final double[] capital;
+    private final boolean[][] isPlusSelectedByBucket;
+
+
+    public CapitalRequirement(int[] buckets, double[][] capitalByBucket, double[] capital) {
+        this(buckets, capitalByBucket, capital, null);
+    }
+
+    //isPlusSelectedByBucket: curvature scenario (plus or minus) selected in each bucket, by correlation scenario
+    public CapitalRequirement(int[] buckets, double[][] capitalByBucket, double[] capital, boolean[][] isPlusSelectedByBucket) {
+        this.buckets = buckets;
+        this.capitalByBucket = capitalByBucket;
+        this.capital = capital;
+        this.isPlusSelectedByBucket = isPlusSelectedByBucket;
+    }
+
+    //Buckets with sensitivities, ascending
+    public int[] getBuckets() {
+        return buckets.clone();
+    }
+
+    public double[] getCapitalByBucket(CorrelationScenario scenario) {
+        return capitalByBucket[scenario.ordinal()].clone();
+    }
+
+    public double getCapitalByBucket(CorrelationScenario scenario, int bucket) {
+        double[] capitalOfScenario = capitalByBucket[scenario.ordinal()];
+        return bucket < capitalOfScenario.length ? capitalOfScenario[bucket] : 0.0;
+    }
+
+    //Maximum over the scenarios of the capital of each bucket (used by the inter-bucket aggregation)
+    public double[] getFinalCapitalByBucket() {
+        return getMaximumByBucket(capitalByBucket);
+    }
+
+    public double getCapital(CorrelationScenario scenario) {
+        return capital[scenario.ordinal()];
+    }
+
+    public double getFinalCapital() {
+        double finalCapital = capital[0];
+        for (double scenarioCapital : capital) {
+            finalCapital = Math.max(finalCapital, scenarioCapital);
+        }
+        return finalCapital;
+    }
+
+    //Curvature only: true if CVR+ is the selected scenario of the bucket
+    public boolean isPlusSelected(CorrelationScenario scenario, int bucket) {
+        if (isPlusSelectedByBucket == null) {
+            throw new IllegalStateException("Scenario di curvatura non disponibile per questo requisito.");
+        }
+        boolean[] isPlusSelected = isPlusSelectedByBucket[scenario.ordinal()];
+        return bucket >= isPlusSelected.length || isPlusSelected[bucket];
+    }
+
+    static double[] getMaximumByBucket(double[][] capitalByBucket) {
+        double[] maximum = capitalByBucket[0].clone();
+        for (double[] capitalOfScenario : capitalByBucket) {
+            for (int bucket = 0; bucket < maximum.length; bucket++) {
+                maximum[bucket] = Math.max(maximum[bucket], capitalOfScenario[bucket]);
+            }
+        }
+        return maximum;
+    }
+}
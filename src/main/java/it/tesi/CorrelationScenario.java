@@ -0,0 +1,24 @@
+package it.tesi;
+
+//Correlation scenarios of the sensitivities based method: the capital requirement is the maximum over the three.
+//The scenario correlations are obtained from the medium (regulatory) ones, see RegulatoryParameters.applyScenario.
+public enum CorrelationScenario {
+
+    LOW,
+
+    MEDIUM,
+
+    HIGH;
+
+    //Scenario of the string based API: "low", "medium" or "high" (any other name is the medium scenario)
+    public static CorrelationScenario fromName(String name) {
+        switch (name) {
+            case "high":
+                return HIGH;
+            case "low":
+                return LOW;
+            default:
+                return MEDIUM;
+        }
+    }
+}
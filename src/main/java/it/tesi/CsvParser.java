@@ -3,14 +3,22 @@ package it.tesi;
 import org.apache.commons.csv.*;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 public class CsvParser {
 	
+	private static final CSVFormat TRADE_FORMAT = CSVFormat.DEFAULT.builder()
+	        .setHeader()
+	        .setIgnoreHeaderCase(true)
+	        .setTrim(true)
+	        .build();
+
 	//Bucket Map creation
 	private static final Map<String, Integer> underlyingBucketMap = new HashMap<>();
 
@@ -40,53 +48,10 @@ public class CsvParser {
 	    List<Trade> trades = new ArrayList<>();
 
 	    try (Reader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-	         CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.builder()
-	                 .setHeader()
-	                 .setIgnoreHeaderCase(true)
-	                 .setTrim(true)
-	                 .build())) {
+	         CSVParser csvParser = new CSVParser(reader, TRADE_FORMAT)) {
 
 	        for (CSVRecord record : csvParser) {
-
-	            String underlying = record.get("Underlying").trim();
-	            int bucket = underlyingBucketMap.getOrDefault(underlying, 0); // Se non trovato, assegna 0
-                double maturity = safeParseDouble(record.get("Maturity"));
-
-                //RiskFactorDelta e RiskFactorVega assignment
-                String riskFactorDelta = "Spot-" + underlying;
-                String riskFactorVega = null;
-
-                if (record.get("AssetType").equalsIgnoreCase("Option")) {
-                    riskFactorVega = VolatilityInterpolator.getFormattedRiskFactorVega(underlying, maturity);
-                }
-                
-	            Trade trade = new Trade(
-	                    record.get("Portfolio"),
-	                    safeParseInt(record.get("DealNumber")),
-	                    record.get("AssetType"),
-	                    record.get("AssetType").equalsIgnoreCase("Stock") ? "Stock" : record.get("OptionStyle"),
-	                    riskFactorDelta,
-	                    riskFactorVega,
-	                    underlying,
-	                    bucket,
-	                    safeParseDouble(record.get("OptionType")),
-	                    record.get("Currency"),
-	                    safeParseDouble(record.get("Amount")),
-	                    safeParseDouble(record.get("Volatility")),
-	                    parseStrikes(record.get("Strikes")),
-	                    safeParseDouble(record.get("UnderlyingPrice")),
-	                    safeParseDouble(record.get("Maturity")),
-	                    parseExerciseDates(record.get("ExerciseDates")),
-	                    safeParseDouble(record.get("RiskFreeRate")),
-	                    record.isMapped("Value") && !record.get("Value").isEmpty() ? safeParseDouble(record.get("Value")) : 0.0,
-	                    record.isMapped("Delta") && !record.get("Delta").isEmpty() ? safeParseDouble(record.get("Delta")) : 0.0,
-	                    record.isMapped("Vega") && !record.get("Vega").isEmpty() ? safeParseDouble(record.get("Vega")) : 0.0,
-	                    record.isMapped("CurvatureRiskPlus") && !record.get("CurvatureRiskPlus").isEmpty() ? safeParseDouble(record.get("CurvatureRiskPlus")) : 0.0,
-	                    record.isMapped("CurvatureRiskMinus") && !record.get("CurvatureRiskMinus").isEmpty() ? safeParseDouble(record.get("CurvatureRiskMinus")) : 0.0
-	            		);
-	           
-	            
-	            trades.add(trade);
+	            trades.add(toTrade(record));
 	        }
 
 	    } catch (IOException e) {
@@ -96,6 +61,136 @@ public class CsvParser {
 	    return trades;
 	}
 
+	//CSV trades written directly into the columns of a TradeBook, without Trade objects
+	public static TradeBook parseCsvTradeBook(InputStream inputStream) {
+	    TradeBook book = new TradeBook();
+
+	    try (Reader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+	         CSVParser csvParser = new CSVParser(reader, TRADE_FORMAT)) {
+
+	        for (CSVRecord record : csvParser) {
+	            addTrade(book, record);
+	        }
+
+	    } catch (IOException | UncheckedIOException e) {
+	        System.err.println("Errore nella lettura del file CSV: " + e.getMessage());
+	    }
+
+	    return book;
+	}
+
+	//Lazy stream of the trades of the CSV: the records are read and converted one at a time, so the file is never
+	//held in memory. The stream must be closed; a reading error is thrown by the stream as UncheckedIOException.
+	public static Stream<Trade> streamCsvTrade(InputStream inputStream) throws IOException {
+	    CSVParser csvParser = new CSVParser(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)), TRADE_FORMAT);
+	    return csvParser.stream()
+	            .map(CsvParser::toTrade)
+	            .onClose(() -> {
+	                try {
+	                    csvParser.close();
+	                } catch (IOException e) {
+	                    throw new UncheckedIOException(e);
+	                }
+	            });
+	}
+
+	//Binary snapshot of the trades of the CSV (see TradeSnapshot), filled while the records are read
+	public static int writeSnapshot(InputStream inputStream, Path snapshot) throws IOException {
+	    TradeSnapshot.Writer writer = new TradeSnapshot.Writer();
+	    try (Stream<Trade> trades = streamCsvTrade(inputStream)) {
+	        trades.forEach(writer::add);
+	    } catch (UncheckedIOException e) {
+	        throw e.getCause();
+	    }
+	    writer.write(snapshot);
+	    return writer.getNumberOfTrades();
+	}
+
+	private static Trade toTrade(CSVRecord record) {
+	    String underlying = record.get("Underlying").trim();
+	    double maturity = safeParseDouble(record.get("Maturity"));
+	    RiskFactorRegistry registry = RiskFactorRegistry.getDefault();
+
+	    return new SimpleTrade(
+	            record.get("Portfolio"),
+	            safeParseInt(record.get("DealNumber")),
+	            record.get("AssetType"),
+	            getOptionStyle(record),
+	            registry.getSpotId(underlying),
+	            isOption(record) ? registry.getImpliedVolatilityId(underlying, maturity) : -1,
+	            underlying,
+	            getBucket(underlying),
+	            safeParseDouble(record.get("OptionType")),
+	            record.get("Currency"),
+	            safeParseDouble(record.get("Amount")),
+	            safeParseDouble(record.get("Volatility")),
+	            parseStrikes(record.get("Strikes")),
+	            safeParseDouble(record.get("UnderlyingPrice")),
+	            maturity,
+	            parseExerciseDates(record.get("ExerciseDates")),
+	            safeParseDouble(record.get("RiskFreeRate")),
+	            getOptionalDouble(record, "RepoRate"),
+	            getOptionalDouble(record, "Value"),
+	            getOptionalDouble(record, "Delta"),
+	            getOptionalDouble(record, "Vega"),
+	            getOptionalDouble(record, "CurvatureRiskPlus"),
+	            getOptionalDouble(record, "CurvatureRiskMinus")
+	    );
+	}
+
+	//Same fields as toTrade, written into the columns of the book, with the repo, implied volatility tenors and rate
+	//risk factors registered by RiskFactorRegistry.getTradeRiskFactors as in SimpleTrade
+	private static void addTrade(TradeBook book, CSVRecord record) {
+	    String underlying = record.get("Underlying").trim();
+	    String currency = record.get("Currency");
+	    double maturity = safeParseDouble(record.get("Maturity"));
+	    RiskFactorRegistry registry = RiskFactorRegistry.getDefault();
+	    RiskFactorRegistry.TradeRiskFactors tradeRiskFactors = registry.getTradeRiskFactors(record.get("AssetType"), underlying, currency);
+
+	    int trade = book.add(
+	            record.get("Portfolio"),
+	            safeParseInt(record.get("DealNumber")),
+	            record.get("AssetType"),
+	            getOptionStyle(record),
+	            registry.getSpotId(underlying),
+	            isOption(record) ? registry.getImpliedVolatilityId(underlying, maturity) : -1,
+	            tradeRiskFactors.getRepoId(),
+	            tradeRiskFactors.getVolatilityTenorsId(),
+	            tradeRiskFactors.getRateTenorsId(),
+	            tradeRiskFactors.getRateBucket(),
+	            underlying,
+	            getBucket(underlying),
+	            safeParseDouble(record.get("OptionType")),
+	            currency,
+	            safeParseDouble(record.get("Amount")),
+	            safeParseDouble(record.get("Volatility")),
+	            parseStrikes(record.get("Strikes")),
+	            safeParseDouble(record.get("UnderlyingPrice")),
+	            maturity,
+	            parseExerciseDates(record.get("ExerciseDates")),
+	            safeParseDouble(record.get("RiskFreeRate")),
+	            getOptionalDouble(record, "RepoRate"));
+	    book.setGreeks(trade, getOptionalDouble(record, "Value"), getOptionalDouble(record, "Delta"), getOptionalDouble(record, "Vega"));
+	    book.setCurvatureRisk(trade, getOptionalDouble(record, "CurvatureRiskPlus"), getOptionalDouble(record, "CurvatureRiskMinus"));
+	}
+
+	private static int getBucket(String underlying) {
+	    return underlyingBucketMap.getOrDefault(underlying, 0); // Se non trovato, assegna 0
+	}
+
+	private static boolean isOption(CSVRecord record) {
+	    return record.get("AssetType").equalsIgnoreCase("Option");
+	}
+
+	private static String getOptionStyle(CSVRecord record) {
+	    return record.get("AssetType").equalsIgnoreCase("Stock") ? "Stock" : record.get("OptionStyle");
+	}
+
+	//Column that may be missing or empty (results of a previous run, repo rate of older files): 0 if absent
+	private static double getOptionalDouble(CSVRecord record, String column) {
+	    return record.isMapped(column) && !record.get(column).isEmpty() ? safeParseDouble(record.get(column)) : 0.0;
+	}
+
 
     // Helper to help with erroneous conversions of Integer
     private static int safeParseInt(String value) {
@@ -1,106 +1,137 @@
 package it.tesi;
 
 import net.finmath.exception.CalculationException;
-import net.finmath.montecarlo.*;
-import net.finmath.montecarlo.assetderivativevaluation.*;
-import net.finmath.montecarlo.assetderivativevaluation.models.BlackScholesModel;
-import net.finmath.montecarlo.assetderivativevaluation.products.BermudanOption;
-import net.finmath.montecarlo.assetderivativevaluation.products.EuropeanOption;
-import net.finmath.montecarlo.process.EulerSchemeFromProcessModel;
-import net.finmath.stochastic.RandomVariable;
-import net.finmath.time.TimeDiscretization;
-import net.finmath.time.TimeDiscretizationFromArray;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 public class CurvatureRiskCalculator {
 
-    private final int numberOfPaths;
-    private final int numberOfTimeSteps;
-    private final double deltaT;
-    private final int seed;
+    private final PricingEngineRegistry engineRegistry;
+    private ExecutorService executor;
+    private RevaluationCache revaluationCache;
 
     
-    public CurvatureRiskCalculator(int numberOfPaths, int numberOfTimeSteps, double deltaT, int seed) {
-        this.numberOfPaths = numberOfPaths;
-        this.numberOfTimeSteps = numberOfTimeSteps;
-        this.deltaT = deltaT;
-        this.seed = seed;
+    public CurvatureRiskCalculator() {
+        this(PricingEngineRegistry.createDefault());
     }
 
-    
+    //Revaluations with the same engines used for the greeks
+    public CurvatureRiskCalculator(PricingEngineRegistry engineRegistry) {
+        this.engineRegistry = engineRegistry;
+    }
+
+    //Workers used for the revaluations of the trades (null = sequential on the calling thread), shut down by the caller
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    //Shocked values of previous runs (null = every scenario is revalued)
+    public void setRevaluationCache(RevaluationCache revaluationCache) {
+        this.revaluationCache = revaluationCache;
+    }
+
+    //CVR+ and CVR- by risk factor and bucket. The revaluations of the trades are independent tasks; the contribution
+    //of each trade is stored on the trade itself and the sums by risk factor are taken afterwards in input order,
+    //so that the result does not depend on the number of threads.
     public Map<String, Map<Integer, Double[]>> calculateCurvatureRisk(List<Trade> trades) throws CalculationException {
-        Map<String, Map<Integer, Double[]>> curvatureRisk = new HashMap<>();
+        return calculateCurvatureRiskStore(trades).toCurvatureMap();
+    }
+
+    //CVR+ and CVR- in the CVR_PLUS and CVR_MINUS columns of a store, one row per (risk factor, bucket)
+    public SensitivityStore calculateCurvatureRiskStore(List<Trade> trades) throws CalculationException {
+        SensitivityStore curvatureRisk = new SensitivityStore(2);
+
+        //Grouped by risk factor id, in order of first appearance
+        Map<Integer, List<Trade>> tradesByRiskFactor = new LinkedHashMap<>();
+        for (Trade trade : trades) {
+            if (trade.getAssetType().equalsIgnoreCase("Option")) {
+                tradesByRiskFactor.computeIfAbsent(trade.getRiskFactorDeltaId(), k -> new ArrayList<>()).add(trade);
+            }
+        }
 
-        Map<String, List<Trade>> tradesByRiskFactor  = trades.stream()
-                .filter(trade -> trade.getAssetType().equalsIgnoreCase("Option"))
-                .collect(Collectors.groupingBy(Trade::getRiskFactorDelta));
+        //Up and down scenarios of a trade in one task: they share the simulation of the engine
+        List<Callable<double[]>> tasks = new ArrayList<>();
+        for (List<Trade> riskFactorDeltaTrades : tradesByRiskFactor.values()) {
+            double riskWeight = getCurvatureRiskWeight(riskFactorDeltaTrades.get(0).getBucket());
+            for (Trade trade : riskFactorDeltaTrades) {
+                tasks.add(() -> calculateContribution(trade, riskWeight));
+            }
+        }
+        Iterator<double[]> contributions = AADPricer.invokeAll(tasks, executor).iterator();
 
-        for (Map.Entry<String, List<Trade>> entry : tradesByRiskFactor .entrySet()) {
-            String riskFactorDelta = entry.getKey();
+        for (Map.Entry<Integer, List<Trade>> entry : tradesByRiskFactor.entrySet()) {
+            int riskFactorDelta = entry.getKey();
             List<Trade> riskFactorDeltaTrades = entry.getValue();
             int bucket = riskFactorDeltaTrades.get(0).getBucket();
-            double riskWeight = getCurvatureRiskWeight(bucket);
 
             double CVR_plus = 0.0;
             double CVR_minus = 0.0;
 
             for (Trade trade : riskFactorDeltaTrades) {
-                double delta = trade.getDelta();
-                double shockedUnderlyingPriceUp = trade.getUnderlyingPrice() * (1 + riskWeight);
-                double shockedUnderlyingPriceDown = trade.getUnderlyingPrice() * (1 - riskWeight);
-
-                double valueBase = priceOption(trade, trade.getUnderlyingPrice());
-                double valueUp = priceOption(trade, shockedUnderlyingPriceUp);
-                double valueDown = priceOption(trade, shockedUnderlyingPriceDown);
-
-                CVR_plus += -(valueUp - valueBase - riskWeight * delta);
-                CVR_minus += -(valueDown - valueBase + riskWeight * delta);
+                double[] contribution = contributions.next();
+                CVR_plus += contribution[0];
+                CVR_minus += contribution[1];
                 
-                trade.setCurvatureRisk(CVR_plus, CVR_minus);
+                trade.setCurvatureRisk(contribution[0], contribution[1]);
             }
 
-            curvatureRisk.computeIfAbsent(riskFactorDelta, k -> new HashMap<>())
-                         .put(bucket, new Double[]{CVR_plus, CVR_minus});
+            int row = curvatureRisk.getRow(riskFactorDelta, bucket);
+            curvatureRisk.add(row, SensitivityStore.CVR_PLUS, CVR_plus);
+            curvatureRisk.add(row, SensitivityStore.CVR_MINUS, CVR_minus);
         }
 
         return curvatureRisk;
     }
 
-    //pricing
-    private double priceOption(Trade trade, double shockedUnderlyingPrice) throws CalculationException {
-        RandomVariable initialValue = new RandomVariableFromDoubleArray(shockedUnderlyingPrice);
-        RandomVariable riskFreeRate = new RandomVariableFromDoubleArray(trade.getRiskFreeRate());
-        RandomVariable volatility = new RandomVariableFromDoubleArray(trade.getVolatility());
-
-        BlackScholesModel model = new BlackScholesModel(initialValue, riskFreeRate, volatility, new RandomVariableFromArrayFactory());
-        TimeDiscretization timeDiscretization = new TimeDiscretizationFromArray(0.0, numberOfTimeSteps, deltaT);
-        BrownianMotion brownianMotion = new BrownianMotionFromMersenneRandomNumbers(timeDiscretization, 1, numberOfPaths, seed);
-        MonteCarloAssetModel monteCarloModel = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(model, brownianMotion));
-
-        RandomVariable value;
-        if (trade.getOptionStyle().equalsIgnoreCase("European")) {
-            EuropeanOption europeanOption = new EuropeanOption(trade.getUnderlying(), trade.getMaturity(), trade.getStrikes()[0], trade.getOptionType());
-            value = europeanOption.getValue(0.0, monteCarloModel);
-        } else {
-            double[] exerciseDates = trade.getExerciseDates();
-            double[] notionals = new double[exerciseDates.length];
-            double[] strikes = trade.getStrikes();
-            Arrays.fill(notionals, 1.0);
-
-            BermudanOption bermudanOption = new BermudanOption(exerciseDates, notionals, strikes, BermudanOption.ExerciseMethod.ESTIMATE_COND_EXPECTATION);
-            value = bermudanOption.getValue(0.0, monteCarloModel);
+    //CVR+ and CVR- of a single option, already priced (value and delta), shocked by the risk weight of its bucket
+    public double[] calculateContribution(Trade trade) throws CalculationException {
+        return calculateContribution(trade, getCurvatureRiskWeight(trade.getBucket()));
+    }
+
+    //CVR+ and CVR- of a single trade
+    private double[] calculateContribution(Trade trade, double riskWeight) throws CalculationException {
+        double delta = trade.getDelta();
+        double shockedUnderlyingPriceUp = trade.getUnderlyingPrice() * (1 + riskWeight);
+        double shockedUnderlyingPriceDown = trade.getUnderlyingPrice() * (1 - riskWeight);
+
+        //Base, up and down scenarios in a single revaluation: the base value comes from the same engine, seed and
+        //paths as the shocked ones (the value of the greeks may come from another simulation, e.g. by underlying)
+        double[] values = priceOption(trade, new double[]{trade.getUnderlyingPrice(), shockedUnderlyingPriceUp, shockedUnderlyingPriceDown});
+        double valueBase = values[0];
+        double valueUp = values[1];
+        double valueDown = values[2];
+
+        return new double[] {
+                -(valueUp - valueBase - riskWeight * delta),
+                -(valueDown - valueBase + riskWeight * delta)
+        };
+    }
+
+    //pricing (package-private for the benchmarks)
+    double[] priceOption(Trade trade, double[] shockedUnderlyingPrices) throws CalculationException {
+        PricingEngine engine = engineRegistry.getEngine(trade);
+        if (revaluationCache == null) {
+            return engine.getValues(trade, shockedUnderlyingPrices);
         }
 
-        return value.getAverage();
+        String cacheKey = RevaluationCache.getValuesKey(engine, trade, shockedUnderlyingPrices);
+        double[] values = revaluationCache.getValues(cacheKey);
+        if (values == null || values.length != shockedUnderlyingPrices.length) {
+            values = engine.getValues(trade, shockedUnderlyingPrices);
+            revaluationCache.putValues(cacheKey, values);
+        }
+        return values;
     }
 
     //Find the risk weights Delta to be used as shocks
     public static double getCurvatureRiskWeight(int bucket) {
-        Double[] weights = SensitivityAggregator.getRiskWeights().getOrDefault(bucket, new Double[]{1.0, 1.0});
-        
-        return weights[0];
+        return SensitivityAggregator.getParameters().getDeltaRiskWeight(bucket);
     }
 
 
@@ -0,0 +1,189 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+
+import java.util.Arrays;
+
+//Cox-Ross-Rubinstein binomial tree for single-underlying Bermudan options under Black-Scholes.
+//As BermudanOption, exercising at the i-th exercise date pays S - K_i and at the last date the option is
+//exercised only if S - K > 0. Exercise dates are snapped to the nearest step of the tree.
+//Delta and vega come from the adjoint of the rollback: the tree is rolled back once storing the node values,
+//then the adjoints of the node values are propagated forward to the initial value and to the volatility, and through
+//the discount factor and the growth of the probability to the risk free rate and to the repo rate (dividend yield).
+public class LatticePricingEngine implements PricingEngine {
+
+    private static final int DEFAULT_NUMBER_OF_STEPS = 1000;
+
+    private final int numberOfSteps;
+
+
+    public LatticePricingEngine() {
+        this(DEFAULT_NUMBER_OF_STEPS);
+    }
+
+    public LatticePricingEngine(int numberOfSteps) {
+        if (numberOfSteps < 1) {
+            throw new IllegalArgumentException("Il numero di step del reticolo deve essere positivo: " + numberOfSteps);
+        }
+        this.numberOfSteps = numberOfSteps;
+    }
+
+    @Override
+    public String getName() {
+        return "Lattice-AAD";
+    }
+
+    @Override
+    public String getConfiguration() {
+        return getName() + "|steps=" + numberOfSteps;
+    }
+
+    @Override
+    public PricingResult calculate(Trade trade) throws CalculationException {
+        Lattice lattice = new Lattice(trade, trade.getUnderlyingPrice());
+        lattice.rollback();
+        lattice.adjoint();
+
+        double delta = lattice.initialValueAdjoint * trade.getUnderlyingPrice();
+        double vega = lattice.volatilityAdjoint * trade.getVolatility();
+
+        return new PricingResult(lattice.value, delta, vega, null, lattice.rateAdjoint, lattice.repoAdjoint, 0.0, 0.0, 0.0,
+                String.format("Value Lattice: %.6f | Delta Lattice AAD: %.6f | Vega Lattice AAD: %.6f | Steps: %d\n",
+                        lattice.value, delta, vega, numberOfSteps)
+                        + String.format("Rate Delta Lattice AAD: %.6f | Repo Delta Lattice AAD: %.6f\n", lattice.rateAdjoint, lattice.repoAdjoint));
+    }
+
+    @Override
+    public double getValue(Trade trade, double underlyingPrice) throws CalculationException {
+        Lattice lattice = new Lattice(trade, underlyingPrice);
+        lattice.rollback();
+        return lattice.value;
+    }
+
+
+    //Tree of a single valuation: forward quantities, node values and adjoints
+    private final class Lattice {
+        private final double initialValue;
+        private final double volatility;
+        private final double dt;
+        private final double up;
+        private final double probability;
+        //exp((r - q) dt) and exp(-r dt)
+        private final double growth;
+        private final double discountFactor;
+        private final double[] strikeAtStep;
+
+        //values[i][j]: option value at step i after j up moves
+        private final double[][] values;
+        private double value;
+
+        private double initialValueAdjoint;
+        private double volatilityAdjoint;
+        private double rateAdjoint;
+        private double repoAdjoint;
+
+        private Lattice(Trade trade, double initialValue) throws CalculationException {
+            double[] exerciseDates = trade.getExerciseDates();
+            double[] strikes = trade.getStrikes();
+            if (exerciseDates.length == 0 || strikes.length < exerciseDates.length) {
+                throw new CalculationException("Date di esercizio o strike mancanti per il trade " + trade.getDealNumber());
+            }
+
+            double maturity = exerciseDates[exerciseDates.length - 1];
+            this.initialValue = initialValue;
+            this.volatility = trade.getVolatility();
+            this.dt = maturity / numberOfSteps;
+            this.up = Math.exp(volatility * Math.sqrt(dt));
+            this.growth = Math.exp((trade.getRiskFreeRate() - trade.getRepoRate()) * dt);
+            this.probability = (growth - 1.0 / up) / (up - 1.0 / up);
+            this.discountFactor = 1.0 / Math.exp(trade.getRiskFreeRate() * dt);
+
+            this.strikeAtStep = new double[numberOfSteps + 1];
+            Arrays.fill(strikeAtStep, Double.NaN);
+            for (int k = 0; k < exerciseDates.length; k++) {
+                int step = (int) Math.round(exerciseDates[k] / dt);
+                if (step > 0) {
+                    strikeAtStep[step] = strikes[k];
+                }
+            }
+
+            this.values = new double[numberOfSteps + 1][];
+        }
+
+        private double getUnderlying(int step, int ups) {
+            return initialValue * Math.pow(up, 2 * ups - step);
+        }
+
+        private boolean isExercised(int step, int ups, double continuation) {
+            double strike = strikeAtStep[step];
+            return !Double.isNaN(strike) && getUnderlying(step, ups) - strike > continuation;
+        }
+
+        private double getContinuation(int step, int ups) {
+            if (step == numberOfSteps) {
+                return 0.0;
+            }
+            return discountFactor * (probability * values[step + 1][ups + 1] + (1 - probability) * values[step + 1][ups]);
+        }
+
+        private void rollback() {
+            for (int step = numberOfSteps; step >= 0; step--) {
+                values[step] = new double[step + 1];
+                for (int ups = 0; ups <= step; ups++) {
+                    double continuation = getContinuation(step, ups);
+                    values[step][ups] = isExercised(step, ups, continuation)
+                            ? getUnderlying(step, ups) - strikeAtStep[step]
+                            : continuation;
+                }
+            }
+            value = values[0][0];
+        }
+
+        //Reverse sweep of the rollback: dV/dS(0), dV/dsigma, dV/dr and dV/dq
+        private void adjoint() {
+            double upAdjoint = 0.0;
+            double probabilityAdjoint = 0.0;
+            double discountFactorAdjoint = 0.0;
+            initialValueAdjoint = 0.0;
+
+            double[] adjoints = {1.0};
+            for (int step = 0; step <= numberOfSteps; step++) {
+                double[] nextAdjoints = new double[step + 2];
+                for (int ups = 0; ups <= step; ups++) {
+                    double adjoint = adjoints[ups];
+                    if (adjoint == 0.0) {
+                        continue;
+                    }
+
+                    double continuation = getContinuation(step, ups);
+                    if (isExercised(step, ups, continuation)) {
+                        //Exercise value S(0) * u^(2j - i) - K
+                        double underlying = getUnderlying(step, ups);
+                        initialValueAdjoint += adjoint * underlying / initialValue;
+                        upAdjoint += adjoint * (2 * ups - step) * underlying / up;
+                    } else if (step < numberOfSteps) {
+                        //Continuation value D * (p * V(i+1, j+1) + (1 - p) * V(i+1, j))
+                        nextAdjoints[ups + 1] += adjoint * discountFactor * probability;
+                        nextAdjoints[ups] += adjoint * discountFactor * (1 - probability);
+                        probabilityAdjoint += adjoint * discountFactor * (values[step + 1][ups + 1] - values[step + 1][ups]);
+                        discountFactorAdjoint += adjoint * (probability * values[step + 1][ups + 1] + (1 - probability) * values[step + 1][ups]);
+                    }
+                }
+                adjoints = nextAdjoints;
+            }
+
+            //p = (g - d) / (u - d) with d = 1 / u and u = exp(sigma * sqrt(dt))
+            double down = 1.0 / up;
+            double downDerivative = -1.0 / (up * up);
+            double probabilityDerivative = (-(up - down) * downDerivative - (growth - down) * (1 - downDerivative)) / ((up - down) * (up - down));
+            upAdjoint += probabilityAdjoint * probabilityDerivative;
+
+            volatilityAdjoint = upAdjoint * up * Math.sqrt(dt);
+
+            //dp/dg = 1 / (u - d), with g = exp((r - q) dt) and D = exp(-r dt)
+            double growthAdjoint = probabilityAdjoint / (up - down);
+            rateAdjoint = growthAdjoint * growth * dt - discountFactorAdjoint * discountFactor * dt;
+            repoAdjoint = -growthAdjoint * growth * dt;
+        }
+    }
+}
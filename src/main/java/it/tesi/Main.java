@@ -1,14 +1,17 @@
 package it.tesi;
 
 import net.finmath.exception.CalculationException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-
-import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Main {
     public static void main(String[] args) {
@@ -22,254 +25,353 @@ public class Main {
         CsvParser.parseUnderlyingBucketCsv(bucketStream);
         
         
-    	//CSV trades reading
-        InputStream inputStream = Main.class.getClassLoader().getResourceAsStream("sample_trades.csv");
+        //Streaming ingestion (-Dstreaming=true): the trades are read, priced and aggregated in batches of -DbatchSize
+        //trades (default 1000) while the file is read, without keeping the portfolio in memory (no per-trade output)
+        boolean streaming = Boolean.getBoolean("streaming");
+
+    	//CSV trades reading: sample portfolio of the resources or -DtradesFile=<file>
+        String tradesFile = System.getProperty("tradesFile");
+        InputStream inputStream;
+        try {
+            inputStream = tradesFile != null
+                    ? Files.newInputStream(Paths.get(tradesFile))
+                    : Main.class.getClassLoader().getResourceAsStream("sample_trades.csv");
+        } catch (IOException e) {
+            System.err.println("Errore: Il file CSV dei trade non è leggibile: " + e.getMessage());
+            return;
+        }
 
         if (inputStream == null) {
             System.err.println("Errore: Il file CSV non è stato trovato nella cartella resources.");
             return;
         }
 
-        List<Trade> trades = CsvParser.parseCsvTrade(inputStream);
-
-        if (trades.isEmpty()) {
-            System.out.println("Nessun trade valido trovato nel file CSV.");
-            return;
+        //Binary snapshot of the trades (-DtradeSnapshot=<file>): written from the CSV when missing or older than
+        //-DtradesFile, then mapped in place of the CSV by the following runs
+        String tradeSnapshot = System.getProperty("tradeSnapshot");
+        TradeSnapshot snapshot = null;
+        if (tradeSnapshot != null) {
+            try {
+                snapshot = loadTradeSnapshot(Paths.get(tradeSnapshot), tradesFile, inputStream);
+            } catch (IOException e) {
+                System.err.println("Errore nello snapshot dei trade: " + e.getMessage());
+                return;
+            }
         }
-        
 
-        System.out.println("=== TEST DEL PARSING DEL CSV ===");
-        trades.forEach(System.out::println);
+        //Trades stored by column: pricing and curvature write their results into the book
+        TradeBook book = new TradeBook();
+        List<Trade> trades = book.asList();
+        if (!streaming) {
+            book = snapshot != null ? snapshot.getTradeBook() : CsvParser.parseCsvTradeBook(inputStream);
+            trades = book.asList();
+
+            if (trades.isEmpty()) {
+                System.out.println("Nessun trade valido trovato nel file CSV.");
+                return;
+            }
+
+
+            System.out.println("=== TEST DEL PARSING DEL CSV ===");
+            trades.forEach(System.out::println);
+        }
 
         int numberOfPaths = 100000;
-        int numberOfTimeSteps = 100;
-        double deltaT = 0.1;
         int seed = 1234;
 
-        AADPricer pricer = new AADPricer(numberOfPaths, numberOfTimeSteps, deltaT, seed);
+        //Pricing mode: "trade" (one simulation per trade) or "underlying" (one simulation and one adjoint sweep per underlying)
+        String pricingMode = System.getProperty("pricingMode", "trade");
+
+        //Worker threads used to price independent trades (1 = sequential)
+        int numberOfThreads = Integer.getInteger("numberOfThreads", 1);
+
+        //Random numbers of the simulations: MERSENNE, ANTITHETIC or SOBOL_BRIDGE
+        PathGenerator pathGenerator = PathGenerator.valueOf(System.getProperty("pathGenerator", "MERSENNE").toUpperCase());
+
+        //Bermudan engine: "lattice" (binomial tree) or "montecarlo" (MC-AAD with European control variate)
+        String bermudanEngine = System.getProperty("bermudanEngine", "lattice");
+
+        //Adaptive number of paths: batches of adaptiveBatchSize paths (0 = fixed numberOfPaths) until the standard
+        //errors of value, delta and vega are below the tolerances, up to numberOfPaths paths
+        int adaptiveBatchSize = Integer.getInteger("adaptiveBatchSize", 0);
+        PathCountController pathCountController = adaptiveBatchSize > 0
+                ? new PathCountController(adaptiveBatchSize, numberOfPaths, 0.01, 0.05, 0.05)
+                : null;
+
+        //Inputs differentiated by AAD, e.g. SPOT,VOLATILITY (only these are recorded on the tapes): rate and repo
+        //delta of the Monte Carlo engines are zero if RATE and REPO are not among them
+        Set<AdjointInput> adjointInputs = EnumSet.noneOf(AdjointInput.class);
+        for (String input : System.getProperty("adjointInputs", "SPOT,VOLATILITY,RATE,REPO").split(",")) {
+            adjointInputs.add(AdjointInput.valueOf(input.trim().toUpperCase()));
+        }
 
+        //Results cached on disk between runs (-DrevaluationCache=<directory>, size in MB with -DrevaluationCacheSize)
+        String revaluationCacheDirectory = System.getProperty("revaluationCache");
+        RevaluationCache revaluationCache = revaluationCacheDirectory != null
+                ? new RevaluationCache(Paths.get(revaluationCacheDirectory), Long.getLong("revaluationCacheSize", 64) * 1024 * 1024)
+                : null;
+
+        //Kernel of the intra-bucket aggregation: Vector API if the JVM runs with --add-modules jdk.incubator.vector
+        //(-DaggregationKernel=scalar forces the plain loops)
+        if (System.getProperty("aggregationKernel", "").equalsIgnoreCase("scalar")) {
+            SensitivityAggregator.setQuadraticFormKernel(new ScalarQuadraticFormKernel());
+        }
+
+        //Vega risk factors: NEAREST_TENOR (whole vega on the tenor nearest to the maturity) or TENOR_NODES
+        //(-DvegaAllocation=TENOR_NODES, vega of every tenor node of the volatility term structure)
+        SensitivityAggregator.setVegaAllocation(VegaAllocation.valueOf(System.getProperty("vegaAllocation", "NEAREST_TENOR").toUpperCase()));
+
+        //Regulatory parameters (risk weights, correlations, scenarios): file shipped in the resources or -DregulatoryParameters=<file>
+        String regulatoryParametersFile = System.getProperty("regulatoryParameters");
+        if (regulatoryParametersFile != null) {
+            try {
+                SensitivityAggregator.setParameters(RegulatoryParameters.load(Paths.get(regulatoryParametersFile)));
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Errore nella lettura dei parametri regolamentari: " + e.getMessage());
+                return;
+            }
+        }
+        System.out.println("\nParametri regolamentari: " + SensitivityAggregator.getParameters().getVersion());
+
+        //Invalid combinations of the options (e.g. an odd batch size with the antithetic generator) stop the run here
+        AADPricer pricer = new AADPricer(numberOfPaths, seed);
         try {
-            System.out.println("\n=== CALCOLO DELLE SENSITIVITIES ===");
-            List<Trade> updatedTrades = pricer.priceAndCalculateGreeks(trades);
+            if (numberOfThreads < 1) {
+                throw new IllegalArgumentException("Il numero di thread deve essere positivo: " + numberOfThreads);
+            }
+            pricer.setPathGenerator(pathGenerator);
+            pricer.setPathCountController(pathCountController);
+            //Paths per AAD tape in the per-underlying mode (0 = all the paths on one tape)
+            pricer.setChunkSize(Integer.getInteger("chunkSize", 0));
+            pricer.setAdjointInputs(adjointInputs);
+            pricer.setRevaluationCache(revaluationCache);
+            if (bermudanEngine.equalsIgnoreCase("montecarlo")) {
+                MonteCarloPricingEngine monteCarloEngine = new MonteCarloPricingEngine(numberOfPaths, seed, BrownianMotionCache.getShared(), pathGenerator, true);
+                monteCarloEngine.setPathCountController(pathCountController);
+                monteCarloEngine.setAdjointInputs(adjointInputs);
+                //Dump of the whole gradient in the details of the Bermudans (-DgradientDiagnostics=true)
+                monteCarloEngine.setGradientDiagnostics(Boolean.getBoolean("gradientDiagnostics"));
+                //Finite difference and analytic checks next to the AAD greeks (-DfiniteDifferenceBenchmark=false skips them)
+                monteCarloEngine.setFiniteDifferenceBenchmark(Boolean.parseBoolean(System.getProperty("finiteDifferenceBenchmark", "true")));
+                pricer.registerEngine("Bermudan", monteCarloEngine);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Errore nella configurazione del pricing: " + e.getMessage());
+            return;
+        }
+
+        //One pool of workers for all the pricings and revaluations of the run, shut down at the end
+        ExecutorService executor = numberOfThreads > 1 ? Executors.newFixedThreadPool(numberOfThreads) : null;
+        pricer.setExecutor(executor);
 
-            Map<String, Map<Integer, Double>> netSensitivitiesDelta =
-                    SensitivityAggregator.calculateNetSensitivitiesDelta(updatedTrades);
-            Map<String, Map<Integer, Double>> netSensitivitiesVega =
-                    SensitivityAggregator.calculateNetSensitivitiesVega(updatedTrades);
+        try {
+            System.out.println("\n=== CALCOLO DELLE SENSITIVITIES ===");
+            CurvatureRiskCalculator curvatureRiskCalculator = new CurvatureRiskCalculator(pricer.getEngineRegistry());
+            curvatureRiskCalculator.setExecutor(executor);
+            curvatureRiskCalculator.setRevaluationCache(revaluationCache);
+
+            List<Trade> updatedTrades = new ArrayList<>();
+            SensitivityStore netSensitivitiesDelta;
+            SensitivityStore netSensitivitiesVega;
+            SensitivityStore netSensitivitiesRepo;
+            SensitivityStore netSensitivitiesRate;
+            SensitivityStore curvatureRisk;
+            if (streaming) {
+                //Trade by trade pricing on numberOfThreads workers (the pricing mode does not apply)
+                StreamingTradePipeline pipeline = new StreamingTradePipeline(pricer, curvatureRiskCalculator);
+                pipeline.setBatchSize(Integer.getInteger("batchSize", 1000));
+                pipeline.setNumberOfThreads(numberOfThreads);
+                StreamingTradePipeline.Result result = snapshot != null
+                        ? pipeline.process(snapshot.stream())
+                        : pipeline.process(inputStream);
+                if (result.getNumberOfTrades() == 0) {
+                    System.out.println("Nessun trade valido trovato nel file CSV.");
+                    return;
+                }
+                System.out.printf("Trade elaborati: %d in %d batch\n", result.getNumberOfTrades(), result.getNumberOfBatches());
+
+                netSensitivitiesDelta = result.getNetSensitivitiesDelta();
+                netSensitivitiesVega = result.getNetSensitivitiesVega();
+                netSensitivitiesRepo = result.getNetSensitivitiesRepo();
+                netSensitivitiesRate = result.getNetSensitivitiesRate();
+                curvatureRisk = result.getCurvatureRisk();
+            } else {
+                if (pricingMode.equalsIgnoreCase("underlying")) {
+                    pricer.priceAndCalculateGreeksByUnderlying(book);
+                } else {
+                    pricer.priceAndCalculateGreeks(book);
+                }
+                updatedTrades = trades;
+
+                netSensitivitiesDelta = SensitivityAggregator.calculateNetSensitivityStoreDelta(updatedTrades);
+                netSensitivitiesVega = SensitivityAggregator.calculateNetSensitivityStoreVega(updatedTrades);
+                netSensitivitiesRepo = SensitivityAggregator.calculateNetSensitivityStoreRepo(updatedTrades);
+                netSensitivitiesRate = SensitivityAggregator.calculateNetSensitivityStoreRate(updatedTrades);
+                curvatureRisk = curvatureRiskCalculator.calculateCurvatureRiskStore(updatedTrades);
+            }
             
             System.out.println("\n=== NET SENSITIVITIES DELTA ===");
-            netSensitivitiesDelta.forEach((riskFactorDelta, bucketMap) ->
-                            bucketMap.forEach((bucket, value) ->
-                                    System.out.printf("RiskFactor: %s | Bucket: %d | Net Delta: %.6f\n",
-                                            riskFactorDelta, bucket, value)
-                            ));
+            printSensitivities(netSensitivitiesDelta, "Net Delta");
 
             System.out.println("\n=== NET SENSITIVITIES VEGA ===");
-            netSensitivitiesVega.forEach((riskFactorVega, bucketMap) ->
-                            bucketMap.forEach((bucket, value) ->
-                                    System.out.printf("RiskFactor: %s | Bucket: %d | Net Vega: %.6f\n",
-                                            riskFactorVega, bucket, value)
-                            ));
+            printSensitivities(netSensitivitiesVega, "Net Vega");
+
+            System.out.println("\n=== NET SENSITIVITIES REPO ===");
+            printSensitivities(netSensitivitiesRepo, "Net Repo");
+
+            System.out.println("\n=== NET SENSITIVITIES RATE ===");
+            printSensitivities(netSensitivitiesRate, "Net Rate");
             
-            Map<String, Map<Integer, Double>> weightedSensitivitiesDelta =
-                    SensitivityAggregator.calculateWeightedSensitivitiesDelta(netSensitivitiesDelta);
-            Map<String, Map<Integer, Double>> weightedSensitivitiesVega =
-                    SensitivityAggregator.calculateWeightedSensitivitiesVega(netSensitivitiesVega);
+            SensitivityStore weightedSensitivitiesDelta = SensitivityAggregator.calculateWeightedSensitivitiesDelta(netSensitivitiesDelta);
+            SensitivityStore weightedSensitivitiesVega = SensitivityAggregator.calculateWeightedSensitivitiesVega(netSensitivitiesVega);
+            SensitivityStore weightedSensitivitiesRepo = SensitivityAggregator.calculateWeightedSensitivitiesRepo(netSensitivitiesRepo);
+            SensitivityStore weightedSensitivitiesRate = SensitivityAggregator.calculateWeightedSensitivitiesRate(netSensitivitiesRate);
             
             System.out.println("\n=== WEIGHTED SENSITIVITIES DELTA ===");
-            weightedSensitivitiesDelta.forEach((riskFactorDelta, bucketMap) ->
-                            bucketMap.forEach((bucket, value) ->
-                                    System.out.printf("RiskFactor: %s | Bucket: %d | Weighted Delta: %.6f\n",
-                                            riskFactorDelta, bucket, value)
-                            ));
+            printSensitivities(weightedSensitivitiesDelta, "Weighted Delta");
 
             System.out.println("\n=== WEIGHTED SENSITIVITIES VEGA ===");
-            weightedSensitivitiesVega.forEach((riskFactorVega, bucketMap) ->
-                            bucketMap.forEach((bucket, value) ->
-                                    System.out.printf("RiskFactor: %s | Bucket: %d | Weighted Vega: %.6f\n",
-                                    		riskFactorVega, bucket, value)
-                            ));
+            printSensitivities(weightedSensitivitiesVega, "Weighted Vega");
+
+            System.out.println("\n=== WEIGHTED SENSITIVITIES REPO ===");
+            printSensitivities(weightedSensitivitiesRepo, "Weighted Repo");
+
+            System.out.println("\n=== WEIGHTED SENSITIVITIES RATE ===");
+            printSensitivities(weightedSensitivitiesRate, "Weighted Rate");
             
             System.out.println("\n=== CURVATURE RISK CALCULATION ===");
-            CurvatureRiskCalculator curvatureRiskCalculator = new CurvatureRiskCalculator(numberOfPaths, numberOfTimeSteps, deltaT, seed);
-            Map<String, Map<Integer, Double[]>> curvatureRisk = curvatureRiskCalculator.calculateCurvatureRisk(updatedTrades);
-            curvatureRisk.forEach((riskFactorDelta, bucketMap) ->
-            bucketMap.forEach((bucket, values) ->
-                    System.out.printf("RiskFactor: %s |Bucket: %d | CVR +: %.6f | CVR -: %.6f\n",
-                    		riskFactorDelta, bucket, values[0], values[1])
-            ));
-            
-            List<Trade> finalUpdatedTrades = new ArrayList<>();
-            for (Trade trade : updatedTrades) {
-                Double[] curvatureValues = curvatureRisk
-                        .getOrDefault(trade.getRiskFactorDelta(), new HashMap<>())
-                        .getOrDefault(trade.getBucket(), new Double[]{0.0, 0.0});
-
-                Trade updatedTrade = new Trade(
-                        trade.getPortfolio(), trade.getDealNumber(), trade.getAssetType(), trade.getOptionStyle(),
-                        trade.getRiskFactorDelta(), trade.getRiskFactorVega(),trade.getUnderlying(), trade.getBucket(), 
-                        trade.getOptionType(), trade.getCurrency(), trade.getAmount(), trade.getVolatility(),
-                        trade.getStrikes(), trade.getUnderlyingPrice(), trade.getMaturity(), trade.getExerciseDates(),
-                        trade.getRiskFreeRate(), trade.getValue(), trade.getDelta(), trade.getVega(),
-                        curvatureValues[0], curvatureValues[1]
-                );
-
-                finalUpdatedTrades.add(updatedTrade);
+            for (int row = 0; row < curvatureRisk.size(); row++) {
+                System.out.printf("RiskFactor: %s |Bucket: %d | CVR +: %.6f | CVR -: %.6f\n",
+                        curvatureRisk.getRiskFactor(curvatureRisk.getRiskFactorId(row)), curvatureRisk.getBucket(row),
+                        curvatureRisk.get(row, SensitivityStore.CVR_PLUS), curvatureRisk.get(row, SensitivityStore.CVR_MINUS));
             }
-
-            System.out.println("\n=== UPDATED TRADES WITH DELTA, VEGA, CVR^+ e CVR^-===");
-            finalUpdatedTrades.forEach(System.out::println);
             
-            System.out.println("\n=== RECAP TRADE: features and risk factors ===");
-            System.out.printf("%-12s | %-15s | %-6s | %-17s | %-17s\n", 
-                              "DealNumber", "Underlying", "Bucket", "RiskFactorDelta", "RiskFactorVega");
-            System.out.println("-------------------------------------------------------------------------");
-
-            for (Trade trade : finalUpdatedTrades) {
-                System.out.printf("%-12d | %-15s | %-6d | %-17s | %-17s\n",
-                                  trade.getDealNumber(),
-                                  trade.getUnderlying(),
-                                  trade.getBucket(),
-                                  trade.getRiskFactorDelta(),
-                                  trade.getRiskFactorVega());
+            //Trades with their greeks and CVR (not kept by the streaming ingestion)
+            if (!streaming) {
+                //The views of the book already hold the CVR contributions written by the curvature calculator
+                System.out.println("\n=== UPDATED TRADES WITH DELTA, VEGA, CVR^+ e CVR^-===");
+                updatedTrades.forEach(System.out::println);
+            
+                System.out.println("\n=== RECAP TRADE: features and risk factors ===");
+                System.out.printf("%-12s | %-15s | %-6s | %-17s | %-17s\n", 
+                                  "DealNumber", "Underlying", "Bucket", "RiskFactorDelta", "RiskFactorVega");
+                System.out.println("-------------------------------------------------------------------------");
+
+                for (Trade trade : updatedTrades) {
+                    System.out.printf("%-12d | %-15s | %-6d | %-17s | %-17s\n",
+                                      trade.getDealNumber(),
+                                      trade.getUnderlying(),
+                                      trade.getBucket(),
+                                      trade.getRiskFactorDelta(),
+                                      trade.getRiskFactorVega());
+                }
             }
             
-            //Intra-bucket Aggregation for Delta, Vega and Curvature Risk among three scenarios
-            Map<Integer, Double> capitalByBucketDeltaMedium = SensitivityAggregator.aggregateIntraBucketDelta(weightedSensitivitiesDelta, "medium");
-            Map<Integer, Double> capitalByBucketDeltaHigh   = SensitivityAggregator.aggregateIntraBucketDelta(weightedSensitivitiesDelta, "high");
-            Map<Integer, Double> capitalByBucketDeltaLow    = SensitivityAggregator.aggregateIntraBucketDelta(weightedSensitivitiesDelta, "low");
-
-            Map<String, Map<Integer, Double>> optionMaturities = SensitivityAggregator.extractOptionMaturities(trades);
-            Map<Integer, Double> capitalByBucketVegaMedium  = SensitivityAggregator.aggregateIntraBucketVega(weightedSensitivitiesVega, optionMaturities, "medium");
-            Map<Integer, Double> capitalByBucketVegaHigh    = SensitivityAggregator.aggregateIntraBucketVega(weightedSensitivitiesVega, optionMaturities, "high");
-            Map<Integer, Double> capitalByBucketVegaLow     = SensitivityAggregator.aggregateIntraBucketVega(weightedSensitivitiesVega, optionMaturities, "low");
-
-            Map<Integer, String> selectedScenarioByBucket = new HashMap<>();
-            Map<Integer, Double> capitalByBucketCurvatureMedium = SensitivityAggregator.aggregateCurvatureRiskIntraBucket(curvatureRisk, selectedScenarioByBucket, "medium");
-            Map<Integer, Double> capitalByBucketCurvatureHigh   = SensitivityAggregator.aggregateCurvatureRiskIntraBucket(curvatureRisk, selectedScenarioByBucket, "high");
-            Map<Integer, Double> capitalByBucketCurvatureLow    = SensitivityAggregator.aggregateCurvatureRiskIntraBucket(curvatureRisk, selectedScenarioByBucket, "low");
+            //Intra-bucket and inter-bucket Aggregation for Delta, Vega and Curvature Risk, three scenarios in a single pass
+            CapitalRequirement capitalDelta = SensitivityAggregator.aggregateDelta(weightedSensitivitiesDelta);
+            //The maturities of the options are in the MATURITY column of the vega store
+            CapitalRequirement capitalVega = SensitivityAggregator.aggregateVega(weightedSensitivitiesVega);
+            CapitalRequirement capitalCurvature = SensitivityAggregator.aggregateCurvature(curvatureRisk);
+            //Repo in the equity buckets, rates in one bucket per currency with the tenors in the MATURITY column
+            CapitalRequirement capitalRepo = SensitivityAggregator.aggregateRepo(weightedSensitivitiesRepo);
+            CapitalRequirement capitalRate = SensitivityAggregator.aggregateRate(weightedSensitivitiesRate);
 
             
             System.out.println("\n=== INTRA-BUCKET AGGREGATION ===");
 
-            //Delta
-            Set<Integer> allBucketsDelta = new TreeSet<>();
-            allBucketsDelta.addAll(capitalByBucketDeltaMedium.keySet());
-            allBucketsDelta.addAll(capitalByBucketDeltaHigh.keySet());
-            allBucketsDelta.addAll(capitalByBucketDeltaLow.keySet());
-
             System.out.println("\n--- Delta ---");
-            for (Integer bucket : allBucketsDelta) {
-                System.out.printf("Bucket: %d | Delta (M: %.6f, H: %.6f, L: %.6f)\n",
-                    bucket,
-                    capitalByBucketDeltaMedium.getOrDefault(bucket, 0.0),
-                    capitalByBucketDeltaHigh.getOrDefault(bucket, 0.0),
-                    capitalByBucketDeltaLow.getOrDefault(bucket, 0.0)
-                );
-            }
-
-            //Vega
-            Set<Integer> allBucketsVega = new TreeSet<>();
-            allBucketsVega.addAll(capitalByBucketVegaMedium.keySet());
-            allBucketsVega.addAll(capitalByBucketVegaHigh.keySet());
-            allBucketsVega.addAll(capitalByBucketVegaLow.keySet());
+            printCapitalByBucket(capitalDelta, "Delta");
 
             System.out.println("\n--- Vega ---");
-            for (Integer bucket : allBucketsVega) {
-                System.out.printf("Bucket: %d | Vega (M: %.6f, H: %.6f, L: %.6f)\n",
-                    bucket,
-                    capitalByBucketVegaMedium.getOrDefault(bucket, 0.0),
-                    capitalByBucketVegaHigh.getOrDefault(bucket, 0.0),
-                    capitalByBucketVegaLow.getOrDefault(bucket, 0.0)
-                );
-            }
-
-            //Curvature
-            Set<Integer> allBucketsCurvature = new TreeSet<>();
-            allBucketsCurvature.addAll(capitalByBucketCurvatureMedium.keySet());
-            allBucketsCurvature.addAll(capitalByBucketCurvatureHigh.keySet());
-            allBucketsCurvature.addAll(capitalByBucketCurvatureLow.keySet());
+            printCapitalByBucket(capitalVega, "Vega");
 
             System.out.println("\n--- Curvature ---");
-            for (Integer bucket : allBucketsCurvature) {
-                System.out.printf("Bucket: %d | Curvature (M: %.6f, H: %.6f, L: %.6f)\n",
-                    bucket,
-                    capitalByBucketCurvatureMedium.getOrDefault(bucket, 0.0),
-                    capitalByBucketCurvatureHigh.getOrDefault(bucket, 0.0),
-                    capitalByBucketCurvatureLow.getOrDefault(bucket, 0.0)
-                );
-            }
-
-            //For Delta, Vega, Curvature find the max intra-bucket
-            Map<Integer, Double> capitalByBucketDeltaFinal = new HashMap<>();
-            Map<Integer, Double> capitalByBucketVegaFinal = new HashMap<>();
-            Map<Integer, Double> capitalByBucketCurvatureFinal = new HashMap<>();
-            
-            for (Integer bucket : capitalByBucketDeltaMedium.keySet()) {
-                double maxDelta = Math.max(Math.max(
-                    capitalByBucketDeltaMedium.getOrDefault(bucket, 0.0),
-                    capitalByBucketDeltaHigh.getOrDefault(bucket, 0.0)),
-                    capitalByBucketDeltaLow.getOrDefault(bucket, 0.0)
-                );
-                capitalByBucketDeltaFinal.put(bucket, maxDelta);
-            }
-
-            for (Integer bucket : capitalByBucketVegaMedium.keySet()) {
-                double maxVega = Math.max(Math.max(
-                    capitalByBucketVegaMedium.getOrDefault(bucket, 0.0),
-                    capitalByBucketVegaHigh.getOrDefault(bucket, 0.0)),
-                    capitalByBucketVegaLow.getOrDefault(bucket, 0.0)
-                );
-                capitalByBucketVegaFinal.put(bucket, maxVega);
-            }
-
-            for (Integer bucket : capitalByBucketCurvatureMedium.keySet()) {
-                double maxCurvature = Math.max(Math.max(
-                    capitalByBucketCurvatureMedium.getOrDefault(bucket, 0.0),
-                    capitalByBucketCurvatureHigh.getOrDefault(bucket, 0.0)),
-                    capitalByBucketCurvatureLow.getOrDefault(bucket, 0.0)
-                );
-                capitalByBucketCurvatureFinal.put(bucket, maxCurvature);
-            }
+            printCapitalByBucket(capitalCurvature, "Curvature");
 
-            //Inter-bucket Aggregation for Delta, Vega and Curvature Risk across the three scenarios
-            double K_deltaMedium = SensitivityAggregator.aggregateInterBucketDelta(capitalByBucketDeltaFinal, weightedSensitivitiesDelta, "medium");
-            double K_deltaHigh = SensitivityAggregator.aggregateInterBucketDelta(capitalByBucketDeltaFinal, weightedSensitivitiesDelta, "high");
-            double K_deltaLow = SensitivityAggregator.aggregateInterBucketDelta(capitalByBucketDeltaFinal, weightedSensitivitiesDelta, "low");
+            System.out.println("\n--- Repo ---");
+            printCapitalByBucket(capitalRepo, "Repo");
 
-            double K_vegaMedium = SensitivityAggregator.aggregateInterBucketVega(capitalByBucketVegaFinal, weightedSensitivitiesVega, "medium");
-            double K_vegaHigh = SensitivityAggregator.aggregateInterBucketVega(capitalByBucketVegaFinal, weightedSensitivitiesVega, "high");
-            double K_vegaLow = SensitivityAggregator.aggregateInterBucketVega(capitalByBucketVegaFinal, weightedSensitivitiesVega, "low");
-
-            double K_curvatureMedium = SensitivityAggregator.aggregateCurvatureRiskInterBucket(capitalByBucketCurvatureFinal, selectedScenarioByBucket, curvatureRisk, "medium");
-            double K_curvatureHigh = SensitivityAggregator.aggregateCurvatureRiskInterBucket(capitalByBucketCurvatureFinal, selectedScenarioByBucket, curvatureRisk, "high");
-            double K_curvatureLow = SensitivityAggregator.aggregateCurvatureRiskInterBucket(capitalByBucketCurvatureFinal, selectedScenarioByBucket, curvatureRisk, "low");
-
-            
-            //Choose of final capital requirement
-            double K_finalDelta = Math.max(Math.max(K_deltaMedium, K_deltaHigh), K_deltaLow);
-            double K_finalVega = Math.max(Math.max(K_vegaMedium, K_vegaHigh), K_vegaLow);
-            double K_finalCurvature = Math.max(Math.max(K_curvatureMedium, K_curvatureHigh), K_curvatureLow);
+            System.out.println("\n--- Rate ---");
+            printCapitalByBucket(capitalRate, "Rate");
 
             System.out.println("\n=== INTER-BUCKET AGGREGATION ===");
             System.out.println("\n--- Delta ---");
-            System.out.printf("(M: %.6f, H: %.6f, L: %.6f)\n", K_deltaMedium, K_deltaHigh, K_deltaLow);
+            printCapital(capitalDelta);
             System.out.println("\n--- Vega ---");
-            System.out.printf("(M: %.6f, H: %.6f, L: %.6f)\n", K_vegaMedium, K_vegaHigh, K_vegaLow);
+            printCapital(capitalVega);
             System.out.println("\n--- Curvature ---");
-            System.out.printf("(M: %.6f, H: %.6f, L: %.6f)\n", K_curvatureMedium, K_curvatureHigh, K_curvatureLow);
+            printCapital(capitalCurvature);
+            System.out.println("\n--- Repo ---");
+            printCapital(capitalRepo);
+            System.out.println("\n--- Rate ---");
+            printCapital(capitalRate);
+
+            //Choose of final capital requirement
+            double K_finalDelta = capitalDelta.getFinalCapital();
+            double K_finalVega = capitalVega.getFinalCapital();
+            double K_finalCurvature = capitalCurvature.getFinalCapital();
+            double K_finalRepo = capitalRepo.getFinalCapital();
+            double K_finalRate = capitalRate.getFinalCapital();
 
 
             System.out.println("\n=== FINAL RESULTS ===");  
             System.out.printf("Final Capital Requirement Delta: %.6f\n", K_finalDelta);
             System.out.printf("Final Capital Requirement Vega: %.6f\n", K_finalVega);
             System.out.printf("Final Capital Requirement Curvature: %.6f\n", K_finalCurvature);
+            System.out.printf("Final Capital Requirement Repo: %.6f\n", K_finalRepo);
+            System.out.printf("Final Capital Requirement Rate: %.6f\n", K_finalRate);
+
+            if (revaluationCache != null) {
+                System.out.printf("\nRevaluation cache: %d hits | %d misses | %d bytes\n",
+                        revaluationCache.getHits(), revaluationCache.getMisses(), revaluationCache.getSize());
+            }
             
         } catch (CalculationException e) {
             System.err.println("Errore durante il calcolo delle sensitivities: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
         }
 
         System.out.println("\n=== FINE DEL PROGRAMMA ===");
     }
+
+    //Snapshot of the trade file, written first if missing, of an older version or older than the CSV (the resource CSV has no date)
+    private static TradeSnapshot loadTradeSnapshot(Path snapshot, String tradesFile, InputStream inputStream) throws IOException {
+        try (inputStream) {
+            boolean upToDate = Files.exists(snapshot) && TradeSnapshot.isCurrentVersion(snapshot) && (tradesFile == null
+                    || Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(Paths.get(tradesFile))) >= 0);
+            if (!upToDate) {
+                int numberOfTrades = CsvParser.writeSnapshot(inputStream, snapshot);
+                System.out.printf("Snapshot dei trade scritto: %s (%d trade)\n", snapshot, numberOfTrades);
+            }
+        }
+        return TradeSnapshot.open(snapshot);
+    }
+
+    private static void printSensitivities(SensitivityStore sensitivities, String label) {
+        for (int row = 0; row < sensitivities.size(); row++) {
+            System.out.printf("RiskFactor: %s | Bucket: %d | %s: %.6f\n",
+                    sensitivities.getRiskFactor(sensitivities.getRiskFactorId(row)), sensitivities.getBucket(row),
+                    label, sensitivities.get(row, SensitivityStore.SENSITIVITY));
+        }
+    }
+
+    private static void printCapitalByBucket(CapitalRequirement capitalRequirement, String label) {
+        for (int bucket : capitalRequirement.getBuckets()) {
+            System.out.printf("Bucket: %d | %s (M: %.6f, H: %.6f, L: %.6f)\n", bucket, label,
+                    capitalRequirement.getCapitalByBucket(CorrelationScenario.MEDIUM, bucket),
+                    capitalRequirement.getCapitalByBucket(CorrelationScenario.HIGH, bucket),
+                    capitalRequirement.getCapitalByBucket(CorrelationScenario.LOW, bucket));
+        }
+    }
+
+    private static void printCapital(CapitalRequirement capitalRequirement) {
+        System.out.printf("(M: %.6f, H: %.6f, L: %.6f)\n",
+                capitalRequirement.getCapital(CorrelationScenario.MEDIUM),
+                capitalRequirement.getCapital(CorrelationScenario.HIGH),
+                capitalRequirement.getCapital(CorrelationScenario.LOW));
+    }
 }
\ No newline at end of file
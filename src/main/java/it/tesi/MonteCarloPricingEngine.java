@@ -0,0 +1,500 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.montecarlo.BrownianMotion;
+import net.finmath.montecarlo.RandomVariableFromArrayFactory;
+import net.finmath.montecarlo.RandomVariableFromDoubleArray;
+import net.finmath.montecarlo.assetderivativevaluation.AssetModelMonteCarloSimulationModel;
+import net.finmath.montecarlo.assetderivativevaluation.MonteCarloAssetModel;
+import net.finmath.montecarlo.assetderivativevaluation.models.BlackScholesModel;
+import net.finmath.montecarlo.assetderivativevaluation.products.BermudanOption;
+import net.finmath.montecarlo.assetderivativevaluation.products.EuropeanOption;
+import net.finmath.montecarlo.automaticdifferentiation.RandomVariableDifferentiable;
+import net.finmath.montecarlo.automaticdifferentiation.backward.RandomVariableDifferentiableAADFactory;
+import net.finmath.montecarlo.process.EulerSchemeFromProcessModel;
+import net.finmath.stochastic.RandomVariable;
+import net.finmath.time.TimeDiscretization;
+import net.finmath.time.TimeDiscretizationFromArray;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+//Monte Carlo engine for European and Bermudan options: greeks by AAD, with finite differences
+//(and the analytic formulas for Europeans) computed as a benchmark unless disabled.
+//With the control variate, Bermudans are valued as V_Bermudan - V_European + V_European,Analytic where the
+//European is a call on the last exercise date and strike, simulated on the same paths as the Bermudan.
+//Only the requested inputs are recorded on the AAD tape: the other inputs and the constants of the model are plain
+//random variables, so the tape and the backward sweep cover only the greeks needed. By default spot, volatility, rate
+//and repo rate are inputs: delta, vega, rate delta and repo delta come from the same gradient.
+public class MonteCarloPricingEngine implements PricingEngine {
+
+    private final int numberOfPaths;
+    private final int seed;
+    private final BrownianMotionCache brownianMotionCache;
+    private final PathGenerator pathGenerator;
+    private final boolean useControlVariate;
+    private final RandomVariableDifferentiableAADFactory randomVariableFactory = new RandomVariableDifferentiableAADFactory();
+    private PathCountController pathCountController;
+    private Set<AdjointInput> adjointInputs = EnumSet.allOf(AdjointInput.class);
+    private boolean gradientDiagnostics;
+    private boolean finiteDifferenceBenchmark = true;
+
+
+    public MonteCarloPricingEngine(int numberOfPaths, int seed, BrownianMotionCache brownianMotionCache) {
+        this(numberOfPaths, seed, brownianMotionCache, PathGenerator.MERSENNE, false);
+    }
+
+    public MonteCarloPricingEngine(int numberOfPaths, int seed, BrownianMotionCache brownianMotionCache, PathGenerator pathGenerator, boolean useControlVariate) {
+        this.numberOfPaths = numberOfPaths;
+        this.seed = seed;
+        this.brownianMotionCache = brownianMotionCache;
+        this.pathGenerator = pathGenerator;
+        this.useControlVariate = useControlVariate;
+    }
+
+    //Adaptive number of paths for calculate (null = numberOfPaths paths with the finite difference benchmark)
+    public void setPathCountController(PathCountController pathCountController) {
+        if (pathCountController != null) {
+            pathCountController.checkPathGenerator(pathGenerator);
+        }
+        this.pathCountController = pathCountController;
+    }
+
+    //Inputs differentiated by AAD: the greeks with respect to the other inputs are reported as zero
+    public void setAdjointInputs(Set<AdjointInput> adjointInputs) {
+        if (adjointInputs == null) {
+            throw new IllegalArgumentException("Gli input da differenziare non possono essere null.");
+        }
+        this.adjointInputs = adjointInputs.isEmpty() ? EnumSet.noneOf(AdjointInput.class) : EnumSet.copyOf(adjointInputs);
+    }
+
+    public Set<AdjointInput> getAdjointInputs() {
+        return EnumSet.copyOf(adjointInputs);
+    }
+
+    //Dump of the whole gradient of the non-European trades in the details (diagnostics only: it walks the tape once more)
+    public void setGradientDiagnostics(boolean gradientDiagnostics) {
+        this.gradientDiagnostics = gradientDiagnostics;
+    }
+
+    //Finite difference revaluations and analytic values of the Europeans reported next to the AAD greeks
+    //(off: only the AAD pricing is run, e.g. to measure it)
+    public void setFiniteDifferenceBenchmark(boolean finiteDifferenceBenchmark) {
+        this.finiteDifferenceBenchmark = finiteDifferenceBenchmark;
+    }
+
+    @Override
+    public String getName() {
+        return "MonteCarlo-AAD";
+    }
+
+    @Override
+    public String getConfiguration() {
+        return getName() + "|paths=" + numberOfPaths + "|seed=" + seed + "|generator=" + pathGenerator
+                + "|controlVariate=" + useControlVariate + "|inputs=" + adjointInputs + "|diagnostics=" + gradientDiagnostics
+                + "|benchmark=" + finiteDifferenceBenchmark
+                + "|controller=" + (pathCountController != null ? pathCountController.getConfiguration() : "none");
+    }
+
+    @Override
+    public PricingResult calculate(Trade trade) throws CalculationException {
+        if (pathCountController != null) {
+            return calculateAdaptive(trade);
+        }
+
+        StringBuilder report = new StringBuilder();
+
+        double analyticValue = 0.0, analyticDelta = 0.0, analyticVega = 0.0;
+        double timeFD = 0.0, timeAnalytic = 0.0;
+
+        //Definition of Random Differentiable Variable (only for the requested inputs)
+        RandomVariable initialValue = createInput(randomVariableFactory, adjointInputs, AdjointInput.SPOT, trade.getUnderlyingPrice());
+        RandomVariable riskFreeRate = createInput(randomVariableFactory, adjointInputs, AdjointInput.RATE, trade.getRiskFreeRate());
+        RandomVariable repoRate = createInput(randomVariableFactory, adjointInputs, AdjointInput.REPO, trade.getRepoRate());
+        RandomVariable[] volatilityNodes = createVolatilityNodes(randomVariableFactory, adjointInputs, trade.getVolatility());
+
+        //Black-Scholes model creation: it only carries the Brownian motion, the paths are built on the volatility nodes
+        BlackScholesModel model = new BlackScholesModel(initialValue, riskFreeRate, new RandomVariableFromDoubleArray(trade.getVolatility()), new RandomVariableFromArrayFactory());
+
+        //Time discretization on the dates of the product and MC simulation
+        TimeDiscretization timeDiscretization = getTimeDiscretization(List.of(trade));
+        BrownianMotion brownianMotion = brownianMotionCache.getBrownianMotion(timeDiscretization, 1, numberOfPaths, seed, pathGenerator);
+        MonteCarloAssetModel monteCarloModel = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(model, brownianMotion));
+
+        //Calculation with AAD, on the term structure of the volatility nodes (vega of every tenor in the same sweep)
+        long startAAD = System.nanoTime();
+        boolean isControlled = isControlled(trade);
+        TermStructureAssetModel termStructureModel = new TermStructureAssetModel(monteCarloModel, brownianMotion, initialValue, riskFreeRate, repoRate, volatilityNodes);
+        RandomVariable value = getOptionValue(trade, termStructureModel);
+        if (isControlled) {
+            value = value.sub(getControlValue(trade, termStructureModel));
+        }
+
+        if (gradientDiagnostics && !trade.getOptionStyle().equalsIgnoreCase("European")) {
+            appendGradientInfo(report, value);
+        }
+
+        Map<Long, RandomVariable> derivative = getGradient(value);
+        double valueAAD = value.getAverage();
+        double deltaAAD = getDerivative(derivative, initialValue).getAverage() * trade.getUnderlyingPrice();
+        RandomVariable[] vegasByTenor = getVegaByTenor(derivative, volatilityNodes, trade.getVolatility());
+        RandomVariable vegas = sum(vegasByTenor);
+        double vegaAAD = vegas.getAverage();
+        double[] vegaByTenorAAD = getAverages(vegasByTenor);
+        double rhoAAD = getDerivative(derivative, riskFreeRate).getAverage();
+        double repoDeltaAAD = getDerivative(derivative, repoRate).getAverage();
+
+        //Standard errors from the per-path values and gradients
+        MonteCarloStatistics valueStatistics = new MonteCarloStatistics();
+        MonteCarloStatistics deltaStatistics = new MonteCarloStatistics();
+        MonteCarloStatistics vegaStatistics = new MonteCarloStatistics();
+        valueStatistics.addBatch(value, numberOfPaths);
+        deltaStatistics.addBatch(getDerivative(derivative, initialValue).mult(trade.getUnderlyingPrice()), numberOfPaths);
+        vegaStatistics.addBatch(vegas, numberOfPaths);
+        if (isControlled) {
+            double[] control = getControlAnalytic(trade, trade.getUnderlyingPrice(), trade.getVolatility());
+            valueAAD += control[0];
+            deltaAAD += control[1];
+            vegaAAD += control[2];
+            rhoAAD += control[3];
+            repoDeltaAAD += control[4];
+            addControlVegaByTenor(trade, control[2], vegaByTenorAAD);
+        }
+        //The sensitivities to the inputs not differentiated are reported as zero (also the part of the control)
+        rhoAAD = adjointInputs.contains(AdjointInput.RATE) ? rhoAAD : 0.0;
+        repoDeltaAAD = adjointInputs.contains(AdjointInput.REPO) ? repoDeltaAAD : 0.0;
+        long endAAD = System.nanoTime();
+        double timeAAD = (endAAD - startAAD) / 1e6;
+
+
+        if (finiteDifferenceBenchmark) {
+            // Calculation with FD
+            long startFD = System.nanoTime();
+            RandomVariable volatility = new RandomVariableFromDoubleArray(trade.getVolatility());
+
+            BlackScholesModel modelOriginal = new BlackScholesModel(initialValue, riskFreeRate, volatility, new RandomVariableFromArrayFactory());
+            MonteCarloAssetModel monteCarloOriginal = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelOriginal, brownianMotion));
+            double valueOriginal = getValue(trade, withRepoRate(monteCarloOriginal, trade), trade.getUnderlyingPrice(), trade.getVolatility());
+
+            //Delta FD
+            BlackScholesModel modelUp = new BlackScholesModel(initialValue.mult(1.01), riskFreeRate, volatility, new RandomVariableFromArrayFactory());
+            MonteCarloAssetModel monteCarloUp = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelUp, brownianMotion));
+            double valueUp = getValue(trade, withRepoRate(monteCarloUp, trade), trade.getUnderlyingPrice() * 1.01, trade.getVolatility());
+
+            //Vega FD
+            BlackScholesModel modelVolUp = new BlackScholesModel(initialValue, riskFreeRate, volatility.mult(1.01), new RandomVariableFromArrayFactory());
+            MonteCarloAssetModel monteCarloVolUp = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(modelVolUp, brownianMotion));
+            double valueVolUp = getValue(trade, withRepoRate(monteCarloVolUp, trade), trade.getUnderlyingPrice(), trade.getVolatility() * 1.01);
+
+            //Delta and Vega FD
+            double deltaFD = ((valueUp - valueOriginal) / 0.01);
+            double vegaFD = ((valueVolUp - valueOriginal) / 0.01);
+
+            long endFD = System.nanoTime();
+            timeFD = (endFD - startFD) / 1e6;
+
+
+            //Check with Analytic Formulas
+            if (trade.getOptionStyle().equalsIgnoreCase("European")) {
+                long startAnalytic = System.nanoTime();
+                PricingResult analytic = new AnalyticPricingEngine().calculate(trade);
+                analyticValue = analytic.getValue();
+                analyticDelta = analytic.getDelta();
+                analyticVega = analytic.getVega();
+                timeAnalytic = (System.nanoTime() - startAnalytic) / 1e6;
+            }
+
+            report.append(String.format("Value AAD: %.6f | Value FD: %.6f | Value Analytic: %.6f\n", valueAAD, valueOriginal, analyticValue));
+            report.append(String.format("Delta AAD: %.6f | Delta FD: %.6f | Analytic Delta: %.6f\n", deltaAAD, deltaFD, analyticDelta));
+            report.append(String.format("Vega AAD: %.6f | Vega FD: %.6f | Analytic Vega: %.6f\n", vegaAAD, vegaFD, analyticVega));
+        } else {
+            report.append(String.format("Value AAD: %.6f\n", valueAAD));
+            report.append(String.format("Delta AAD: %.6f\n", deltaAAD));
+            report.append(String.format("Vega AAD: %.6f\n", vegaAAD));
+        }
+        if (adjointInputs.contains(AdjointInput.RATE)) {
+            report.append(String.format("Rho AAD: %.6f\n", rhoAAD));
+        }
+        if (adjointInputs.contains(AdjointInput.REPO)) {
+            report.append(String.format("Repo Delta AAD: %.6f\n", repoDeltaAAD));
+        }
+        report.append(String.format("Std Error Value: %.6f | Std Error Delta: %.6f | Std Error Vega: %.6f\n",
+                valueStatistics.getStandardError(pathGenerator), deltaStatistics.getStandardError(pathGenerator), vegaStatistics.getStandardError(pathGenerator)));
+        if (finiteDifferenceBenchmark) {
+            report.append(String.format("Time AAD: %.3f ms | Time FD: %.3f ms | Time Analytic: %.3f ms\n", timeAAD, timeFD, timeAnalytic));
+        } else {
+            report.append(String.format("Time AAD: %.3f ms\n", timeAAD));
+        }
+
+        return new PricingResult(valueAAD, deltaAAD, vegaAAD, vegaByTenorAAD, rhoAAD, repoDeltaAAD,
+                valueStatistics.getStandardError(pathGenerator), deltaStatistics.getStandardError(pathGenerator), vegaStatistics.getStandardError(pathGenerator),
+                report.toString());
+    }
+
+    //Batches of paths (seeds seed, seed + 1, ...) until the standard errors are below the tolerances of the bucket
+    private PricingResult calculateAdaptive(Trade trade) throws CalculationException {
+        int batchSize = pathCountController.getBatchSize();
+        boolean isControlled = isControlled(trade);
+        TimeDiscretization timeDiscretization = getTimeDiscretization(List.of(trade));
+
+        MonteCarloStatistics valueStatistics = new MonteCarloStatistics();
+        MonteCarloStatistics deltaStatistics = new MonteCarloStatistics();
+        MonteCarloStatistics vegaStatistics = new MonteCarloStatistics();
+        MonteCarloStatistics rhoStatistics = new MonteCarloStatistics();
+        MonteCarloStatistics repoDeltaStatistics = new MonteCarloStatistics();
+        MonteCarloStatistics[] vegaByTenorStatistics = new MonteCarloStatistics[VolatilityInterpolator.getRegulatoryTenors().length];
+        for (int k = 0; k < vegaByTenorStatistics.length; k++) {
+            vegaByTenorStatistics[k] = new MonteCarloStatistics();
+        }
+
+        int numberOfBatches = 0;
+        while (pathCountController.isBatchNeeded(trade.getBucket(), valueStatistics.getNumberOfPaths(),
+                valueStatistics.getStandardError(pathGenerator), deltaStatistics.getStandardError(pathGenerator), vegaStatistics.getStandardError(pathGenerator))) {
+            RandomVariable initialValue = createInput(randomVariableFactory, adjointInputs, AdjointInput.SPOT, trade.getUnderlyingPrice());
+            RandomVariable riskFreeRate = createInput(randomVariableFactory, adjointInputs, AdjointInput.RATE, trade.getRiskFreeRate());
+            RandomVariable repoRate = createInput(randomVariableFactory, adjointInputs, AdjointInput.REPO, trade.getRepoRate());
+            RandomVariable[] volatilityNodes = createVolatilityNodes(randomVariableFactory, adjointInputs, trade.getVolatility());
+
+            //The batches are used only once: their Brownian motions are not cached
+            BlackScholesModel model = new BlackScholesModel(initialValue, riskFreeRate, new RandomVariableFromDoubleArray(trade.getVolatility()), new RandomVariableFromArrayFactory());
+            BrownianMotion brownianMotion = BrownianMotionCache.createBrownianMotion(timeDiscretization, 1, batchSize, seed + numberOfBatches, pathGenerator);
+            MonteCarloAssetModel monteCarloModel = new MonteCarloAssetModel(new EulerSchemeFromProcessModel(model, brownianMotion));
+            TermStructureAssetModel termStructureModel = new TermStructureAssetModel(monteCarloModel, brownianMotion, initialValue, riskFreeRate, repoRate, volatilityNodes);
+
+            RandomVariable value = getOptionValue(trade, termStructureModel);
+            if (isControlled) {
+                value = value.sub(getControlValue(trade, termStructureModel));
+            }
+            Map<Long, RandomVariable> gradient = getGradient(value);
+            RandomVariable[] vegasByTenor = getVegaByTenor(gradient, volatilityNodes, trade.getVolatility());
+
+            valueStatistics.addBatch(value, batchSize);
+            deltaStatistics.addBatch(getDerivative(gradient, initialValue).mult(trade.getUnderlyingPrice()), batchSize);
+            vegaStatistics.addBatch(sum(vegasByTenor), batchSize);
+            for (int k = 0; k < vegasByTenor.length; k++) {
+                vegaByTenorStatistics[k].addBatch(vegasByTenor[k], batchSize);
+            }
+            rhoStatistics.addBatch(getDerivative(gradient, riskFreeRate), batchSize);
+            repoDeltaStatistics.addBatch(getDerivative(gradient, repoRate), batchSize);
+            numberOfBatches++;
+        }
+
+        double value = valueStatistics.getMean();
+        double delta = deltaStatistics.getMean();
+        double vega = vegaStatistics.getMean();
+        double rho = rhoStatistics.getMean();
+        double repoDelta = repoDeltaStatistics.getMean();
+        double[] vegaByTenor = new double[vegaByTenorStatistics.length];
+        for (int k = 0; k < vegaByTenor.length; k++) {
+            vegaByTenor[k] = vegaByTenorStatistics[k].getMean();
+        }
+        if (isControlled) {
+            double[] control = getControlAnalytic(trade, trade.getUnderlyingPrice(), trade.getVolatility());
+            value += control[0];
+            delta += control[1];
+            vega += control[2];
+            rho += control[3];
+            repoDelta += control[4];
+            addControlVegaByTenor(trade, control[2], vegaByTenor);
+        }
+        rho = adjointInputs.contains(AdjointInput.RATE) ? rho : 0.0;
+        repoDelta = adjointInputs.contains(AdjointInput.REPO) ? repoDelta : 0.0;
+
+        double valueError = valueStatistics.getStandardError(pathGenerator);
+        double deltaError = deltaStatistics.getStandardError(pathGenerator);
+        double vegaError = vegaStatistics.getStandardError(pathGenerator);
+
+        String details = String.format("Value AAD: %.6f +/- %.6f | Delta AAD: %.6f +/- %.6f | Vega AAD: %.6f +/- %.6f | Paths: %d (%d batches)\n",
+                value, valueError, delta, deltaError, vega, vegaError, valueStatistics.getNumberOfPaths(), numberOfBatches);
+        if (adjointInputs.contains(AdjointInput.RATE)) {
+            details += String.format("Rho AAD: %.6f +/- %.6f\n", rho, rhoStatistics.getStandardError(pathGenerator));
+        }
+        if (adjointInputs.contains(AdjointInput.REPO)) {
+            details += String.format("Repo Delta AAD: %.6f +/- %.6f\n", repoDelta, repoDeltaStatistics.getStandardError(pathGenerator));
+        }
+
+        return new PricingResult(value, delta, vega, vegaByTenor, rho, repoDelta, valueError, deltaError, vegaError, details);
+    }
+
+    //Volatility nodes of the regulatory tenors, all equal to the volatility of the trade (the CSV has one volatility
+    //per trade): AAD inputs if the volatility is requested
+    static RandomVariable[] createVolatilityNodes(RandomVariableDifferentiableAADFactory factory, Set<AdjointInput> adjointInputs, double volatility) {
+        RandomVariable[] volatilityNodes = new RandomVariable[VolatilityInterpolator.getRegulatoryTenors().length];
+        for (int k = 0; k < volatilityNodes.length; k++) {
+            volatilityNodes[k] = createInput(factory, adjointInputs, AdjointInput.VOLATILITY, volatility);
+        }
+        return volatilityNodes;
+    }
+
+    //Per-path vega of each tenor, dV/dsigma_k * sigma_k
+    static RandomVariable[] getVegaByTenor(Map<Long, RandomVariable> gradient, RandomVariable[] volatilityNodes, double volatility) {
+        RandomVariable[] vegaByTenor = new RandomVariable[volatilityNodes.length];
+        for (int k = 0; k < volatilityNodes.length; k++) {
+            vegaByTenor[k] = getDerivative(gradient, volatilityNodes[k]).mult(volatility);
+        }
+        return vegaByTenor;
+    }
+
+    private static RandomVariable sum(RandomVariable[] values) {
+        RandomVariable sum = values[0];
+        for (int i = 1; i < values.length; i++) {
+            sum = sum.add(values[i]);
+        }
+        return sum;
+    }
+
+    private static double[] getAverages(RandomVariable[] values) {
+        double[] averages = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            averages[i] = values[i].getAverage();
+        }
+        return averages;
+    }
+
+    //Analytic vega of the control (European on the last exercise date) on the tenors around its maturity
+    private static void addControlVegaByTenor(Trade trade, double controlVega, double[] vegaByTenor) {
+        double[] exerciseDates = trade.getExerciseDates();
+        double[] weights = VolatilityInterpolator.getInterpolationWeights(exerciseDates[exerciseDates.length - 1]);
+        for (int k = 0; k < vegaByTenor.length; k++) {
+            vegaByTenor[k] += weights[k] * controlVega;
+        }
+    }
+
+    //AAD input if requested, otherwise a plain random variable which is not recorded on the tape
+    static RandomVariable createInput(RandomVariableDifferentiableAADFactory factory, Set<AdjointInput> adjointInputs, AdjointInput input, double value) {
+        return adjointInputs.contains(input) ? factory.createRandomVariable(value) : new RandomVariableFromDoubleArray(value);
+    }
+
+    //Gradient of the value with respect to the AAD inputs (empty if no input is differentiated)
+    static Map<Long, RandomVariable> getGradient(RandomVariable value) {
+        return value instanceof RandomVariableDifferentiable ? ((RandomVariableDifferentiable) value).getGradient() : Map.of();
+    }
+
+    //Per-path derivative with respect to the input (zero if the value does not depend on it or the input is not differentiated)
+    static RandomVariable getDerivative(Map<Long, RandomVariable> gradient, RandomVariable input) {
+        RandomVariable derivative = input instanceof RandomVariableDifferentiable ? gradient.get(((RandomVariableDifferentiable) input).getID()) : null;
+        return derivative != null ? derivative : new RandomVariableFromDoubleArray(0.0);
+    }
+
+    @Override
+    public double getValue(Trade trade, double underlyingPrice) throws CalculationException {
+        return getValue(trade, getValueModel(trade, underlyingPrice), underlyingPrice, trade.getVolatility());
+    }
+
+    //Single simulation from the spot of the trade: under Black-Scholes the paths are linear in S(0), so the paths
+    //of the other prices are the simulated ones rescaled by S / S(0) and only the payoff and the exercise are re-evaluated
+    @Override
+    public double[] getValues(Trade trade, double[] underlyingPrices) throws CalculationException {
+        double underlyingPrice = trade.getUnderlyingPrice();
+        if (underlyingPrice <= 0.0) {
+            return PricingEngine.super.getValues(trade, underlyingPrices);
+        }
+
+        AssetModelMonteCarloSimulationModel monteCarloModel = getValueModel(trade, underlyingPrice);
+        double[] values = new double[underlyingPrices.length];
+        for (int i = 0; i < underlyingPrices.length; i++) {
+            RescaledAssetModel scenarioModel = new RescaledAssetModel(monteCarloModel, new RandomVariableFromDoubleArray(underlyingPrices[i] / underlyingPrice));
+            values[i] = getValue(trade, scenarioModel, underlyingPrices[i], trade.getVolatility());
+        }
+        return values;
+    }
+
+    //Model without AAD on the paths of calculate (same Brownian motion from the cache)
+    private AssetModelMonteCarloSimulationModel getValueModel(Trade trade, double underlyingPrice) {
+        RandomVariable initialValue = new RandomVariableFromDoubleArray(underlyingPrice);
+        RandomVariable riskFreeRate = new RandomVariableFromDoubleArray(trade.getRiskFreeRate());
+        RandomVariable volatility = new RandomVariableFromDoubleArray(trade.getVolatility());
+
+        BlackScholesModel model = new BlackScholesModel(initialValue, riskFreeRate, volatility, new RandomVariableFromArrayFactory());
+        TimeDiscretization timeDiscretization = getTimeDiscretization(List.of(trade));
+        BrownianMotion brownianMotion = brownianMotionCache.getBrownianMotion(timeDiscretization, 1, numberOfPaths, seed, pathGenerator);
+        return withRepoRate(new MonteCarloAssetModel(new EulerSchemeFromProcessModel(model, brownianMotion)), trade);
+    }
+
+    //Paths of the model with the drift lowered by the repo rate of the trade (the model itself if the repo rate is zero)
+    private static AssetModelMonteCarloSimulationModel withRepoRate(AssetModelMonteCarloSimulationModel model, Trade trade) {
+        if (trade.getRepoRate() == 0.0) {
+            return model;
+        }
+        return new RescaledAssetModel(model, new RandomVariableFromDoubleArray(1.0), new RandomVariableFromDoubleArray(trade.getRepoRate()));
+    }
+
+    //Monte Carlo value, with the control variate if enabled for the trade
+    private double getValue(Trade trade, AssetModelMonteCarloSimulationModel model, double underlyingPrice, double volatility) throws CalculationException {
+        double value = getOptionValue(trade, model).getAverage();
+        if (isControlled(trade)) {
+            value += getControlAnalytic(trade, underlyingPrice, volatility)[0] - getControlValue(trade, model).getAverage();
+        }
+        return value;
+    }
+
+    private boolean isControlled(Trade trade) {
+        return useControlVariate && !trade.getOptionStyle().equalsIgnoreCase("European");
+    }
+
+    //European call on the last exercise date and strike of the Bermudan
+    private static RandomVariable getControlValue(Trade trade, AssetModelMonteCarloSimulationModel model) throws CalculationException {
+        double[] exerciseDates = trade.getExerciseDates();
+        double[] strikes = trade.getStrikes();
+        EuropeanOption europeanOption = new EuropeanOption(exerciseDates[exerciseDates.length - 1], strikes[exerciseDates.length - 1]);
+        return europeanOption.getValue(0.0, model);
+    }
+
+    //Value, delta (dV/dS * S), vega (dV/dsigma * sigma), rho (dV/dr) and repo delta (dV/dq) of the control with the
+    //Black-Scholes formulas
+    private static double[] getControlAnalytic(Trade trade, double underlyingPrice, double volatility) {
+        double[] exerciseDates = trade.getExerciseDates();
+        double maturity = exerciseDates[exerciseDates.length - 1];
+        double strike = trade.getStrikes()[exerciseDates.length - 1];
+
+        return AnalyticPricingEngine.getValueAndSensitivities(underlyingPrice, trade.getRiskFreeRate(), trade.getRepoRate(),
+                volatility, maturity, strike, true);
+    }
+
+    //Simulation times needed by the given options: 0, the maturities and the exercise dates.
+    //BlackScholesModel is simulated in log space, so the Euler scheme steps exactly between these dates
+    //and no intermediate time is needed.
+    static TimeDiscretization getTimeDiscretization(List<Trade> options) {
+        Set<Double> times = new TreeSet<>();
+        times.add(0.0);
+        for (Trade trade : options) {
+            times.add(trade.getMaturity());
+            for (double exerciseDate : trade.getExerciseDates()) {
+                times.add(exerciseDate);
+            }
+        }
+        return new TimeDiscretizationFromArray(times);
+    }
+
+    //European or Bermudan option of the trade, valued on the given model
+    static RandomVariable getOptionValue(Trade trade, AssetModelMonteCarloSimulationModel model) throws CalculationException {
+        if (trade.getOptionStyle().equalsIgnoreCase("European")) {
+            EuropeanOption europeanOption = new EuropeanOption(trade.getUnderlying(), trade.getMaturity(), trade.getStrikes()[0], trade.getOptionType());
+            return europeanOption.getValue(0.0, model);
+        }
+
+        double[] exerciseDates = trade.getExerciseDates();
+        double[] notionals = new double[exerciseDates.length];
+        Arrays.fill(notionals, 1.0);
+
+        BermudanOption bermudanOption = new BermudanOption(exerciseDates, notionals, trade.getStrikes(), BermudanOption.ExerciseMethod.ESTIMATE_COND_EXPECTATION);
+        return bermudanOption.getValue(0.0, model);
+    }
+
+    private static void appendGradientInfo(StringBuilder report, RandomVariable value) {
+        report.append("== GRADIENT INFO ==").append(System.lineSeparator());
+
+        Map<Long, RandomVariable> gradient = getGradient(value);
+
+        for (Map.Entry<Long, RandomVariable> entry : gradient.entrySet()) {
+            Long id = entry.getKey();
+            RandomVariable derivative = entry.getValue();
+
+            report.append(String.format("Input ID: %d | Derivative avg: %.6f%n", id, derivative.getAverage()));
+        }
+    }
+}
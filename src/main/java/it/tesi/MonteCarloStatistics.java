@@ -0,0 +1,62 @@
+package it.tesi;
+
+import net.finmath.stochastic.RandomVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//Mean and standard error of a Monte Carlo estimator (value or AAD gradient) accumulated over batches of paths
+public class MonteCarloStatistics {
+
+    private double sum;
+    private double sumOfSquares;
+    private long numberOfPaths;
+    private final List<Double> batchMeans = new ArrayList<>();
+
+
+    //Per-path realizations of a batch (a deterministic random variable counts as constant on all paths)
+    public void addBatch(RandomVariable values, int numberOfPathsInBatch) {
+        double mean = values.getAverage();
+        sum += mean * numberOfPathsInBatch;
+        sumOfSquares += values.squared().getAverage() * numberOfPathsInBatch;
+        numberOfPaths += numberOfPathsInBatch;
+        batchMeans.add(mean);
+    }
+
+    //Adds the paths of other (e.g. statistics of a chunk computed on another thread)
+    public void merge(MonteCarloStatistics other) {
+        sum += other.sum;
+        sumOfSquares += other.sumOfSquares;
+        numberOfPaths += other.numberOfPaths;
+        batchMeans.addAll(other.batchMeans);
+    }
+
+    public double getMean() {
+        return numberOfPaths > 0 ? sum / numberOfPaths : 0.0;
+    }
+
+    public long getNumberOfPaths() {
+        return numberOfPaths;
+    }
+
+    //Standard error of the mean. Pseudo-random paths are independent, so the per-path variance is used.
+    //Antithetic and Sobol paths are not: with two or more batches (independent seeds) the variance of the batch
+    //means is used, with a single batch the per-path variance is a conservative estimate.
+    public double getStandardError(PathGenerator pathGenerator) {
+        if (pathGenerator != PathGenerator.MERSENNE && batchMeans.size() > 1) {
+            double mean = getMean();
+            double sumOfSquaredDeviations = 0.0;
+            for (double batchMean : batchMeans) {
+                sumOfSquaredDeviations += (batchMean - mean) * (batchMean - mean);
+            }
+            return Math.sqrt(sumOfSquaredDeviations / (batchMeans.size() - 1) / batchMeans.size());
+        }
+
+        if (numberOfPaths < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = getMean();
+        double variance = Math.max(sumOfSquares / numberOfPaths - mean * mean, 0.0) * numberOfPaths / (numberOfPaths - 1);
+        return Math.sqrt(variance / numberOfPaths);
+    }
+}
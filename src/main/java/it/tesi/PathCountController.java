@@ -0,0 +1,70 @@
+package it.tesi;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+//Adaptive number of Monte Carlo paths: batches of paths (with seeds seed, seed + 1, ...) are added until the
+//standard errors of value, delta and vega are below the tolerances of the bucket of the trade,
+//or until the maximum number of paths is reached
+public class PathCountController {
+
+    private final int batchSize;
+    private final int maximumNumberOfPaths;
+    private final double[] defaultTolerances;
+    private final Map<Integer, double[]> tolerancesByBucket = new HashMap<>();
+
+
+    //Tolerances on the standard errors of value, delta (dV/dS * S) and vega (dV/dsigma * sigma) for all buckets
+    public PathCountController(int batchSize, int maximumNumberOfPaths, double valueTolerance, double deltaTolerance, double vegaTolerance) {
+        if (batchSize < 2 || maximumNumberOfPaths < batchSize) {
+            throw new IllegalArgumentException("Dimensione dei batch (" + batchSize + ") o numero massimo di path (" + maximumNumberOfPaths + ") non validi.");
+        }
+        this.batchSize = batchSize;
+        this.maximumNumberOfPaths = maximumNumberOfPaths;
+        this.defaultTolerances = new double[] {valueTolerance, deltaTolerance, vegaTolerance};
+    }
+
+    //Tolerances for the trades of the given bucket, replacing the default ones
+    public void setTolerances(int bucket, double valueTolerance, double deltaTolerance, double vegaTolerance) {
+        tolerancesByBucket.put(bucket, new double[] {valueTolerance, deltaTolerance, vegaTolerance});
+    }
+
+    public double[] getTolerances(int bucket) {
+        return tolerancesByBucket.getOrDefault(bucket, defaultTolerances).clone();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getMaximumNumberOfPaths() {
+        return maximumNumberOfPaths;
+    }
+
+    //The antithetic generator builds the paths in pairs: each batch must have an even number of paths
+    public void checkPathGenerator(PathGenerator pathGenerator) {
+        if (pathGenerator == PathGenerator.ANTITHETIC && batchSize % 2 != 0) {
+            throw new IllegalArgumentException("La dimensione dei batch deve essere pari per le variabili antitetiche: " + batchSize);
+        }
+    }
+
+    //True if another batch is needed: standard errors of value, delta, vega above the tolerances and paths left
+    public boolean isBatchNeeded(int bucket, long numberOfPaths, double valueError, double deltaError, double vegaError) {
+        if (numberOfPaths + batchSize > maximumNumberOfPaths) {
+            return false;
+        }
+        double[] tolerances = tolerancesByBucket.getOrDefault(bucket, defaultTolerances);
+        return valueError > tolerances[0] || deltaError > tolerances[1] || vegaError > tolerances[2];
+    }
+
+    //Batch size, maximum number of paths and tolerances, as a stable string (revaluation cache keys)
+    public String getConfiguration() {
+        StringBuilder configuration = new StringBuilder();
+        configuration.append(batchSize).append('/').append(maximumNumberOfPaths).append('/').append(Arrays.toString(defaultTolerances));
+        new TreeMap<>(tolerancesByBucket).forEach((bucket, tolerances) ->
+                configuration.append('/').append(bucket).append('=').append(Arrays.toString(tolerances)));
+        return configuration.toString();
+    }
+}
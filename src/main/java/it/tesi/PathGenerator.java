@@ -0,0 +1,14 @@
+package it.tesi;
+
+//Random numbers used to build the Brownian increments of the Monte Carlo simulations
+public enum PathGenerator {
+
+    //Pseudo-random Mersenne Twister numbers (finmath BrownianMotionFromMersenneRandomNumbers)
+    MERSENNE,
+
+    //Mersenne Twister numbers for the first half of the paths, mirrored (-dW) on the second half
+    ANTITHETIC,
+
+    //Sobol sequence with a random digital shift given by the seed, with Brownian bridge construction of the paths
+    SOBOL_BRIDGE
+}
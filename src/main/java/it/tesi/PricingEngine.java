@@ -0,0 +1,30 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+
+//Pricing engine used by AADPricer for a product (Stock, European, Bermudan) under the Black-Scholes model.
+//Delta and vega are returned as sensitivities to relative moves: dV/dS * S and dV/dsigma * sigma.
+public interface PricingEngine {
+
+    String getName();
+
+    //Name and settings affecting the results (e.g. paths, seed, steps), part of the keys of the RevaluationCache
+    default String getConfiguration() {
+        return getName();
+    }
+
+    PricingResult calculate(Trade trade) throws CalculationException;
+
+    //Value only, with the underlying price replaced by the given one (curvature revaluations)
+    double getValue(Trade trade, double underlyingPrice) throws CalculationException;
+
+    //Values for several underlying prices (curvature scenarios). Engines able to share the work between the
+    //scenarios override it, by default each price is a separate valuation.
+    default double[] getValues(Trade trade, double[] underlyingPrices) throws CalculationException {
+        double[] values = new double[underlyingPrices.length];
+        for (int i = 0; i < underlyingPrices.length; i++) {
+            values[i] = getValue(trade, underlyingPrices[i]);
+        }
+        return values;
+    }
+}
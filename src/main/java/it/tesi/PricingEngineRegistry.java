@@ -0,0 +1,41 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Pricing engine of each product (Stock, European, Bermudan), shared by AADPricer and CurvatureRiskCalculator
+public class PricingEngineRegistry {
+
+    private final Map<String, PricingEngine> enginesByProduct = new ConcurrentHashMap<>();
+
+
+    //Default engines: closed form for Europeans, binomial tree with adjoint greeks for Bermudans
+    public static PricingEngineRegistry createDefault() {
+        PricingEngineRegistry registry = new PricingEngineRegistry();
+        registry.registerEngine("Stock", new StockPricingEngine());
+        registry.registerEngine("European", new AnalyticPricingEngine());
+        registry.registerEngine("Bermudan", new LatticePricingEngine());
+        return registry;
+    }
+
+    //Engine used for the trades of the given product, replacing the previous one
+    public void registerEngine(String product, PricingEngine engine) {
+        enginesByProduct.put(product.toLowerCase(Locale.ROOT), engine);
+    }
+
+    public PricingEngine getEngine(Trade trade) throws CalculationException {
+        String product = getProduct(trade);
+        PricingEngine engine = product != null ? enginesByProduct.get(product.toLowerCase(Locale.ROOT)) : null;
+        if (engine == null) {
+            throw new CalculationException("Nessun pricing engine registrato per il prodotto " + product + " (trade " + trade.getDealNumber() + ")");
+        }
+        return engine;
+    }
+
+    public static String getProduct(Trade trade) {
+        return trade.getAssetType().equalsIgnoreCase("Stock") ? "Stock" : trade.getOptionStyle();
+    }
+}
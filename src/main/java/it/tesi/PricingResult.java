@@ -0,0 +1,90 @@
+package it.tesi;
+
+public class PricingResult {
+
+    private final double value;
+    private final double delta;
+    private final double vega;
+    private final double valueStandardError;
+    private final double deltaStandardError;
+    private final double vegaStandardError;
+    //Vega of each regulatory tenor (null = not computed by the engine)
+    private final double[] vegaByTenor;
+    private final double rateDelta;
+    private final double repoDelta;
+    private final String details;
+
+
+    //Result of a deterministic engine (no Monte Carlo error)
+    public PricingResult(double value, double delta, double vega, String details) {
+        this(value, delta, vega, 0.0, 0.0, 0.0, details);
+    }
+
+    public PricingResult(double value, double delta, double vega,
+                         double valueStandardError, double deltaStandardError, double vegaStandardError, String details) {
+        this(value, delta, vega, null, valueStandardError, deltaStandardError, vegaStandardError, details);
+    }
+
+    public PricingResult(double value, double delta, double vega, double[] vegaByTenor,
+                         double valueStandardError, double deltaStandardError, double vegaStandardError, String details) {
+        this(value, delta, vega, vegaByTenor, 0.0, 0.0, valueStandardError, deltaStandardError, vegaStandardError, details);
+    }
+
+    public PricingResult(double value, double delta, double vega, double[] vegaByTenor, double rateDelta, double repoDelta,
+                         double valueStandardError, double deltaStandardError, double vegaStandardError, String details) {
+        this.value = value;
+        this.delta = delta;
+        this.vega = vega;
+        this.valueStandardError = valueStandardError;
+        this.deltaStandardError = deltaStandardError;
+        this.vegaStandardError = vegaStandardError;
+        this.vegaByTenor = vegaByTenor;
+        this.rateDelta = rateDelta;
+        this.repoDelta = repoDelta;
+        this.details = details;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    public double getVega() {
+        return vega;
+    }
+
+    //Vega (dV/dsigma_k * sigma_k) of the tenors of VolatilityInterpolator.getRegulatoryTenors(), summing to getVega()
+    public double[] getVegaByTenor() {
+        return vegaByTenor;
+    }
+
+    //dV/dr, sensitivity to the risk free rate
+    public double getRateDelta() {
+        return rateDelta;
+    }
+
+    //dV/dq, sensitivity to the repo rate / dividend yield of the underlying
+    public double getRepoDelta() {
+        return repoDelta;
+    }
+
+    public double getValueStandardError() {
+        return valueStandardError;
+    }
+
+    public double getDeltaStandardError() {
+        return deltaStandardError;
+    }
+
+    public double getVegaStandardError() {
+        return vegaStandardError;
+    }
+
+    //Engine specific report lines (benchmarks, timings), printed by AADPricer
+    public String getDetails() {
+        return details;
+    }
+}
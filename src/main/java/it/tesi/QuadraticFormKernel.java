@@ -0,0 +1,43 @@
+package it.tesi;
+
+//Reductions used by the intra-bucket aggregation, on the values x[from] ... x[to - 1] of a bucket.
+//With a constant correlation the quadratic form sum_{k<l} rho x_k x_l is rho (S^2 - Q) / 2 (S = sum, Q = sum of squares),
+//so a bucket costs O(n) instead of O(n^2); the maturity dependent correlation of vega is reduced to the distinct tenors.
+public interface QuadraticFormKernel {
+
+    String getName();
+
+    double sum(double[] x, int from, int to);
+
+    double sumOfSquares(double[] x, int from, int to);
+
+    //Sum of max(x_k, 0)
+    double sumOfPositive(double[] x, int from, int to);
+
+    //Sum of max(x_k, 0)^2
+    double sumOfPositiveSquares(double[] x, int from, int to);
+
+    //sum_{t<u} exp(-0.01 (T_u - T_t) / T_t) a_t a_u for the ascending tenors T_0 < ... < T_{n-1}
+    double sumOfTenorProducts(double[] tenors, double[] a, int n);
+
+    //sum_{k<l} x_k x_l
+    default double sumOfProducts(double[] x, int from, int to) {
+        double sum = sum(x, from, to);
+        return (sum * sum - sumOfSquares(x, from, to)) / 2;
+    }
+
+    //sum_{k<l} x_k x_l psi_kl with psi_kl = 0 if x_k <= 0 and x_l <= 0 (curvature): the products of the
+    //non-positive values, (N^2 - Q_N) / 2, are removed from (S^2 - Q) / 2 with Q - Q_N the sum of the positive squares
+    default double sumOfProductsWithoutNegativePairs(double[] x, int from, int to) {
+        double sum = sum(x, from, to);
+        double negativeSum = sum - sumOfPositive(x, from, to);
+        return (sum * sum - negativeSum * negativeSum - sumOfPositiveSquares(x, from, to)) / 2;
+    }
+
+    //Vector API kernel if the jdk.incubator.vector module is available (--add-modules jdk.incubator.vector), scalar otherwise
+    static QuadraticFormKernel getDefault() {
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+                ? new VectorQuadraticFormKernel()
+                : new ScalarQuadraticFormKernel();
+    }
+}
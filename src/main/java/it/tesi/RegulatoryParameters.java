@@ -0,0 +1,246 @@
+package it.tesi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+//Regulatory parameters of the sensitivities based method (risk weights, rho, gamma and correlation scenarios of the
+//equity spot, vega, curvature and repo risk factors, and of the interest rate risk factors by tenor),
+//read from a versioned properties file and compiled once into arrays indexed by bucket: the correlations of every
+//scenario, and the squared ones of curvature, are computed when the file is loaded and only looked up by the aggregation.
+//Index 0 of the tables holds the values of the buckets outside 1 ... numberOfBuckets.
+//Immutable: a new calibration is a new instance (see SensitivityAggregator.setParameters).
+public class RegulatoryParameters {
+
+    private static final String DEFAULT_RESOURCE = "frtb_equity_parameters.properties";
+    private static final RegulatoryParameters DEFAULT = loadDefault();
+
+    private final String version;
+    private final int numberOfBuckets;
+
+    //Scenario transforms: high = min(highMultiplier * rho, highCap), low = max(lowSlope * rho + lowIntercept, lowMultiplier * rho)
+    private final double highMultiplier;
+    private final double highCap;
+    private final double lowSlope;
+    private final double lowIntercept;
+    private final double lowMultiplier;
+
+    //[bucket]
+    private final double[] deltaRiskWeights;
+    private final double[] vegaRiskWeights;
+    private final double[] repoRiskWeights;
+    //[tenor index of RiskFactorRegistry.getRateTenors()]
+    private final double[] rateRiskWeights;
+
+    //[scenario][bucket] and [scenario][bucket][bucket]
+    private final double[][] intraBucketCorrelations;
+    private final double[][] curvatureIntraBucketCorrelations;
+    private final double[][][] interBucketCorrelations;
+    private final double[][][] curvatureInterBucketCorrelations;
+    //Rates: [scenario][tenor index][tenor index] within a currency and [scenario] between currencies
+    private final double[][][] rateCorrelations;
+    private final double[] rateInterBucketCorrelations;
+
+
+    private RegulatoryParameters(Properties properties, String source) {
+        this.version = getString(properties, "version", source);
+        this.numberOfBuckets = (int) getValues(properties, "numberOfBuckets", 1, source)[0];
+        if (numberOfBuckets < 1) {
+            throw new IllegalArgumentException("Numero di bucket non valido in " + source + ": " + numberOfBuckets);
+        }
+
+        this.highMultiplier = getValues(properties, "scenario.high.multiplier", 1, source)[0];
+        this.highCap = getValues(properties, "scenario.high.cap", 1, source)[0];
+        this.lowSlope = getValues(properties, "scenario.low.slope", 1, source)[0];
+        this.lowIntercept = getValues(properties, "scenario.low.intercept", 1, source)[0];
+        this.lowMultiplier = getValues(properties, "scenario.low.multiplier", 1, source)[0];
+
+        double[] otherRiskWeights = getValues(properties, "riskWeight.other", 2, source);
+        this.deltaRiskWeights = getTable(getValues(properties, "riskWeight.delta", numberOfBuckets, source), otherRiskWeights[0]);
+        this.vegaRiskWeights = getTable(getValues(properties, "riskWeight.vega", numberOfBuckets, source), otherRiskWeights[1]);
+        this.repoRiskWeights = getTable(getValues(properties, "riskWeight.repo", numberOfBuckets, source),
+                getValues(properties, "riskWeight.repo.other", 1, source)[0]);
+
+        double[] rateTenors = RiskFactorRegistry.getRateTenors();
+        this.rateRiskWeights = getValues(properties, "rate.riskWeight", rateTenors.length, source);
+        double rateTheta = getValues(properties, "rate.correlation.theta", 1, source)[0];
+        double rateFloor = getValues(properties, "rate.correlation.floor", 1, source)[0];
+        double rateGamma = getValues(properties, "rate.interBucketCorrelation", 1, source)[0];
+
+        //rho and gamma of the medium scenario, the other scenarios are obtained by the transforms
+        double[] rho = getTable(getValues(properties, "intraBucketCorrelation", numberOfBuckets, source),
+                getValues(properties, "intraBucketCorrelation.other", 1, source)[0]);
+
+        double[][] gamma = new double[numberOfBuckets + 1][];
+        double[] otherGamma = getValues(properties, "interBucketCorrelation.other", numberOfBuckets + 1, source);
+        gamma[0] = getTable(Arrays.copyOf(otherGamma, numberOfBuckets), otherGamma[numberOfBuckets]);
+        for (int bucket = 1; bucket <= numberOfBuckets; bucket++) {
+            gamma[bucket] = getTable(getValues(properties, "interBucketCorrelation." + bucket, numberOfBuckets, source), otherGamma[bucket - 1]);
+        }
+
+        CorrelationScenario[] scenarios = CorrelationScenario.values();
+        this.intraBucketCorrelations = new double[scenarios.length][numberOfBuckets + 1];
+        this.curvatureIntraBucketCorrelations = new double[scenarios.length][numberOfBuckets + 1];
+        this.interBucketCorrelations = new double[scenarios.length][numberOfBuckets + 1][numberOfBuckets + 1];
+        this.curvatureInterBucketCorrelations = new double[scenarios.length][numberOfBuckets + 1][numberOfBuckets + 1];
+        for (CorrelationScenario scenario : scenarios) {
+            int s = scenario.ordinal();
+            for (int b = 0; b <= numberOfBuckets; b++) {
+                intraBucketCorrelations[s][b] = applyScenario(scenario, rho[b]);
+                curvatureIntraBucketCorrelations[s][b] = applyScenario(scenario, rho[b] * rho[b]);
+                for (int c = 0; c <= numberOfBuckets; c++) {
+                    interBucketCorrelations[s][b][c] = applyScenario(scenario, gamma[b][c]);
+                    curvatureInterBucketCorrelations[s][b][c] = applyScenario(scenario, gamma[b][c] * gamma[b][c]);
+                }
+            }
+        }
+
+        //Rates: rho_kl = max(exp(-theta |T_k - T_l| / min(T_k, T_l)), floor) between the tenors of a currency
+        this.rateCorrelations = new double[scenarios.length][rateTenors.length][rateTenors.length];
+        this.rateInterBucketCorrelations = new double[scenarios.length];
+        for (CorrelationScenario scenario : scenarios) {
+            int s = scenario.ordinal();
+            for (int k = 0; k < rateTenors.length; k++) {
+                for (int l = 0; l < rateTenors.length; l++) {
+                    double correlation = Math.max(Math.exp(-rateTheta * Math.abs(rateTenors[k] - rateTenors[l])
+                            / Math.min(rateTenors[k], rateTenors[l])), rateFloor);
+                    rateCorrelations[s][k][l] = applyScenario(scenario, correlation);
+                }
+            }
+            rateInterBucketCorrelations[s] = applyScenario(scenario, rateGamma);
+        }
+    }
+
+    //Parameters of the file shipped with the application (loaded once)
+    public static RegulatoryParameters getDefault() {
+        return DEFAULT;
+    }
+
+    public static RegulatoryParameters load(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return load(input, file.toString());
+        }
+    }
+
+    public static RegulatoryParameters load(InputStream input, String source) throws IOException {
+        Properties properties = new Properties();
+        properties.load(input);
+        return new RegulatoryParameters(properties, source);
+    }
+
+    private static RegulatoryParameters loadDefault() {
+        try (InputStream input = RegulatoryParameters.class.getClassLoader().getResourceAsStream(DEFAULT_RESOURCE)) {
+            if (input == null) {
+                throw new IllegalStateException("File dei parametri regolamentari non trovato: " + DEFAULT_RESOURCE);
+            }
+            return load(input, DEFAULT_RESOURCE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Errore nella lettura dei parametri regolamentari: " + DEFAULT_RESOURCE, e);
+        }
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public int getNumberOfBuckets() {
+        return numberOfBuckets;
+    }
+
+    //Correlation of the scenario from the medium (regulatory) one
+    public double applyScenario(CorrelationScenario scenario, double correlation) {
+        switch (scenario) {
+            case HIGH:
+                return Math.min(correlation * highMultiplier, highCap);
+            case LOW:
+                return Math.max(lowSlope * correlation + lowIntercept, lowMultiplier * correlation);
+            default:
+                return correlation;
+        }
+    }
+
+    public double getDeltaRiskWeight(int bucket) {
+        return deltaRiskWeights[getIndex(bucket)];
+    }
+
+    public double getVegaRiskWeight(int bucket) {
+        return vegaRiskWeights[getIndex(bucket)];
+    }
+
+    public double getRepoRiskWeight(int bucket) {
+        return repoRiskWeights[getIndex(bucket)];
+    }
+
+    //Risk weight of the rate at the tenor with the given index in RiskFactorRegistry.getRateTenors()
+    public double getRateRiskWeight(int tenorIndex) {
+        return rateRiskWeights[tenorIndex];
+    }
+
+    //Correlation of the rates of a currency at two tenors
+    public double getRateCorrelation(int tenorIndexA, int tenorIndexB, CorrelationScenario scenario) {
+        return rateCorrelations[scenario.ordinal()][tenorIndexA][tenorIndexB];
+    }
+
+    //Correlation of the rates of two currencies
+    public double getRateInterBucketCorrelation(CorrelationScenario scenario) {
+        return rateInterBucketCorrelations[scenario.ordinal()];
+    }
+
+    public double getIntraBucketCorrelation(int bucket, CorrelationScenario scenario) {
+        return intraBucketCorrelations[scenario.ordinal()][getIndex(bucket)];
+    }
+
+    public double getInterBucketCorrelation(int bucketA, int bucketB, CorrelationScenario scenario) {
+        return interBucketCorrelations[scenario.ordinal()][getIndex(bucketA)][getIndex(bucketB)];
+    }
+
+    //Curvature: scenario transform of the squared medium correlation
+    public double getCurvatureIntraBucketCorrelation(int bucket, CorrelationScenario scenario) {
+        return curvatureIntraBucketCorrelations[scenario.ordinal()][getIndex(bucket)];
+    }
+
+    public double getCurvatureInterBucketCorrelation(int bucketA, int bucketB, CorrelationScenario scenario) {
+        return curvatureInterBucketCorrelations[scenario.ordinal()][getIndex(bucketA)][getIndex(bucketB)];
+    }
+
+    private int getIndex(int bucket) {
+        return bucket >= 1 && bucket <= numberOfBuckets ? bucket : 0;
+    }
+
+    //Table indexed by bucket from the values of the buckets 1 ... n, with the value of the other buckets at index 0
+    private static double[] getTable(double[] values, double otherValue) {
+        double[] table = new double[values.length + 1];
+        table[0] = otherValue;
+        System.arraycopy(values, 0, table, 1, values.length);
+        return table;
+    }
+
+    private static String getString(Properties properties, String key, String source) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Parametro mancante in " + source + ": " + key);
+        }
+        return value.trim();
+    }
+
+    private static double[] getValues(Properties properties, String key, int numberOfValues, String source) {
+        String[] fields = getString(properties, key, source).split(",");
+        if (fields.length != numberOfValues) {
+            throw new IllegalArgumentException("Il parametro " + key + " in " + source + " deve avere " + numberOfValues
+                    + " valori, trovati " + fields.length);
+        }
+
+        double[] values = new double[numberOfValues];
+        for (int i = 0; i < numberOfValues; i++) {
+            try {
+                values[i] = Double.parseDouble(fields[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Valore non numerico del parametro " + key + " in " + source + ": " + fields[i], e);
+            }
+        }
+        return values;
+    }
+}
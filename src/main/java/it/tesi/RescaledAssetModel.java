@@ -0,0 +1,180 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.montecarlo.BrownianMotion;
+import net.finmath.montecarlo.assetderivativevaluation.AssetModelMonteCarloSimulationModel;
+import net.finmath.stochastic.RandomVariable;
+import net.finmath.time.TimeDiscretization;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+// View on a simulated Black-Scholes model whose asset paths and numeraire are rescaled as
+//
+//     S'(t) = S(t) * scale * exp((rateShift - repoRate) * t) * exp(volatilityShift * (W(t) - sigma * t))
+//     N'(t) = N(t) * exp(rateShift * t)
+//
+// Under Black-Scholes the paths are linear in the initial value, so a scale of (1 + h) is the same as
+// simulating from S(0) * (1 + h). The volatility shift is the first order effect of a volatility bump:
+// dS(t)/dsigma = S(t) * (W(t) - sigma * t). A shift of the rate moves drift and numeraire together, the repo rate
+// (dividend yield) only the drift. With scale = 1, rateShift = 0, repoRate = q and volatilityShift = 0 created as
+// AAD inputs, their gradients are S(0) * dV/dS(0), dV/dr, dV/dq and dV/dsigma for the product priced on this view
+// only, even if the underlying simulation is shared with other products. A null shift or repo rate is not applied.
+public class RescaledAssetModel implements AssetModelMonteCarloSimulationModel {
+
+    private final AssetModelMonteCarloSimulationModel model;
+    private final RandomVariable scale;
+    private final RandomVariable rateShift;
+    private final RandomVariable repoRate;
+    private final RandomVariable volatilityShift;
+    private final BrownianMotion brownianMotion;
+    private final double volatility;
+
+    private RandomVariable[] brownianPaths;
+
+
+    public RescaledAssetModel(AssetModelMonteCarloSimulationModel model, RandomVariable scale) {
+        this(model, scale, null);
+    }
+
+    public RescaledAssetModel(AssetModelMonteCarloSimulationModel model, RandomVariable scale, RandomVariable repoRate) {
+        this(model, scale, null, repoRate, null, null, 0.0);
+    }
+
+    public RescaledAssetModel(AssetModelMonteCarloSimulationModel model, RandomVariable scale,
+                              RandomVariable volatilityShift, BrownianMotion brownianMotion, double volatility) {
+        this(model, scale, null, null, volatilityShift, brownianMotion, volatility);
+    }
+
+    public RescaledAssetModel(AssetModelMonteCarloSimulationModel model, RandomVariable scale, RandomVariable rateShift, RandomVariable repoRate,
+                              RandomVariable volatilityShift, BrownianMotion brownianMotion, double volatility) {
+        this.model = model;
+        this.scale = scale;
+        this.rateShift = rateShift;
+        this.repoRate = repoRate;
+        this.volatilityShift = volatilityShift;
+        this.brownianMotion = brownianMotion;
+        this.volatility = volatility;
+    }
+
+    @Override
+    public RandomVariable getAssetValue(int timeIndex, int assetIndex) throws CalculationException {
+        RandomVariable value = model.getAssetValue(timeIndex, assetIndex).mult(scale);
+
+        RandomVariable carry = getCarry();
+        if (carry != null) {
+            value = value.mult(carry.mult(getTime(timeIndex)).exp());
+        }
+
+        if (volatilityShift != null) {
+            RandomVariable exponent = getBrownianPath(timeIndex).sub(volatility * getTime(timeIndex));
+            value = value.mult(exponent.mult(volatilityShift).exp());
+        }
+
+        return value;
+    }
+
+    @Override
+    public RandomVariable getAssetValue(double time, int assetIndex) throws CalculationException {
+        int timeIndex = getTimeIndex(time);
+        if (timeIndex < 0) {
+            throw new IllegalArgumentException("Il tempo " + time + " non appartiene alla discretizzazione temporale.");
+        }
+        return getAssetValue(timeIndex, assetIndex);
+    }
+
+    //rateShift - repoRate (null if neither is applied)
+    private RandomVariable getCarry() {
+        if (repoRate == null) {
+            return rateShift;
+        }
+        return rateShift != null ? rateShift.sub(repoRate) : repoRate.mult(-1.0);
+    }
+
+    //W(t) at the given time index, accumulated from the Brownian increments only for the times requested by the product
+    private synchronized RandomVariable getBrownianPath(int timeIndex) {
+        if (brownianPaths == null) {
+            brownianPaths = new RandomVariable[getTimeDiscretization().getNumberOfTimes()];
+        }
+        if (brownianPaths[timeIndex] == null) {
+            RandomVariable brownianPath = brownianMotion.getRandomVariableForConstant(0.0);
+            for (int i = 0; i < timeIndex; i++) {
+                brownianPath = brownianPath.add(brownianMotion.getBrownianIncrement(i, 0));
+            }
+            brownianPaths[timeIndex] = brownianPath;
+        }
+        return brownianPaths[timeIndex];
+    }
+
+    @Override
+    public int getNumberOfAssets() {
+        return model.getNumberOfAssets();
+    }
+
+    @Override
+    public RandomVariable getNumeraire(int timeIndex) throws CalculationException {
+        RandomVariable numeraire = model.getNumeraire(timeIndex);
+        return rateShift != null ? numeraire.mult(rateShift.mult(getTime(timeIndex)).exp()) : numeraire;
+    }
+
+    @Override
+    public RandomVariable getNumeraire(double time) throws CalculationException {
+        RandomVariable numeraire = model.getNumeraire(time);
+        return rateShift != null ? numeraire.mult(rateShift.mult(time).exp()) : numeraire;
+    }
+
+    @Override
+    public RandomVariable getMonteCarloWeights(int timeIndex) throws CalculationException {
+        return model.getMonteCarloWeights(timeIndex);
+    }
+
+    @Override
+    public RandomVariable getMonteCarloWeights(double time) throws CalculationException {
+        return model.getMonteCarloWeights(time);
+    }
+
+    @Override
+    public int getNumberOfPaths() {
+        return model.getNumberOfPaths();
+    }
+
+    @Override
+    public LocalDateTime getReferenceDate() {
+        return model.getReferenceDate();
+    }
+
+    @Override
+    public TimeDiscretization getTimeDiscretization() {
+        return model.getTimeDiscretization();
+    }
+
+    @Override
+    public double getTime(int timeIndex) {
+        return model.getTime(timeIndex);
+    }
+
+    @Override
+    public int getTimeIndex(double time) {
+        return model.getTimeIndex(time);
+    }
+
+    @Override
+    public RandomVariable getRandomVariableForConstant(double value) {
+        return model.getRandomVariableForConstant(value);
+    }
+
+    //A modified "volatility" of the base model is also the sigma of the volatility shift
+    @Override
+    public AssetModelMonteCarloSimulationModel getCloneWithModifiedData(Map<String, Object> dataModified) throws CalculationException {
+        Object modifiedVolatility = dataModified.get("volatility");
+        double newVolatility = modifiedVolatility instanceof Number ? ((Number) modifiedVolatility).doubleValue() : volatility;
+        return new RescaledAssetModel(model.getCloneWithModifiedData(dataModified), scale, rateShift, repoRate, volatilityShift, brownianMotion, newVolatility);
+    }
+
+    //The Brownian motion of the volatility shift is cloned with the same seed, so W(t) stays the driver of the cloned paths
+    @Override
+    public AssetModelMonteCarloSimulationModel getCloneWithModifiedSeed(int seed) throws CalculationException {
+        BrownianMotion clonedBrownianMotion = brownianMotion != null ? brownianMotion.getCloneWithModifiedSeed(seed) : null;
+        return new RescaledAssetModel(model.getCloneWithModifiedSeed(seed), scale, rateShift, repoRate, volatilityShift, clonedBrownianMotion, volatility);
+    }
+}
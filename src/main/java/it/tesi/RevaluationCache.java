@@ -0,0 +1,285 @@
+package it.tesi;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Results of pricings and curvature revaluations stored on local disk between runs, one file per key.
+//The key is the SHA-256 of the pricing terms of the trade, of the market data (spot, volatility, rate, repo rate), of the
+//shocked prices and of the configuration of the engine, so a changed input is a different key and stale entries
+//are never read. The total size of the files is bounded: the least recently used entries are deleted first.
+public class RevaluationCache {
+
+    private static final String EXTENSION = ".bin";
+    private static final int RESULT_VALUES = 8;
+    private static final int NUMBER_OF_TENORS = VolatilityInterpolator.getRegulatoryTenors().length;
+
+    private final Path directory;
+    private final long maximumSize;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    //Total size of the files and whether an eviction is running, guarded by this
+    private long size;
+    private boolean evicting;
+
+
+    public RevaluationCache(Path directory, long maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("La dimensione massima della cache deve essere positiva: " + maximumSize);
+        }
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+
+        try {
+            Files.createDirectories(directory);
+            for (Path file : getFiles()) {
+                size += Files.size(file);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cartella della cache non utilizzabile: " + directory, e);
+        }
+    }
+
+    //Key of the greeks of a trade priced by the given engine
+    public static String getResultKey(PricingEngine engine, Trade trade) {
+        return getKey("result", engine.getConfiguration(), getTradeTerms(trade));
+    }
+
+    //Key of the values of a trade for the given underlying prices (curvature scenarios)
+    public static String getValuesKey(PricingEngine engine, Trade trade, double[] underlyingPrices) {
+        return getKey("values", engine.getConfiguration(), getTradeTerms(trade), Arrays.toString(underlyingPrices));
+    }
+
+    //Fields of the trade used by the engines: product, terms, market data and bucket (tolerances of the paths)
+    private static String getTradeTerms(Trade trade) {
+        return String.join("|",
+                trade.getAssetType(), trade.getOptionStyle(), Double.toString(trade.getOptionType()),
+                Arrays.toString(trade.getStrikes()), Double.toString(trade.getMaturity()), Arrays.toString(trade.getExerciseDates()),
+                Double.toString(trade.getUnderlyingPrice()), Double.toString(trade.getVolatility()), Double.toString(trade.getRiskFreeRate()),
+                Double.toString(trade.getRepoRate()), Integer.toString(trade.getBucket()));
+    }
+
+    private static String getKey(String... parts) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(String.join("\n", parts).getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile.", e);
+        }
+    }
+
+    //Cached result, null on a miss. The entries hold value, delta, vega, rate and repo delta, the standard errors and,
+    //if computed by the engine, the vega of the tenors (entries of other lengths are from older versions: misses)
+    public PricingResult getResult(String key) {
+        Entry entry = read(key);
+        if (entry == null || (entry.values.length != RESULT_VALUES && entry.values.length != RESULT_VALUES + NUMBER_OF_TENORS)) {
+            return null;
+        }
+        double[] v = entry.values;
+        double[] vegaByTenor = v.length > RESULT_VALUES ? Arrays.copyOfRange(v, RESULT_VALUES, v.length) : null;
+        return new PricingResult(v[0], v[1], v[2], vegaByTenor, v[3], v[4], v[5], v[6], v[7], entry.details);
+    }
+
+    public void putResult(String key, PricingResult result) {
+        double[] values = {
+                result.getValue(), result.getDelta(), result.getVega(), result.getRateDelta(), result.getRepoDelta(),
+                result.getValueStandardError(), result.getDeltaStandardError(), result.getVegaStandardError()
+        };
+        if (result.getVegaByTenor() != null) {
+            values = Arrays.copyOf(values, RESULT_VALUES + NUMBER_OF_TENORS);
+            System.arraycopy(result.getVegaByTenor(), 0, values, RESULT_VALUES, NUMBER_OF_TENORS);
+        }
+        write(key, values, result.getDetails());
+    }
+
+    //Cached values, null on a miss
+    public double[] getValues(String key) {
+        Entry entry = read(key);
+        return entry != null ? entry.values : null;
+    }
+
+    public void putValues(String key, double[] values) {
+        write(key, values, "");
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    //A hit marks the file as recently used. An unreadable entry is deleted and counted as a miss.
+    //No lock is held: an entry is replaced only by an atomic move and a file deleted by an eviction is a miss.
+    private Entry read(String key) {
+        Path file = directory.resolve(key + EXTENSION);
+        Entry entry;
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+            double[] values = new double[input.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = input.readDouble();
+            }
+            entry = new Entry(values, input.readUTF());
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Voce della cache non leggibile, verrà ricalcolata: " + file + " (" + e.getMessage() + ")");
+            long fileSize = getSize(file);
+            if (delete(file) && addSize(-fileSize)) {
+                evict();
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            //Evicted in the meantime: the entry read is still valid
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    //Written to a temporary file and moved, so that other threads and runs never read a partial entry. Only the size is
+    //updated under the lock. A failed write only costs the revaluation in the next run.
+    private void write(String key, double[] values, String details) {
+        Path file = directory.resolve(key + EXTENSION);
+        long sizeChange;
+        try {
+            Path temporaryFile = Files.createTempFile(directory, key, ".tmp");
+            try (OutputStream stream = Files.newOutputStream(temporaryFile); DataOutputStream output = new DataOutputStream(stream)) {
+                output.writeInt(values.length);
+                for (double value : values) {
+                    output.writeDouble(value);
+                }
+                output.writeUTF(details);
+            }
+
+            sizeChange = Files.size(temporaryFile) - getSize(file);
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Errore nella scrittura della cache: " + e.getMessage());
+            return;
+        }
+
+        if (addSize(sizeChange)) {
+            evict();
+        }
+    }
+
+    //Updates the size, true if the caller has to evict (one eviction at a time)
+    private synchronized boolean addSize(long sizeChange) {
+        size += sizeChange;
+        if (size > maximumSize && !evicting) {
+            evicting = true;
+            return true;
+        }
+        return false;
+    }
+
+    //Deletes the least recently used files until the cache is within its maximum size. The files are listed without
+    //the lock, the size is then corrected by the difference to the files on disk (e.g. written by other runs) and by
+    //the deleted files, keeping the changes of the writes made in the meantime.
+    private void evict() {
+        long recordedSize;
+        synchronized (this) {
+            recordedSize = size;
+        }
+
+        long sizeChange = 0;
+        try {
+            List<Path> files = getFiles();
+            files.sort(Comparator.comparing(RevaluationCache::getLastModifiedTime));
+            long diskSize = 0;
+            for (Path file : files) {
+                diskSize += getSize(file);
+            }
+            sizeChange = diskSize - recordedSize;
+            for (int i = 0; i < files.size() && diskSize > maximumSize; i++) {
+                long fileSize = getSize(files.get(i));
+                if (delete(files.get(i))) {
+                    diskSize -= fileSize;
+                    sizeChange -= fileSize;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nella pulizia della cache: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                size += sizeChange;
+                evicting = false;
+            }
+        }
+    }
+
+    private List<Path> getFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    //Size of the file, 0 if it does not exist (anymore)
+    private static long getSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime getLastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    //Content of a file: values and details of the result
+    private static final class Entry {
+        private final double[] values;
+        private final String details;
+
+        private Entry(double[] values, String details) {
+            this.values = values;
+            this.details = details;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package it.tesi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+//Risk factors of the run mapped to compact int ids, assigned once per (type, underlying, tenor index): the trades,
+//the sensitivity stores and the curvature grouping carry the ids, and the names ("Spot-X", "Repo-X", "ImpliedVol-X-1.0Y",
+//"Rate-USD-2.00Y", the rate risk factors have the currency in place of the underlying) are
+//formatted once, when the risk factor is first seen, and only used for the output and the map based API.
+//The implied volatilities of an underlying and the rates of a currency are registered together, with consecutive ids
+//in tenor order: the trades carry the first id and reach tenor k as id + k, without looking the names up again.
+//A name is always mapped to the same id, also when it is registered first by name (getId): the names of the typed
+//risk factors are registered by type. Shared by the threads of the run (synchronized, the ids are never removed).
+public class RiskFactorRegistry {
+
+    public enum Type {
+        SPOT,
+        //Repo rate (dividend yield) of the underlying
+        REPO,
+        IMPLIED_VOLATILITY,
+        //Risk free rate of a currency at a tenor of getRateTenors()
+        RATE,
+        //Risk factors known only by name (map based API, external files)
+        OTHER
+    }
+
+    private static final RiskFactorRegistry DEFAULT = new RiskFactorRegistry();
+
+    //Tenors of the interest rate risk factors (years)
+    private static final double[] RATE_TENORS = {0.25, 0.5, 1.0, 2.0, 3.0, 5.0, 10.0, 15.0, 20.0, 30.0};
+    private static final int VOLATILITY_TENORS = VolatilityInterpolator.getRegulatoryTenors().length;
+
+    private final Map<String, Integer> idsByName = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<Type> types = new ArrayList<>();
+    private final List<String> underlyings = new ArrayList<>();
+    private final List<Integer> tenorIndices = new ArrayList<>();
+
+    //[underlying code][0 = spot, 1 = repo, 2 + tenor index = implied volatility, 2 + VOLATILITY_TENORS + tenor index = rate]
+    //-> id + 1 (0 = not registered yet). The currencies of the rates have their own codes in the same table.
+    private final Map<String, Integer> underlyingCodes = new HashMap<>();
+    private int[][] idsByUnderlying = new int[16][];
+    //Bucket of the rate risk factors of each currency: 1, 2, ... in order of registration
+    private final Map<String, Integer> currencyBuckets = new HashMap<>();
+
+
+    //Registry shared by the parser, the stores and the aggregation
+    public static RiskFactorRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    //Tenors of the rate risk factors (years)
+    public static double[] getRateTenors() {
+        return RATE_TENORS.clone();
+    }
+
+    public synchronized int getSpotId(String underlying) {
+        return getId(underlying, Type.SPOT, -1);
+    }
+
+    public synchronized int getRepoId(String underlying) {
+        return getId(underlying, Type.REPO, -1);
+    }
+
+    //Rate of the currency at the tenor with the given index in getRateTenors()
+    public synchronized int getRateId(String currency, int tenorIndex) {
+        if (tenorIndex < 0 || tenorIndex >= RATE_TENORS.length) {
+            throw new IllegalArgumentException("Indice del tenor dei tassi non valido: " + tenorIndex);
+        }
+        return getId(currency, Type.RATE, tenorIndex);
+    }
+
+    //Id of the rate of the currency at the first tenor of getRateTenors(): the rate at tenor k is this id + k
+    public synchronized int getRateTenorsId(String currency) {
+        return getId(currency, Type.RATE, 0);
+    }
+
+    //Bucket of the rate risk factors of the currency (one bucket per currency)
+    public synchronized int getCurrencyBucket(String currency) {
+        return currencyBuckets.computeIfAbsent(currency, key -> currencyBuckets.size() + 1);
+    }
+
+    //Repo, implied volatility tenors and rate tenors registered with a trade of the asset type, with the bucket of the
+    //rates: none for the stocks (and a null asset type), no rates without a currency. The same rule for every source
+    //of trades (SimpleTrade, the parser and the snapshot).
+    public synchronized TradeRiskFactors getTradeRiskFactors(String assetType, String underlying, String currency) {
+        if (assetType == null || assetType.equalsIgnoreCase("Stock")) {
+            return TradeRiskFactors.NONE;
+        }
+        int repoId = getRepoId(underlying);
+        int volatilityTenorsId = getImpliedVolatilityTenorsId(underlying);
+        if (currency == null) {
+            return new TradeRiskFactors(repoId, volatilityTenorsId, -1, -1);
+        }
+        return new TradeRiskFactors(repoId, volatilityTenorsId, getRateTenorsId(currency), getCurrencyBucket(currency));
+    }
+
+    //Implied volatility of the underlying at the regulatory tenor nearest to the maturity
+    public synchronized int getImpliedVolatilityId(String underlying, double maturity) {
+        return getId(underlying, Type.IMPLIED_VOLATILITY, VolatilityInterpolator.getNearestRegulatoryTenorIndex(maturity));
+    }
+
+    //Implied volatility of the underlying at the tenor with the given index in VolatilityInterpolator.getRegulatoryTenors()
+    public synchronized int getImpliedVolatilityTenorId(String underlying, int tenorIndex) {
+        if (tenorIndex < 0 || tenorIndex >= VolatilityInterpolator.getRegulatoryTenors().length) {
+            throw new IllegalArgumentException("Indice del tenor non valido: " + tenorIndex);
+        }
+        return getId(underlying, Type.IMPLIED_VOLATILITY, tenorIndex);
+    }
+
+    //Id of the implied volatility of the underlying at the first regulatory tenor: tenor k is this id + k
+    public synchronized int getImpliedVolatilityTenorsId(String underlying) {
+        return getId(underlying, Type.IMPLIED_VOLATILITY, 0);
+    }
+
+    //Id of a risk factor given by name (-1 for null). The names of spot, repo, implied volatility and rate risk factors
+    //are registered by type, the other ones as OTHER.
+    public synchronized int getId(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = idsByName.get(name);
+        if (id != null) {
+            return id;
+        }
+        int typedId = getTypedId(name);
+        return typedId >= 0 ? typedId : add(name, Type.OTHER, null, -1);
+    }
+
+    public synchronized String getName(int id) {
+        return names.get(id);
+    }
+
+    public synchronized Type getType(int id) {
+        return types.get(id);
+    }
+
+    //Underlying of the spot, repo and implied volatility risk factors, currency of the rates (null for the other ones)
+    public synchronized String getUnderlying(int id) {
+        return underlyings.get(id);
+    }
+
+    //Index in VolatilityInterpolator.getRegulatoryTenors() of the implied volatility risk factors, in getRateTenors()
+    //of the rates (-1 for the other ones)
+    public synchronized int getTenorIndex(int id) {
+        return tenorIndices.get(id);
+    }
+
+    public synchronized int size() {
+        return names.size();
+    }
+
+    private int getId(String underlying, Type type, int tenorIndex) {
+        Integer code = underlyingCodes.get(underlying);
+        if (code == null) {
+            code = underlyingCodes.size();
+            underlyingCodes.put(underlying, code);
+            if (code == idsByUnderlying.length) {
+                idsByUnderlying = Arrays.copyOf(idsByUnderlying, 2 * code);
+            }
+            idsByUnderlying[code] = new int[2 + VOLATILITY_TENORS + RATE_TENORS.length];
+        }
+
+        int slot = getSlot(type, tenorIndex);
+        int id = idsByUnderlying[code][slot] - 1;
+        if (id < 0) {
+            //The whole block of tenors of the type is added at once, with consecutive ids
+            int numberOfTenors = getNumberOfTenors(type);
+            int firstSlot = slot - Math.max(tenorIndex, 0);
+            for (int k = 0; k < numberOfTenors; k++) {
+                int blockTenorIndex = numberOfTenors > 1 ? k : tenorIndex;
+                idsByUnderlying[code][firstSlot + k] = add(getName(underlying, type, blockTenorIndex), type, underlying, blockTenorIndex) + 1;
+            }
+            id = idsByUnderlying[code][slot] - 1;
+        }
+        return id;
+    }
+
+    //Registers a name of a typed risk factor by type (-1 if the name is not of one of the types)
+    private int getTypedId(String name) {
+        if (name.startsWith("Spot-")) {
+            return getId(name.substring(5), Type.SPOT, -1);
+        }
+        if (name.startsWith("Repo-")) {
+            return getId(name.substring(5), Type.REPO, -1);
+        }
+        int separator = name.lastIndexOf('-');
+        if (name.startsWith("ImpliedVol-") && separator > 11) {
+            String underlying = name.substring(11, separator);
+            for (int k = 0; k < VOLATILITY_TENORS; k++) {
+                if (getName(underlying, Type.IMPLIED_VOLATILITY, k).equals(name)) {
+                    return getId(underlying, Type.IMPLIED_VOLATILITY, k);
+                }
+            }
+        }
+        if (name.startsWith("Rate-") && separator > 5) {
+            String currency = name.substring(5, separator);
+            for (int k = 0; k < RATE_TENORS.length; k++) {
+                if (getName(currency, Type.RATE, k).equals(name)) {
+                    return getId(currency, Type.RATE, k);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int getNumberOfTenors(Type type) {
+        switch (type) {
+            case IMPLIED_VOLATILITY:
+                return VOLATILITY_TENORS;
+            case RATE:
+                return RATE_TENORS.length;
+            default:
+                return 1;
+        }
+    }
+
+    private static int getSlot(Type type, int tenorIndex) {
+        switch (type) {
+            case SPOT:
+                return 0;
+            case REPO:
+                return 1;
+            case IMPLIED_VOLATILITY:
+                return 2 + tenorIndex;
+            default:
+                return 2 + VOLATILITY_TENORS + tenorIndex;
+        }
+    }
+
+    private static String getName(String underlying, Type type, int tenorIndex) {
+        switch (type) {
+            case SPOT:
+                return "Spot-" + underlying;
+            case REPO:
+                return "Repo-" + underlying;
+            case IMPLIED_VOLATILITY:
+                return String.format(Locale.US, "ImpliedVol-%s-%.1fY", underlying, VolatilityInterpolator.getRegulatoryTenors()[tenorIndex]);
+            default:
+                return String.format(Locale.US, "Rate-%s-%.2fY", underlying, RATE_TENORS[tenorIndex]);
+        }
+    }
+
+    private int add(String name, Type type, String underlying, int tenorIndex) {
+        int id = names.size();
+        idsByName.put(name, id);
+        names.add(name);
+        types.add(type);
+        underlyings.add(underlying);
+        tenorIndices.add(tenorIndex);
+        return id;
+    }
+
+    //Risk factor ids carried by a trade besides delta and vega (-1 = none), see getTradeRiskFactors
+    public static final class TradeRiskFactors {
+        static final TradeRiskFactors NONE = new TradeRiskFactors(-1, -1, -1, -1);
+
+        private final int repoId;
+        private final int volatilityTenorsId;
+        private final int rateTenorsId;
+        private final int rateBucket;
+
+        private TradeRiskFactors(int repoId, int volatilityTenorsId, int rateTenorsId, int rateBucket) {
+            this.repoId = repoId;
+            this.volatilityTenorsId = volatilityTenorsId;
+            this.rateTenorsId = rateTenorsId;
+            this.rateBucket = rateBucket;
+        }
+
+        public int getRepoId() {
+            return repoId;
+        }
+
+        //Implied volatility at the first regulatory tenor (tenor k: id + k)
+        public int getVolatilityTenorsId() {
+            return volatilityTenorsId;
+        }
+
+        //Rate at the first tenor of getRateTenors() (tenor k: id + k)
+        public int getRateTenorsId() {
+            return rateTenorsId;
+        }
+
+        public int getRateBucket() {
+            return rateBucket;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package it.tesi;
+
+//Plain loops, used when the Vector API is not available
+public class ScalarQuadraticFormKernel implements QuadraticFormKernel {
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    @Override
+    public double sum(double[] x, int from, int to) {
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += x[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfSquares(double[] x, int from, int to) {
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += x[i] * x[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfPositive(double[] x, int from, int to) {
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += Math.max(x[i], 0);
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfPositiveSquares(double[] x, int from, int to) {
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            double positive = Math.max(x[i], 0);
+            sum += positive * positive;
+        }
+        return sum;
+    }
+
+    @Override
+    public double sumOfTenorProducts(double[] tenors, double[] a, int n) {
+        double sum = 0.0;
+        for (int t = 0; t < n; t++) {
+            double scale = -0.01 / tenors[t];
+            double crossTerm = 0.0;
+            for (int u = t + 1; u < n; u++) {
+                crossTerm += Math.exp(scale * (tenors[u] - tenors[t])) * a[u];
+            }
+            sum += a[t] * crossTerm;
+        }
+        return sum;
+    }
+}
@@ -1,61 +1,150 @@
 package it.tesi;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class SensitivityAggregator {
 
-    // Risk weight map for each bucket (for delta and vega)
-	private static final Map<Integer, Double[]> RISK_WEIGHTS = new HashMap<>();
-
-	static {
-	    //{Bucket, {Delta weight, Vega weight}}
-	    RISK_WEIGHTS.put(1, new Double[]{0.55, 0.7778});
-	    RISK_WEIGHTS.put(2, new Double[]{0.60, 0.7778});
-	    RISK_WEIGHTS.put(3, new Double[]{0.45, 0.7778});
-	    RISK_WEIGHTS.put(4, new Double[]{0.55, 0.7778});
-	    RISK_WEIGHTS.put(5, new Double[]{0.30, 0.7778});
-	    RISK_WEIGHTS.put(6, new Double[]{0.35, 0.7778});
-	    RISK_WEIGHTS.put(7, new Double[]{0.40, 0.7778});
-	    RISK_WEIGHTS.put(8, new Double[]{0.50, 0.7778});
-	    RISK_WEIGHTS.put(9, new Double[]{0.70, 1.0});
-	    RISK_WEIGHTS.put(10, new Double[]{0.50, 1.0});
-	    RISK_WEIGHTS.put(11, new Double[]{0.70, 1.0});
-	    RISK_WEIGHTS.put(12, new Double[]{0.15, 0.7778});
-	    RISK_WEIGHTS.put(13, new Double[]{0.25, 0.7778});
-	}
+    //Regulatory parameters used by the aggregation, replaced at runtime by setParameters (e.g. a new calibration).
+    //Every aggregation reads them once, so a swap never mixes two parameter sets in one result.
+    private static final AtomicReference<RegulatoryParameters> PARAMETERS = new AtomicReference<>(RegulatoryParameters.getDefault());
+
+    //Reductions of the intra-bucket aggregation: Vector API if available, plain loops otherwise
+    private static volatile QuadraticFormKernel quadraticFormKernel = QuadraticFormKernel.getDefault();
+
+    //Risk factors of the net vega: nearest tenor of the maturity or the tenor nodes of the term structure
+    private static volatile VegaAllocation vegaAllocation = VegaAllocation.NEAREST_TENOR;
+
+    public static RegulatoryParameters getParameters() {
+        return PARAMETERS.get();
+    }
+
+    public static void setParameters(RegulatoryParameters parameters) {
+        PARAMETERS.set(Objects.requireNonNull(parameters));
+    }
 
+    //{Delta weight, Vega weight} of the buckets of the current parameters
     public static Map<Integer, Double[]> getRiskWeights() {
-        return RISK_WEIGHTS;
+        RegulatoryParameters parameters = PARAMETERS.get();
+        Map<Integer, Double[]> riskWeights = new HashMap<>();
+        for (int bucket = 1; bucket <= parameters.getNumberOfBuckets(); bucket++) {
+            riskWeights.put(bucket, new Double[]{parameters.getDeltaRiskWeight(bucket), parameters.getVegaRiskWeight(bucket)});
+        }
+        return riskWeights;
+    }
+
+    public static QuadraticFormKernel getQuadraticFormKernel() {
+        return quadraticFormKernel;
+    }
+
+    public static void setQuadraticFormKernel(QuadraticFormKernel quadraticFormKernel) {
+        SensitivityAggregator.quadraticFormKernel = quadraticFormKernel;
+    }
+
+    public static VegaAllocation getVegaAllocation() {
+        return vegaAllocation;
+    }
+
+    public static void setVegaAllocation(VegaAllocation vegaAllocation) {
+        SensitivityAggregator.vegaAllocation = Objects.requireNonNull(vegaAllocation);
     }
 
 
     //Net sensitivities delta
     public static Map<String, Map<Integer, Double>> calculateNetSensitivitiesDelta(List<Trade> trades) {
-        return trades.stream()
-                .collect(Collectors.groupingBy(
-                        Trade::getRiskFactorDelta,
-                                Collectors.groupingBy(
-                                        Trade::getBucket,
-                                        Collectors.summingDouble(Trade::getDelta)
-                                )
-                        )
-                );
+        return calculateNetSensitivityStoreDelta(trades).toMap(SensitivityStore.SENSITIVITY);
+    }
+
+    //Net sensitivities delta: one row per (risk factor, bucket)
+    public static SensitivityStore calculateNetSensitivityStoreDelta(List<Trade> trades) {
+        SensitivityStore store = new SensitivityStore(2);
+        for (Trade trade : trades) {
+            addNetSensitivityDelta(store, trade);
+        }
+        return store;
+    }
+
+    public static void addNetSensitivityDelta(SensitivityStore store, Trade trade) {
+        store.add(store.getRow(trade.getRiskFactorDeltaId(), trade.getBucket()), SensitivityStore.SENSITIVITY, trade.getDelta());
     }
 
     
     //Net sensitivities vega
     public static Map<String, Map<Integer, Double>> calculateNetSensitivitiesVega(List<Trade> trades) {
-        return trades.stream()
-        		.filter(trade -> trade.getAssetType() != null && !"STOCK".equalsIgnoreCase(trade.getAssetType()))
-                .collect(Collectors.groupingBy(
-                        Trade::getRiskFactorVega,
-                                Collectors.groupingBy(
-                                        Trade::getBucket,
-                                        Collectors.summingDouble(Trade::getVega) // Somma i valori di Vega
-                                )
-                        )
-                );
+        return calculateNetSensitivityStoreVega(trades).toMap(SensitivityStore.SENSITIVITY);
+    }
+
+    //Net sensitivities vega, with the maturity of the options of each row (used by the intra-bucket aggregation)
+    public static SensitivityStore calculateNetSensitivityStoreVega(List<Trade> trades) {
+        SensitivityStore store = new SensitivityStore(2);
+        for (Trade trade : trades) {
+            addNetSensitivityVega(store, trade);
+        }
+        return store;
+    }
+
+    //Adds the vega of the trade (options only) to its row, with the maturity of the trade; with the TENOR_NODES
+    //allocation the vega of each tenor goes to the row of that tenor, with the tenor as maturity
+    public static void addNetSensitivityVega(SensitivityStore store, Trade trade) {
+        if (trade.getAssetType() != null && !"STOCK".equalsIgnoreCase(trade.getAssetType())) {
+            double[] vegaByTenor = trade.getVegaByTenor();
+            if (vegaAllocation == VegaAllocation.TENOR_NODES && vegaByTenor != null) {
+                double[] tenors = VolatilityInterpolator.getRegulatoryTenors();
+                for (int k = 0; k < tenors.length; k++) {
+                    if (vegaByTenor[k] != 0.0) {
+                        int row = store.getRow(trade.getRiskFactorVegaTenorsId() + k, trade.getBucket());
+                        store.add(row, SensitivityStore.SENSITIVITY, vegaByTenor[k]);
+                        store.set(row, SensitivityStore.MATURITY, tenors[k]);
+                    }
+                }
+                return;
+            }
+
+            int row = store.getRow(trade.getRiskFactorVegaId(), trade.getBucket());
+            store.add(row, SensitivityStore.SENSITIVITY, trade.getVega()); // Somma i valori di Vega
+            store.set(row, SensitivityStore.MATURITY, trade.getMaturity());
+        }
+    }
+
+
+    //Net sensitivities repo: repo delta (dV/dq) of the options on the repo rate of the underlying, in the equity bucket
+    public static SensitivityStore calculateNetSensitivityStoreRepo(List<Trade> trades) {
+        SensitivityStore store = new SensitivityStore(2);
+        for (Trade trade : trades) {
+            addNetSensitivityRepo(store, trade);
+        }
+        return store;
+    }
+
+    public static void addNetSensitivityRepo(SensitivityStore store, Trade trade) {
+        if (trade.getRiskFactorRepoId() >= 0) {
+            store.add(store.getRow(trade.getRiskFactorRepoId(), trade.getBucket()), SensitivityStore.SENSITIVITY, trade.getRepoDelta());
+        }
+    }
+
+
+    //Net sensitivities rate: rate delta (dV/dr) of the options allocated to the rate tenors around the maturity with
+    //the linear interpolation weights, one bucket per currency, with the tenor in the MATURITY column
+    public static SensitivityStore calculateNetSensitivityStoreRate(List<Trade> trades) {
+        SensitivityStore store = new SensitivityStore(2);
+        for (Trade trade : trades) {
+            addNetSensitivityRate(store, trade);
+        }
+        return store;
+    }
+
+    public static void addNetSensitivityRate(SensitivityStore store, Trade trade) {
+        if (trade.getRiskFactorRateTenorsId() >= 0 && trade.getRateDelta() != 0.0) {
+            double[] tenors = RiskFactorRegistry.getRateTenors();
+            double[] weights = VolatilityInterpolator.getInterpolationWeights(tenors, trade.getMaturity());
+            for (int k = 0; k < tenors.length; k++) {
+                if (weights[k] != 0.0) {
+                    int row = store.getRow(trade.getRiskFactorRateTenorsId() + k, trade.getRateBucket());
+                    store.add(row, SensitivityStore.SENSITIVITY, weights[k] * trade.getRateDelta());
+                    store.set(row, SensitivityStore.MATURITY, tenors[k]);
+                }
+            }
+        }
     }
 
 
@@ -63,18 +152,15 @@ public class SensitivityAggregator {
     public static Map<String, Map<Integer, Double>> calculateWeightedSensitivitiesDelta(
             Map<String, Map<Integer, Double>> netSensitivitiesDelta) {
 
-        return netSensitivitiesDelta.entrySet().stream()
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey, // RiskFactorDelta
-                        riskEntry -> riskEntry.getValue().entrySet().stream()
-                                .collect(Collectors.toMap(
-                                        Map.Entry::getKey, // Bucket
-                                        bucketEntry -> {
-                                            double riskWeightDelta = RISK_WEIGHTS.getOrDefault(bucketEntry.getKey(), new Double[]{1.0, 1.0})[0];
-                                            return bucketEntry.getValue() * riskWeightDelta;
-                                        }
-                                ))
-                ));
+        return calculateWeightedSensitivitiesDelta(SensitivityStore.fromMap(netSensitivitiesDelta)).toMap(SensitivityStore.SENSITIVITY);
+    }
+
+    public static SensitivityStore calculateWeightedSensitivitiesDelta(SensitivityStore netSensitivitiesDelta) {
+        return calculateWeightedSensitivitiesDelta(netSensitivitiesDelta, PARAMETERS.get());
+    }
+
+    public static SensitivityStore calculateWeightedSensitivitiesDelta(SensitivityStore netSensitivitiesDelta, RegulatoryParameters parameters) {
+        return applyRiskWeights(netSensitivitiesDelta, parameters, 0);
     }
 
 
@@ -82,79 +168,107 @@ public class SensitivityAggregator {
 	public static Map<String, Map<Integer, Double>> calculateWeightedSensitivitiesVega(
 			Map<String, Map<Integer, Double>> netSensitivitiesVega) {
 
-		return netSensitivitiesVega.entrySet().stream()
-				.collect(Collectors.toMap(
-						Map.Entry::getKey, // Risk Factor
-						riskEntry -> riskEntry.getValue().entrySet().stream()
-								.collect(Collectors.toMap(
-										Map.Entry::getKey, // Bucket
-										bucketEntry -> {
-											double riskWeightVega = RISK_WEIGHTS.getOrDefault(bucketEntry.getKey(), new Double[] { 1.0, 1.0 })[1];
-											return bucketEntry.getValue() * riskWeightVega;
-									}
-
-				))));
+		return calculateWeightedSensitivitiesVega(SensitivityStore.fromMap(netSensitivitiesVega)).toMap(SensitivityStore.SENSITIVITY);
 	}
 
-    //Intra-bucket correlation delta
-    public static double getIntraBucketCorrelation(int bucket, String scenario) {
-        if (bucket == 11) {
-            return 1.0;
+    public static SensitivityStore calculateWeightedSensitivitiesVega(SensitivityStore netSensitivitiesVega) {
+        return calculateWeightedSensitivitiesVega(netSensitivitiesVega, PARAMETERS.get());
+    }
+
+    public static SensitivityStore calculateWeightedSensitivitiesVega(SensitivityStore netSensitivitiesVega, RegulatoryParameters parameters) {
+        return applyRiskWeights(netSensitivitiesVega, parameters, 1);
+    }
+
+    //Weighted sensitivities repo
+    public static SensitivityStore calculateWeightedSensitivitiesRepo(SensitivityStore netSensitivitiesRepo) {
+        return calculateWeightedSensitivitiesRepo(netSensitivitiesRepo, PARAMETERS.get());
+    }
+
+    public static SensitivityStore calculateWeightedSensitivitiesRepo(SensitivityStore netSensitivitiesRepo, RegulatoryParameters parameters) {
+        return applyRiskWeights(netSensitivitiesRepo, parameters, 2);
+    }
+
+
+    //Weighted sensitivities rate: risk weight of the tenor of each row
+    public static SensitivityStore calculateWeightedSensitivitiesRate(SensitivityStore netSensitivitiesRate) {
+        return calculateWeightedSensitivitiesRate(netSensitivitiesRate, PARAMETERS.get());
+    }
+
+    public static SensitivityStore calculateWeightedSensitivitiesRate(SensitivityStore netSensitivitiesRate, RegulatoryParameters parameters) {
+        SensitivityStore weightedSensitivities = new SensitivityStore(netSensitivitiesRate);
+        double[] sensitivities = weightedSensitivities.getColumn(SensitivityStore.SENSITIVITY);
+        double[] tenors = weightedSensitivities.getColumn(SensitivityStore.MATURITY);
+        for (int row = 0; row < weightedSensitivities.size(); row++) {
+            sensitivities[row] *= parameters.getRateRiskWeight(getRateTenorIndex(tenors[row]));
+        }
+        return weightedSensitivities;
+    }
+
+    //Index in RiskFactorRegistry.getRateTenors() of the tenor of a rate row
+    private static int getRateTenorIndex(double tenor) {
+        int tenorIndex = Arrays.binarySearch(RiskFactorRegistry.getRateTenors(), tenor);
+        if (tenorIndex < 0) {
+            throw new IllegalArgumentException("Tenor dei tassi non valido: " + tenor);
         }
+        return tenorIndex;
+    }
 
-        double baseCorrelation;
-        if (bucket >= 1 && bucket <= 4) baseCorrelation = 0.15;
-        else if (bucket >= 5 && bucket <= 8) baseCorrelation = 0.25;
-        else if (bucket == 9) baseCorrelation = 0.075;
-        else if (bucket == 10) baseCorrelation = 0.125;
-        else if (bucket == 11) baseCorrelation = 1.0;
-        else if (bucket == 12 || bucket == 13) baseCorrelation = 0.80;
-        else baseCorrelation = 0.15;
+    //Copy of the store with the sensitivities multiplied by the risk weight (0 = delta, 1 = vega, 2 = repo) of their bucket
+    private static SensitivityStore applyRiskWeights(SensitivityStore netSensitivities, RegulatoryParameters parameters, int weightIndex) {
+        double[] riskWeights = new double[netSensitivities.getMaximumBucket() + 1];
+        for (int bucket = 0; bucket < riskWeights.length; bucket++) {
+            switch (weightIndex) {
+                case 0:
+                    riskWeights[bucket] = parameters.getDeltaRiskWeight(bucket);
+                    break;
+                case 1:
+                    riskWeights[bucket] = parameters.getVegaRiskWeight(bucket);
+                    break;
+                default:
+                    riskWeights[bucket] = parameters.getRepoRiskWeight(bucket);
+                    break;
+            }
+        }
 
-        switch (scenario) {
-            case "high":
-                return Math.min(baseCorrelation * 1.25, 1.0);
-            case "low":
-                return Math.max(2 * baseCorrelation - 1.0, 0.75 * baseCorrelation);
-            default:
-                return baseCorrelation;
+        SensitivityStore weightedSensitivities = new SensitivityStore(netSensitivities);
+        double[] sensitivities = weightedSensitivities.getColumn(SensitivityStore.SENSITIVITY);
+        for (int row = 0; row < weightedSensitivities.size(); row++) {
+            sensitivities[row] *= riskWeights[weightedSensitivities.getBucket(row)];
         }
+        return weightedSensitivities;
+    }
+
+    //Intra-bucket correlation delta
+    public static double getIntraBucketCorrelation(int bucket, String scenario) {
+        return getIntraBucketCorrelation(bucket, CorrelationScenario.fromName(scenario));
+    }
+
+    public static double getIntraBucketCorrelation(int bucket, CorrelationScenario scenario) {
+        return PARAMETERS.get().getIntraBucketCorrelation(bucket, scenario);
     }
 
     //Intra-bucket aggregation delta
     public static Map<Integer, Double> aggregateIntraBucketDelta(
             Map<String, Map<Integer, Double>> weightedSensitivities, String scenario) {
         
-        Map<Integer, Double> capitalByBucket = new HashMap<>();
-
-        Map<Integer, List<Double>> sensitivitiesByBucket = new HashMap<>();
-
-        weightedSensitivities.forEach((riskFactorDelta, bucketMap) ->
-                bucketMap.forEach((bucket, ws) -> {
-                    sensitivitiesByBucket.computeIfAbsent(bucket, k -> new ArrayList<>()).add(ws);
-                })
-        );
-
-        for (Map.Entry<Integer, List<Double>> entry : sensitivitiesByBucket.entrySet()) {
-            int bucket = entry.getKey();
-            List<Double> wsList = entry.getValue();
-
-            double sumSquared = 0.0;
-            double sumCrossTerms = 0.0;
+        SensitivityStore store = SensitivityStore.fromMap(weightedSensitivities);
+        return toBucketMap(aggregateIntraBucketDelta(store, scenario), store.getBuckets());
+    }
 
-            for (int i = 0; i < wsList.size(); i++) {
-                double WS_k = wsList.get(i);
-                sumSquared += WS_k * WS_k;
+    //Capital requirement by bucket (array indexed by bucket)
+    public static double[] aggregateIntraBucketDelta(SensitivityStore weightedSensitivities, String scenario) {
+        RegulatoryParameters parameters = PARAMETERS.get();
+        CorrelationScenario correlationScenario = CorrelationScenario.fromName(scenario);
+        QuadraticFormKernel kernel = quadraticFormKernel;
+        double[] capitalByBucket = new double[weightedSensitivities.getMaximumBucket() + 1];
+        int[] offsets = weightedSensitivities.getBucketOffsets();
+        double[] ws = weightedSensitivities.getColumnByBucket(SensitivityStore.SENSITIVITY, offsets);
 
-                for (int j = i + 1; j < wsList.size(); j++) {
-                    double WS_l = wsList.get(j);
-                    double correlation = getIntraBucketCorrelation(bucket, scenario);
-                    sumCrossTerms += correlation * WS_k * WS_l;
-                }
-            }
+        for (int bucket = 0; bucket < capitalByBucket.length; bucket++) {
+            double sumSquared = kernel.sumOfSquares(ws, offsets[bucket], offsets[bucket + 1]);
+            double sumCrossTerms = parameters.getIntraBucketCorrelation(bucket, correlationScenario) * kernel.sumOfProducts(ws, offsets[bucket], offsets[bucket + 1]);
 
-            double capitalRequirement = Math.sqrt(Math.max(0, sumSquared + sumCrossTerms));
-            capitalByBucket.merge(bucket, capitalRequirement, Double::sum);
+            capitalByBucket[bucket] = Math.sqrt(Math.max(0, sumSquared + sumCrossTerms));
         }
 
         return capitalByBucket;
@@ -180,113 +294,91 @@ public class SensitivityAggregator {
             Map<String, Map<Integer, Double>> optionMaturities,
             String scenario) {
 
-        Map<Integer, Double> capitalByBucket = new HashMap<>();
-        Map<Integer, List<Double>> sensitivitiesByBucket = new HashMap<>();
-        Map<Integer, List<Double>> maturitiesByBucket = new HashMap<>();
-
-        weightedSensitivities.forEach((riskFactorVega, bucketMap) ->
-                bucketMap.forEach((bucket, ws) -> {
-                	
-                        double maturity = optionMaturities.getOrDefault(riskFactorVega, Collections.emptyMap())
-                                .getOrDefault(bucket, 1.0);
-
-                        sensitivitiesByBucket.computeIfAbsent(bucket, k -> new ArrayList<>()).add(ws);
-                        maturitiesByBucket.computeIfAbsent(bucket, k -> new ArrayList<>()).add(maturity);
-                })
-        );
-
-        for (Map.Entry<Integer, List<Double>> entry : sensitivitiesByBucket.entrySet()) {
-            int bucket = entry.getKey();
-            List<Double> wsList = entry.getValue();
-            List<Double> maturityList = maturitiesByBucket.get(bucket);
-
-            double sumSquared = 0.0;
-            double sumCrossTerms = 0.0;
-
-            for (int i = 0; i < wsList.size(); i++) {
-                double WS_k = wsList.get(i);
-                double T_k = maturityList.get(i);
-                sumSquared += WS_k * WS_k;
+        SensitivityStore store = SensitivityStore.fromMap(weightedSensitivities);
+        for (int row = 0; row < store.size(); row++) {
+            double maturity = optionMaturities.getOrDefault(store.getRiskFactor(store.getRiskFactorId(row)), Collections.emptyMap())
+                    .getOrDefault(store.getBucket(row), 1.0);
+            store.set(row, SensitivityStore.MATURITY, maturity);
+        }
+        return toBucketMap(aggregateIntraBucketVega(store, scenario), store.getBuckets());
+    }
 
-                for (int j = i + 1; j < wsList.size(); j++) {
-                    double WS_l = wsList.get(j);
-                    double T_l = maturityList.get(j);
+    //Capital requirement by bucket (array indexed by bucket), with the maturities of the MATURITY column
+    public static double[] aggregateIntraBucketVega(SensitivityStore weightedSensitivities, String scenario) {
+        RegulatoryParameters parameters = PARAMETERS.get();
+        CorrelationScenario correlationScenario = CorrelationScenario.fromName(scenario);
+        QuadraticFormKernel kernel = quadraticFormKernel;
+        double[] capitalByBucket = new double[weightedSensitivities.getMaximumBucket() + 1];
+        int[] offsets = weightedSensitivities.getBucketOffsets();
+        double[] ws = weightedSensitivities.getColumnByBucket(SensitivityStore.SENSITIVITY, offsets);
+        double[] maturities = weightedSensitivities.getColumnByBucket(SensitivityStore.MATURITY, offsets);
+
+        for (int bucket = 0; bucket < capitalByBucket.length; bucket++) {
+            //rho_kl = min(rho_delta * rho_maturity, 1) with both factors <= 1: rho_delta factors out of the cross terms
+            double sumSquared = kernel.sumOfSquares(ws, offsets[bucket], offsets[bucket + 1]);
+            double sumCrossTerms = parameters.getIntraBucketCorrelation(bucket, correlationScenario)
+                    * getMaturityWeightedProducts(kernel, ws, maturities, offsets[bucket], offsets[bucket + 1]);
+
+            capitalByBucket[bucket] = Math.sqrt(Math.max(0, sumSquared + sumCrossTerms));
+        }
 
-                    double rho_delta = getIntraBucketCorrelation(bucket, scenario);
-                    double rho_maturity = Math.exp(-0.01 * Math.abs(T_k - T_l) / Math.min(T_k, T_l));
-                    double rho_kl = Math.min(rho_delta * rho_maturity, 1.0);
+        return capitalByBucket;
+    }
 
-                    sumCrossTerms += rho_kl * WS_k * WS_l;
-                }
+    //sum_{k<l} exp(-0.01 |T_k - T_l| / min(T_k, T_l)) WS_k WS_l of the values from ... to - 1. The sensitivities are
+    //summed by maturity (correlation 1 within a tenor) and the cross terms are taken over the distinct tenors only.
+    private static double getMaturityWeightedProducts(QuadraticFormKernel kernel, double[] ws, double[] maturities, int from, int to) {
+        double[] tenors = Arrays.copyOfRange(maturities, from, to);
+        Arrays.sort(tenors);
+        int numberOfTenors = 0;
+        for (double tenor : tenors) {
+            if (numberOfTenors == 0 || tenor != tenors[numberOfTenors - 1]) {
+                tenors[numberOfTenors++] = tenor;
             }
+        }
 
-            double capitalRequirement = Math.sqrt(Math.max(0, sumSquared + sumCrossTerms));
-            capitalByBucket.put(bucket, capitalRequirement);
+        double[] sumByTenor = new double[numberOfTenors];
+        for (int i = from; i < to; i++) {
+            sumByTenor[Arrays.binarySearch(tenors, 0, numberOfTenors, maturities[i])] += ws[i];
         }
 
-        return capitalByBucket;
+        double sameTenorProducts = (kernel.sumOfSquares(sumByTenor, 0, numberOfTenors) - kernel.sumOfSquares(ws, from, to)) / 2;
+        return sameTenorProducts + kernel.sumOfTenorProducts(tenors, sumByTenor, numberOfTenors);
     }
 
-    //Inter-bucket delta e vega correlations
-	private static double getInterBucketCorrelation(int bucketA, int bucketB, String scenario) {
-	    double baseCorrelation;
-
-	    if (bucketA == 11 || bucketB == 11) return 0.0;
-
-	    if (bucketA >= 1 && bucketA <= 10 && bucketB >= 1 && bucketB <= 10) baseCorrelation = 0.15;
-	    else if ((bucketA == 12 && bucketB == 13) || (bucketA == 13 && bucketB == 12)) baseCorrelation = 0.75;
-	    else baseCorrelation = 0.45;
+	//Inter-bucket delta e vega aggregation over the buckets with sensitivities
+	private static double calculateInterBucketAggregation(double[] capitalByBucket,
+			SensitivityStore weightedSensitivities, String scenario) {
+		double[] K = Arrays.copyOf(capitalByBucket, Math.max(capitalByBucket.length, weightedSensitivities.getMaximumBucket() + 1));
+		return aggregateInterBucket(K, weightedSensitivities.getBucketSums(SensitivityStore.SENSITIVITY),
+				weightedSensitivities.getBuckets(), CorrelationScenario.fromName(scenario));
+	}
 
-	    switch (scenario) {
-	        case "high":
-	            return Math.min(baseCorrelation * 1.25, 1.0);
-	        case "low":
-	            return Math.max(2 * baseCorrelation - 1.0, 0.75 * baseCorrelation);
-	        default: // Scenario "medium"
-	            return baseCorrelation;
-	    }
+	//Inter-bucket delta e vega aggregation from the capital K_b and the sum of the weighted sensitivities S_b of the
+	//buckets (arrays indexed by bucket), without going back to the sensitivities:
+	//sqrt(sum_b K_b^2 + sum_{b<c} gamma_bc S_b S_c), with S_b bounded by K_b if negative
+	public static double aggregateInterBucket(double[] capitalByBucket, double[] bucketSums, int[] buckets, CorrelationScenario scenario) {
+		return aggregateInterBucket(capitalByBucket, bucketSums, buckets, scenario, PARAMETERS.get());
 	}
 
-	//Inter-bucket delta e vega aggregation
-	private static double calculateInterBucketAggregation(Map<Integer, Double> capitalByBucket,
-			Map<String, Map<Integer, Double>> weightedSensitivities, String scenario) {
+	public static double aggregateInterBucket(double[] capitalByBucket, double[] bucketSums, int[] buckets, CorrelationScenario scenario,
+			RegulatoryParameters parameters) {
+		double[] S = new double[buckets.length];
 		double sum_Kb2 = 0.0;
-		double sum_cross_terms = 0.0;
-
-		List<Integer> buckets = new ArrayList<>(capitalByBucket.keySet());
-
-		for (int i = 0; i < buckets.size(); i++) {
-			int b = buckets.get(i);
-			double K_b = capitalByBucket.getOrDefault(b, 0.0);
+		for (int i = 0; i < buckets.length; i++) {
+			double K_b = capitalByBucket[buckets[i]];
+			double S_b = bucketSums[buckets[i]];
+			S[i] = S_b < 0 ? Math.max(Math.min(S_b, K_b), -K_b) : S_b;
 			sum_Kb2 += K_b * K_b;
+		}
 
-	        double S_b = weightedSensitivities.values().stream()
-	                .flatMap(bucketMap -> bucketMap.entrySet().stream())
-	                .filter(entry -> entry.getKey().equals(b))
-	                .mapToDouble(Map.Entry::getValue)
-	                .sum();
-	        
-			if (S_b < 0) {
-				S_b = Math.max(Math.min(S_b, K_b), -K_b);
-			}
-
-			for (int j = i + 1; j < buckets.size(); j++) {
-				int c = buckets.get(j);
-				double K_c = capitalByBucket.getOrDefault(c, 0.0);
-
-	            double S_c = weightedSensitivities.values().stream()
-	                    .flatMap(bucketMap -> bucketMap.entrySet().stream())
-	                    .filter(entry -> entry.getKey().equals(c))
-	                    .mapToDouble(Map.Entry::getValue)
-	                    .sum();
-	            
-				if (S_c < 0) {
-					S_c = Math.max(Math.min(S_c, K_c), -K_c);
-				}
-
-				double gamma_bc = getInterBucketCorrelation(b, c, scenario);
-				sum_cross_terms += gamma_bc * S_b * S_c;
+		double sum_cross_terms = 0.0;
+		for (int i = 0; i < buckets.length; i++) {
+			double crossTerm = 0.0;
+			for (int j = i + 1; j < buckets.length; j++) {
+				crossTerm += parameters.getInterBucketCorrelation(buckets[i], buckets[j], scenario) * S[j];
 			}
+			sum_cross_terms += S[i] * crossTerm;
 		}
 
 		return Math.sqrt(Math.max(0, sum_Kb2 + sum_cross_terms));
@@ -298,6 +390,10 @@ public class SensitivityAggregator {
 	        Map<String, Map<Integer, Double>> weightedSensitivitiesDelta,
 	        String scenario) {
 
+	    return aggregateInterBucketDelta(toBucketArray(capitalByBucket), SensitivityStore.fromMap(weightedSensitivitiesDelta), scenario);
+	}
+
+	public static double aggregateInterBucketDelta(double[] capitalByBucket, SensitivityStore weightedSensitivitiesDelta, String scenario) {
 	    return calculateInterBucketAggregation(capitalByBucket, weightedSensitivitiesDelta, scenario);
 	}
 
@@ -307,149 +403,347 @@ public class SensitivityAggregator {
 	        Map<String, Map<Integer, Double>> weightedSensitivitiesVega,
 	        String scenario) {
 
+	    return aggregateInterBucketVega(toBucketArray(capitalByBucket), SensitivityStore.fromMap(weightedSensitivitiesVega), scenario);
+	}
+
+	public static double aggregateInterBucketVega(double[] capitalByBucket, SensitivityStore weightedSensitivitiesVega, String scenario) {
 	    return calculateInterBucketAggregation(capitalByBucket, weightedSensitivitiesVega, scenario);
 	}
 
 	
-    //Intra-bucket curvature risk correlations
-    private static double getAdjustedCorrelationIntra(int bucket, String scenario) {
-        double baseCorrelation = getIntraBucketCorrelation(bucket, "medium");
-        double squaredCorrelation = Math.pow(baseCorrelation, 2);
-
-        switch (scenario) {
-            case "high":
-                return Math.min(squaredCorrelation * 1.25, 1.0);
-            case "low":
-                return Math.max(2 * squaredCorrelation - 1.0, 0.75 * squaredCorrelation);
-            default:
-                return squaredCorrelation;
-        }
-    }
-
     //Intra-bucket aggregation curvature
     public static Map<Integer, Double> aggregateCurvatureRiskIntraBucket(
             Map<String, Map<Integer, Double[]>> curvatureRisk, 
             Map<Integer, String> selectedScenarioByBucket, 
             String scenario) {
 
-        Map<Integer, Double> capitalByBucket = new HashMap<>();
-        Map<Integer, List<Double[]>> curvatureByBucket = new HashMap<>();
-
-        curvatureRisk.forEach((riskFactor, bucketMap) ->
-            bucketMap.forEach((bucket, cvrValues) ->
-                curvatureByBucket.computeIfAbsent(bucket, k -> new ArrayList<>()).add(cvrValues)
-            )
-        );
-
-        for (Map.Entry<Integer, List<Double[]>> entry : curvatureByBucket.entrySet()) {
-            int bucket = entry.getKey();
-            List<Double[]> cvrList = entry.getValue();
+        SensitivityStore store = SensitivityStore.fromCurvatureMap(curvatureRisk);
+        boolean[] isPlusSelectedByBucket = new boolean[store.getMaximumBucket() + 1];
+        double[] capitalByBucket = aggregateCurvatureRiskIntraBucket(store, isPlusSelectedByBucket, scenario);
 
-            double sum_CVR_plus_squared = 0.0;
-            double sum_CVR_minus_squared = 0.0;
-            double sum_CVR_plus_corr = 0.0;
-            double sum_CVR_minus_corr = 0.0;
-
-            for (int i = 0; i < cvrList.size(); i++) {
-                double CVR_k_plus = cvrList.get(i)[0];
-                double CVR_k_minus = cvrList.get(i)[1];
-                sum_CVR_plus_squared += Math.pow(Math.max(CVR_k_plus, 0), 2);
-                sum_CVR_minus_squared += Math.pow(Math.max(CVR_k_minus, 0), 2);
-
-                for (int j = i + 1; j < cvrList.size(); j++) {
-                    double CVR_l_plus = cvrList.get(j)[0];
-                    double CVR_l_minus = cvrList.get(j)[1];
-                    double correlation = getAdjustedCorrelationIntra(bucket, scenario);
-
-                    double psi_plus = (CVR_k_plus <= 0 && CVR_l_plus <= 0) ? 0 : 1;
-                    double psi_minus = (CVR_k_minus <= 0 && CVR_l_minus <= 0) ? 0 : 1;
+        for (int bucket : store.getBuckets()) {
+            selectedScenarioByBucket.put(bucket, isPlusSelectedByBucket[bucket] ? "plus" : "minus");
+        }
+        return toBucketMap(capitalByBucket, store.getBuckets());
+    }
 
-                    sum_CVR_plus_corr += correlation * CVR_k_plus * CVR_l_plus * psi_plus;
-                    sum_CVR_minus_corr += correlation * CVR_k_minus * CVR_l_minus * psi_minus;
-                }
+    //Capital requirement by bucket (array indexed by bucket); the selected scenario of each bucket
+    //(true = plus, false = minus) is written into isPlusSelectedByBucket, of length getMaximumBucket() + 1
+    public static double[] aggregateCurvatureRiskIntraBucket(SensitivityStore curvatureRisk,
+            boolean[] isPlusSelectedByBucket, String scenario) {
+
+        RegulatoryParameters parameters = PARAMETERS.get();
+        CorrelationScenario correlationScenario = CorrelationScenario.fromName(scenario);
+        QuadraticFormKernel kernel = quadraticFormKernel;
+        double[] capitalByBucket = new double[curvatureRisk.getMaximumBucket() + 1];
+        int[] offsets = curvatureRisk.getBucketOffsets();
+        double[] cvrPlus = curvatureRisk.getColumnByBucket(SensitivityStore.CVR_PLUS, offsets);
+        double[] cvrMinus = curvatureRisk.getColumnByBucket(SensitivityStore.CVR_MINUS, offsets);
+
+        for (int bucket = 0; bucket < capitalByBucket.length; bucket++) {
+            int from = offsets[bucket];
+            int to = offsets[bucket + 1];
+            if (from == to) {
+                continue;
             }
 
+            double correlation = parameters.getCurvatureIntraBucketCorrelation(bucket, correlationScenario);
+            double sum_CVR_plus_squared = kernel.sumOfPositiveSquares(cvrPlus, from, to);
+            double sum_CVR_minus_squared = kernel.sumOfPositiveSquares(cvrMinus, from, to);
+            double sum_CVR_plus_corr = correlation * kernel.sumOfProductsWithoutNegativePairs(cvrPlus, from, to);
+            double sum_CVR_minus_corr = correlation * kernel.sumOfProductsWithoutNegativePairs(cvrMinus, from, to);
+
             double K_b_plus = Math.sqrt(Math.max(0, sum_CVR_plus_squared + sum_CVR_plus_corr));
             double K_b_minus = Math.sqrt(Math.max(0, sum_CVR_minus_squared + sum_CVR_minus_corr));
             double K_b = Math.max(K_b_plus, K_b_minus);
 
-            String selectedScenario;
+            boolean isPlusSelected;
             if (K_b_plus == K_b_minus) {
-                double sum_CVR_plus = cvrList.stream().mapToDouble(cvr -> Math.max(cvr[0], 0)).sum();
-                double sum_CVR_minus = cvrList.stream().mapToDouble(cvr -> Math.max(cvr[1], 0)).sum();
-                selectedScenario = sum_CVR_plus > sum_CVR_minus ? "plus" : "minus";
+                isPlusSelected = kernel.sumOfPositive(cvrPlus, from, to) > kernel.sumOfPositive(cvrMinus, from, to);
             } else {
-                selectedScenario = (K_b == K_b_plus) ? "plus" : "minus";
+                isPlusSelected = K_b == K_b_plus;
             }
 
-            capitalByBucket.put(bucket, K_b);
-            selectedScenarioByBucket.put(bucket, selectedScenario);
+            capitalByBucket[bucket] = K_b;
+            isPlusSelectedByBucket[bucket] = isPlusSelected;
         }
 
         return capitalByBucket;
     }
 
     
-    //Inter-bucket aggregation curvature correlations
-    private static double getAdjustedCorrelationInter(int bucketA, int bucketB, String scenario) {
-        double baseCorrelation = getInterBucketCorrelation(bucketA, bucketB, "medium");
-        double squaredCorrelation = Math.pow(baseCorrelation, 2);
-
-        switch (scenario) {
-            case "high":
-                return Math.min(squaredCorrelation * 1.25, 1.0);
-            case "low":
-                return Math.max(2 * squaredCorrelation - 1.0, 0.75 * squaredCorrelation);
-            default:
-                return squaredCorrelation;
-        }
-    }
-
     //Inter-bucket aggregation curvature
     public static double aggregateCurvatureRiskInterBucket(
             Map<Integer, Double> capitalByBucket,
             Map<Integer, String> selectedScenarioByBucket,
             Map<String, Map<Integer, Double[]>> curvatureRisk, String scenario) {
 
-        double sum_Kb2 = capitalByBucket.values().stream()
-                .mapToDouble(K_b -> K_b * K_b)
-                .sum();
+        SensitivityStore store = SensitivityStore.fromCurvatureMap(curvatureRisk);
+        boolean[] isPlusSelectedByBucket = new boolean[store.getMaximumBucket() + 1];
+        for (int bucket = 0; bucket < isPlusSelectedByBucket.length; bucket++) {
+            isPlusSelectedByBucket[bucket] = selectedScenarioByBucket.getOrDefault(bucket, "plus").equals("plus");
+        }
+        return aggregateCurvatureRiskInterBucket(toBucketArray(capitalByBucket), isPlusSelectedByBucket, store, scenario);
+    }
+
+    public static double aggregateCurvatureRiskInterBucket(double[] capitalByBucket, boolean[] isPlusSelectedByBucket,
+            SensitivityStore curvatureRisk, String scenario) {
+
+        //S_b: sum of the CVR of the selected scenario of the bucket
+        double[] S = new double[curvatureRisk.getMaximumBucket() + 1];
+        for (int row = 0; row < curvatureRisk.size(); row++) {
+            int bucket = curvatureRisk.getBucket(row);
+            boolean isPlusSelected = bucket >= isPlusSelectedByBucket.length || isPlusSelectedByBucket[bucket];
+            S[bucket] += curvatureRisk.get(row, isPlusSelected ? SensitivityStore.CVR_PLUS : SensitivityStore.CVR_MINUS);
+        }
+
+        double[] K = Arrays.copyOf(capitalByBucket, Math.max(capitalByBucket.length, S.length));
+        return aggregateCurvatureInterBucket(K, S, curvatureRisk.getBuckets(), CorrelationScenario.fromName(scenario));
+    }
+
+    //Inter-bucket curvature aggregation from the capital K_b and the sum S_b of the CVR of the selected scenario
+    //of the buckets (arrays indexed by bucket): sqrt(sum_b K_b^2 + sum_{b<c} gamma_bc^2 S_b S_c psi_bc)
+    public static double aggregateCurvatureInterBucket(double[] capitalByBucket, double[] bucketSums, int[] buckets, CorrelationScenario scenario) {
+        return aggregateCurvatureInterBucket(capitalByBucket, bucketSums, buckets, scenario, PARAMETERS.get());
+    }
+
+    public static double aggregateCurvatureInterBucket(double[] capitalByBucket, double[] bucketSums, int[] buckets, CorrelationScenario scenario,
+            RegulatoryParameters parameters) {
+        double sum_Kb2 = 0.0;
+        for (int bucket : buckets) {
+            sum_Kb2 += capitalByBucket[bucket] * capitalByBucket[bucket];
+        }
+
+        double sum_cross_terms = 0.0;
+        for (int i = 0; i < buckets.length; i++) {
+            double S_b = bucketSums[buckets[i]];
+            for (int j = i + 1; j < buckets.length; j++) {
+                double S_c = bucketSums[buckets[j]];
+                double psi_bc = (S_b < 0 && S_c < 0) ? 0 : 1;
+                sum_cross_terms += parameters.getCurvatureInterBucketCorrelation(buckets[i], buckets[j], scenario) * S_b * S_c * psi_bc;
+            }
+        }
+
+        return Math.sqrt(Math.max(0, sum_Kb2 + sum_cross_terms));
+    }
+
+
+    //Single pass aggregation of the three correlation scenarios. The inputs are grouped by bucket once and the
+    //pairwise products are shared by the scenarios; only the correlations (one per bucket or bucket pair and
+    //scenario) differ. The inter-bucket aggregation uses the maximum over the scenarios of the capital by bucket.
 
-        Map<Integer, Double> S_b_map = new HashMap<>();
-        for (Map.Entry<String, Map<Integer, Double[]>> entry : curvatureRisk.entrySet()) {
-            for (Map.Entry<Integer, Double[]> bucketEntry : entry.getValue().entrySet()) {
-                int bucket = bucketEntry.getKey();
-                double sum_CVR_plus = bucketEntry.getValue()[0];
-                double sum_CVR_minus = bucketEntry.getValue()[1];
+    private static final CorrelationScenario[] SCENARIOS = CorrelationScenario.values();
 
-                String selectedScenario = selectedScenarioByBucket.getOrDefault(bucket, "plus");
-                double S_b = selectedScenario.equals("plus") ? sum_CVR_plus : sum_CVR_minus;
+    //Delta: intra-bucket and inter-bucket capital in the three scenarios
+    public static CapitalRequirement aggregateDelta(SensitivityStore weightedSensitivities) {
+        return aggregateDelta(weightedSensitivities, PARAMETERS.get());
+    }
+
+    public static CapitalRequirement aggregateDelta(SensitivityStore weightedSensitivities, RegulatoryParameters parameters) {
+        QuadraticFormKernel kernel = quadraticFormKernel;
+        double[][] capitalByBucket = new double[SCENARIOS.length][weightedSensitivities.getMaximumBucket() + 1];
+        int[] offsets = weightedSensitivities.getBucketOffsets();
+        double[] ws = weightedSensitivities.getColumnByBucket(SensitivityStore.SENSITIVITY, offsets);
 
-                S_b_map.merge(bucket, S_b, Double::sum);
+        for (int bucket = 0; bucket < capitalByBucket[0].length; bucket++) {
+            double sumSquared = kernel.sumOfSquares(ws, offsets[bucket], offsets[bucket + 1]);
+            double sumProducts = kernel.sumOfProducts(ws, offsets[bucket], offsets[bucket + 1]);
+
+            //Constant correlation within the bucket: sum_{k<l} rho * WS_k * WS_l = rho * sum_{k<l} WS_k * WS_l
+            for (CorrelationScenario scenario : SCENARIOS) {
+                double correlation = parameters.getIntraBucketCorrelation(bucket, scenario);
+                capitalByBucket[scenario.ordinal()][bucket] = Math.sqrt(Math.max(0, sumSquared + correlation * sumProducts));
             }
         }
 
+        return aggregateInterBucket(weightedSensitivities, capitalByBucket, parameters);
+    }
+
+    //Vega: intra-bucket and inter-bucket capital in the three scenarios, with the maturities of the MATURITY column
+    public static CapitalRequirement aggregateVega(SensitivityStore weightedSensitivities) {
+        return aggregateVega(weightedSensitivities, PARAMETERS.get());
+    }
+
+    public static CapitalRequirement aggregateVega(SensitivityStore weightedSensitivities, RegulatoryParameters parameters) {
+        QuadraticFormKernel kernel = quadraticFormKernel;
+        double[][] capitalByBucket = new double[SCENARIOS.length][weightedSensitivities.getMaximumBucket() + 1];
+        int[] offsets = weightedSensitivities.getBucketOffsets();
+        double[] ws = weightedSensitivities.getColumnByBucket(SensitivityStore.SENSITIVITY, offsets);
+        double[] maturities = weightedSensitivities.getColumnByBucket(SensitivityStore.MATURITY, offsets);
+
+        for (int bucket = 0; bucket < capitalByBucket[0].length; bucket++) {
+            double sumSquared = kernel.sumOfSquares(ws, offsets[bucket], offsets[bucket + 1]);
+            double sumProducts = getMaturityWeightedProducts(kernel, ws, maturities, offsets[bucket], offsets[bucket + 1]);
+
+            //min(rho_delta * rho_maturity, 1) = rho_delta * rho_maturity, so the maturity terms are shared by the scenarios
+            for (CorrelationScenario scenario : SCENARIOS) {
+                double correlation = parameters.getIntraBucketCorrelation(bucket, scenario);
+                capitalByBucket[scenario.ordinal()][bucket] = Math.sqrt(Math.max(0, sumSquared + correlation * sumProducts));
+            }
+        }
+
+        return aggregateInterBucket(weightedSensitivities, capitalByBucket, parameters);
+    }
+
+    //Repo: the repo rates of different issuers of a bucket have the correlation of their spots, so the aggregation
+    //is the one of delta on the weighted repo sensitivities
+    public static CapitalRequirement aggregateRepo(SensitivityStore weightedSensitivities) {
+        return aggregateRepo(weightedSensitivities, PARAMETERS.get());
+    }
+
+    public static CapitalRequirement aggregateRepo(SensitivityStore weightedSensitivities, RegulatoryParameters parameters) {
+        return aggregateDelta(weightedSensitivities, parameters);
+    }
+
+    //Rate: intra-bucket capital of each currency with the correlations between its tenors (MATURITY column), then
+    //inter-bucket aggregation across the currencies with a single gamma
+    public static CapitalRequirement aggregateRate(SensitivityStore weightedSensitivities) {
+        return aggregateRate(weightedSensitivities, PARAMETERS.get());
+    }
+
+    public static CapitalRequirement aggregateRate(SensitivityStore weightedSensitivities, RegulatoryParameters parameters) {
+        double[][] capitalByBucket = new double[SCENARIOS.length][weightedSensitivities.getMaximumBucket() + 1];
+        int[] offsets = weightedSensitivities.getBucketOffsets();
+        double[] ws = weightedSensitivities.getColumnByBucket(SensitivityStore.SENSITIVITY, offsets);
+        double[] tenors = weightedSensitivities.getColumnByBucket(SensitivityStore.MATURITY, offsets);
+        int[] buckets = weightedSensitivities.getBuckets();
+
+        for (int bucket : buckets) {
+            int from = offsets[bucket];
+            int to = offsets[bucket + 1];
+            int[] tenorIndices = new int[to - from];
+            for (int i = from; i < to; i++) {
+                tenorIndices[i - from] = getRateTenorIndex(tenors[i]);
+            }
+
+            for (CorrelationScenario scenario : SCENARIOS) {
+                double sumSquared = 0.0;
+                double sumCrossTerms = 0.0;
+                for (int k = from; k < to; k++) {
+                    sumSquared += ws[k] * ws[k];
+                    for (int l = k + 1; l < to; l++) {
+                        sumCrossTerms += parameters.getRateCorrelation(tenorIndices[k - from], tenorIndices[l - from], scenario) * ws[k] * ws[l];
+                    }
+                }
+                capitalByBucket[scenario.ordinal()][bucket] = Math.sqrt(Math.max(0, sumSquared + sumCrossTerms));
+            }
+        }
+
+        double[] K = CapitalRequirement.getMaximumByBucket(capitalByBucket);
+        double[] S = weightedSensitivities.getBucketSums(SensitivityStore.SENSITIVITY);
+        double[] capital = new double[SCENARIOS.length];
+        for (CorrelationScenario scenario : SCENARIOS) {
+            capital[scenario.ordinal()] = aggregateRateInterBucket(K, S, buckets, parameters.getRateInterBucketCorrelation(scenario));
+        }
+
+        return new CapitalRequirement(buckets, capitalByBucket, capital);
+    }
+
+    //sqrt(sum_b K_b^2 + sum_{b<c} gamma S_b S_c) over the currencies, with S_b bounded by K_b if negative
+    private static double aggregateRateInterBucket(double[] capitalByBucket, double[] bucketSums, int[] buckets, double correlation) {
+        double[] S = new double[buckets.length];
+        double sum_Kb2 = 0.0;
+        for (int i = 0; i < buckets.length; i++) {
+            double K_b = capitalByBucket[buckets[i]];
+            double S_b = bucketSums[buckets[i]];
+            S[i] = S_b < 0 ? Math.max(Math.min(S_b, K_b), -K_b) : S_b;
+            sum_Kb2 += K_b * K_b;
+        }
+
         double sum_cross_terms = 0.0;
-        List<Integer> bucketList = new ArrayList<>(S_b_map.keySet());
+        for (int i = 0; i < buckets.length; i++) {
+            for (int j = i + 1; j < buckets.length; j++) {
+                sum_cross_terms += correlation * S[i] * S[j];
+            }
+        }
 
-        for (int i = 0; i < bucketList.size(); i++) {
-            int b = bucketList.get(i);
-            double S_b = S_b_map.getOrDefault(b, 0.0);
+        return Math.sqrt(Math.max(0, sum_Kb2 + sum_cross_terms));
+    }
 
-            for (int j = i + 1; j < bucketList.size(); j++) {
-                int c = bucketList.get(j);
-                double S_c = S_b_map.getOrDefault(c, 0.0);
+    //Inter-bucket delta and vega aggregation of the three scenarios with K_b the maximum capital of the bucket
+    private static CapitalRequirement aggregateInterBucket(SensitivityStore weightedSensitivities, double[][] capitalByBucket,
+            RegulatoryParameters parameters) {
+        int[] buckets = weightedSensitivities.getBuckets();
+        double[] K = CapitalRequirement.getMaximumByBucket(capitalByBucket);
+        double[] S = weightedSensitivities.getBucketSums(SensitivityStore.SENSITIVITY);
 
-                double psi_bc = (S_b < 0 && S_c < 0) ? 0 : 1;
-                double gamma_bc = getAdjustedCorrelationInter(b, c, scenario);
+        double[] capital = new double[SCENARIOS.length];
+        for (CorrelationScenario scenario : SCENARIOS) {
+            capital[scenario.ordinal()] = aggregateInterBucket(K, S, buckets, scenario, parameters);
+        }
 
-                sum_cross_terms += gamma_bc * S_b * S_c * psi_bc;
+        return new CapitalRequirement(buckets, capitalByBucket, capital);
+    }
+
+    //Curvature: intra-bucket and inter-bucket capital in the three scenarios. The CVR scenario (plus or minus)
+    //is selected in each bucket for each correlation scenario and used by the inter-bucket aggregation of that scenario.
+    public static CapitalRequirement aggregateCurvature(SensitivityStore curvatureRisk) {
+        return aggregateCurvature(curvatureRisk, PARAMETERS.get());
+    }
+
+    public static CapitalRequirement aggregateCurvature(SensitivityStore curvatureRisk, RegulatoryParameters parameters) {
+        QuadraticFormKernel kernel = quadraticFormKernel;
+        int numberOfBuckets = curvatureRisk.getMaximumBucket() + 1;
+        double[][] capitalByBucket = new double[SCENARIOS.length][numberOfBuckets];
+        boolean[][] isPlusSelectedByBucket = new boolean[SCENARIOS.length][numberOfBuckets];
+        int[] offsets = curvatureRisk.getBucketOffsets();
+        double[] cvrPlus = curvatureRisk.getColumnByBucket(SensitivityStore.CVR_PLUS, offsets);
+        double[] cvrMinus = curvatureRisk.getColumnByBucket(SensitivityStore.CVR_MINUS, offsets);
+        int[] buckets = curvatureRisk.getBuckets();
+
+        for (int bucket : buckets) {
+            int from = offsets[bucket];
+            int to = offsets[bucket + 1];
+            double sum_CVR_plus_squared = kernel.sumOfPositiveSquares(cvrPlus, from, to);
+            double sum_CVR_minus_squared = kernel.sumOfPositiveSquares(cvrMinus, from, to);
+            double sum_CVR_plus_products = kernel.sumOfProductsWithoutNegativePairs(cvrPlus, from, to);
+            double sum_CVR_minus_products = kernel.sumOfProductsWithoutNegativePairs(cvrMinus, from, to);
+            double sum_CVR_plus = kernel.sumOfPositive(cvrPlus, from, to);
+            double sum_CVR_minus = kernel.sumOfPositive(cvrMinus, from, to);
+
+            for (CorrelationScenario scenario : SCENARIOS) {
+                double correlation = parameters.getCurvatureIntraBucketCorrelation(bucket, scenario);
+                double K_b_plus = Math.sqrt(Math.max(0, sum_CVR_plus_squared + correlation * sum_CVR_plus_products));
+                double K_b_minus = Math.sqrt(Math.max(0, sum_CVR_minus_squared + correlation * sum_CVR_minus_products));
+                double K_b = Math.max(K_b_plus, K_b_minus);
+
+                capitalByBucket[scenario.ordinal()][bucket] = K_b;
+                isPlusSelectedByBucket[scenario.ordinal()][bucket] = K_b_plus == K_b_minus ? sum_CVR_plus > sum_CVR_minus : K_b == K_b_plus;
+            }
+        }
+
+        double[] K = CapitalRequirement.getMaximumByBucket(capitalByBucket);
+
+        double[] capital = new double[SCENARIOS.length];
+        double[] S = new double[numberOfBuckets];
+        for (CorrelationScenario scenario : SCENARIOS) {
+            boolean[] isPlusSelected = isPlusSelectedByBucket[scenario.ordinal()];
+            for (int bucket : buckets) {
+                S[bucket] = kernel.sum(isPlusSelected[bucket] ? cvrPlus : cvrMinus, offsets[bucket], offsets[bucket + 1]);
             }
+
+            capital[scenario.ordinal()] = aggregateCurvatureInterBucket(K, S, buckets, scenario, parameters);
         }
 
-        double result = Math.sqrt(Math.max(0, sum_Kb2 + sum_cross_terms));
+        return new CapitalRequirement(buckets, capitalByBucket, capital, isPlusSelectedByBucket);
+    }
+
+
+    //Capital by bucket of the map based API: array indexed by bucket <-> map of the given buckets
+
+    private static Map<Integer, Double> toBucketMap(double[] capitalByBucket, int[] buckets) {
+        Map<Integer, Double> capitalMap = new HashMap<>();
+        for (int bucket : buckets) {
+            capitalMap.put(bucket, capitalByBucket[bucket]);
+        }
+        return capitalMap;
+    }
 
-        return result;
+    private static double[] toBucketArray(Map<Integer, Double> capitalByBucket) {
+        int maximumBucket = capitalByBucket.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        double[] capitalArray = new double[maximumBucket + 1];
+        capitalByBucket.forEach((bucket, capital) -> capitalArray[bucket] = capital);
+        return capitalArray;
     }
 
 }
@@ -0,0 +1,264 @@
+package it.tesi;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Columnar store of sensitivities used by SensitivityAggregator: one row per (risk factor, bucket), risk factors
+//as ids of the RiskFactorRegistry, buckets as ints and the values in double[] columns (no boxing, no nested maps).
+//Rows are in insertion order; a row is found again through an open addressing table on (risk factor id, bucket).
+public class SensitivityStore {
+
+    //Columns of the delta and vega stores
+    public static final int SENSITIVITY = 0;
+    public static final int MATURITY = 1;
+
+    //Columns of the curvature store
+    public static final int CVR_PLUS = 0;
+    public static final int CVR_MINUS = 1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int numberOfColumns;
+    private final RiskFactorRegistry riskFactorRegistry = RiskFactorRegistry.getDefault();
+
+    private int size;
+    private int[] riskFactorIdColumn = new int[INITIAL_CAPACITY];
+    private int[] bucketColumn = new int[INITIAL_CAPACITY];
+    private final double[][] columns;
+    private int maximumBucket = -1;
+
+    //Open addressing table: key (risk factor id, bucket) -> row + 1 (0 = empty slot)
+    private long[] tableKeys = new long[2 * INITIAL_CAPACITY];
+    private int[] tableRows = new int[2 * INITIAL_CAPACITY];
+
+
+    public SensitivityStore(int numberOfColumns) {
+        if (numberOfColumns < 1) {
+            throw new IllegalArgumentException("Il numero di colonne deve essere positivo: " + numberOfColumns);
+        }
+        this.numberOfColumns = numberOfColumns;
+        this.columns = new double[numberOfColumns][INITIAL_CAPACITY];
+    }
+
+    //Copy with the same risk factors, rows and values
+    public SensitivityStore(SensitivityStore other) {
+        this.numberOfColumns = other.numberOfColumns;
+        this.size = other.size;
+        this.riskFactorIdColumn = other.riskFactorIdColumn.clone();
+        this.bucketColumn = other.bucketColumn.clone();
+        this.columns = new double[numberOfColumns][];
+        for (int column = 0; column < numberOfColumns; column++) {
+            this.columns[column] = other.columns[column].clone();
+        }
+        this.maximumBucket = other.maximumBucket;
+        this.tableKeys = other.tableKeys.clone();
+        this.tableRows = other.tableRows.clone();
+    }
+
+    //Id of the risk factor in the registry, assigned on first use
+    public int getRiskFactorId(String riskFactor) {
+        return riskFactorRegistry.getId(riskFactor);
+    }
+
+    public String getRiskFactor(int riskFactorId) {
+        return riskFactorRegistry.getName(riskFactorId);
+    }
+
+    public int getRow(String riskFactor, int bucket) {
+        return getRow(getRiskFactorId(riskFactor), bucket);
+    }
+
+    //Row of the (risk factor, bucket), added with zero values if not present
+    public int getRow(int riskFactorId, int bucket) {
+        if (bucket < 0) {
+            throw new IllegalArgumentException("Bucket non valido: " + bucket);
+        }
+        if (riskFactorId < 0) {
+            throw new IllegalArgumentException("Risk factor non valido: " + riskFactorId);
+        }
+
+        long key = ((long) riskFactorId << 32) | bucket;
+        int mask = tableKeys.length - 1;
+        int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (tableRows[slot] != 0) {
+            if (tableKeys[slot] == key) {
+                return tableRows[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int row = size++;
+        if (row == riskFactorIdColumn.length) {
+            int capacity = 2 * riskFactorIdColumn.length;
+            riskFactorIdColumn = Arrays.copyOf(riskFactorIdColumn, capacity);
+            bucketColumn = Arrays.copyOf(bucketColumn, capacity);
+            for (int column = 0; column < numberOfColumns; column++) {
+                columns[column] = Arrays.copyOf(columns[column], capacity);
+            }
+        }
+        riskFactorIdColumn[row] = riskFactorId;
+        bucketColumn[row] = bucket;
+        maximumBucket = Math.max(maximumBucket, bucket);
+
+        tableKeys[slot] = key;
+        tableRows[slot] = row + 1;
+        if (2 * size > tableKeys.length) {
+            rehash();
+        }
+        return row;
+    }
+
+    private void rehash() {
+        long[] oldKeys = tableKeys;
+        int[] oldRows = tableRows;
+        tableKeys = new long[2 * oldKeys.length];
+        tableRows = new int[2 * oldRows.length];
+        int mask = tableKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldRows[i] != 0) {
+                int slot = Long.hashCode(oldKeys[i] * 0x9E3779B97F4A7C15L) & mask;
+                while (tableRows[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                tableKeys[slot] = oldKeys[i];
+                tableRows[slot] = oldRows[i];
+            }
+        }
+    }
+
+    public void add(int row, int column, double value) {
+        columns[column][row] += value;
+    }
+
+    public void set(int row, int column, double value) {
+        columns[column][row] = value;
+    }
+
+    public double get(int row, int column) {
+        return columns[column][row];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRiskFactorId(int row) {
+        return riskFactorIdColumn[row];
+    }
+
+    public int getBucket(int row) {
+        return bucketColumn[row];
+    }
+
+    //Values of the column: the first size() entries are the rows of the store
+    public double[] getColumn(int column) {
+        return columns[column];
+    }
+
+    //Largest bucket in the store (-1 if empty): arrays by bucket have length getMaximumBucket() + 1
+    public int getMaximumBucket() {
+        return maximumBucket;
+    }
+
+    //Buckets with at least one row, ascending
+    public int[] getBuckets() {
+        boolean[] isPresent = new boolean[maximumBucket + 1];
+        int numberOfBuckets = 0;
+        for (int row = 0; row < size; row++) {
+            if (!isPresent[bucketColumn[row]]) {
+                isPresent[bucketColumn[row]] = true;
+                numberOfBuckets++;
+            }
+        }
+
+        int[] buckets = new int[numberOfBuckets];
+        for (int bucket = 0, i = 0; bucket <= maximumBucket; bucket++) {
+            if (isPresent[bucket]) {
+                buckets[i++] = bucket;
+            }
+        }
+        return buckets;
+    }
+
+    //Rows grouped by bucket (counting sort, insertion order within a bucket):
+    //the rows of bucket b are rows[offsets[b]] ... rows[offsets[b + 1] - 1]
+    public int[] getBucketOffsets() {
+        int[] offsets = new int[maximumBucket + 2];
+        for (int row = 0; row < size; row++) {
+            offsets[bucketColumn[row] + 1]++;
+        }
+        for (int bucket = 0; bucket <= maximumBucket; bucket++) {
+            offsets[bucket + 1] += offsets[bucket];
+        }
+        return offsets;
+    }
+
+    //Sum of the column over the rows of each bucket (array indexed by bucket), in one pass over the rows
+    public double[] getBucketSums(int column) {
+        double[] sums = new double[maximumBucket + 1];
+        double[] values = columns[column];
+        for (int row = 0; row < size; row++) {
+            sums[bucketColumn[row]] += values[row];
+        }
+        return sums;
+    }
+
+    public int[] getRowsByBucket(int[] offsets) {
+        int[] next = Arrays.copyOf(offsets, offsets.length);
+        int[] rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[next[bucketColumn[row]]++] = row;
+        }
+        return rows;
+    }
+
+    //Values of the column grouped by bucket: the values of bucket b are values[offsets[b]] ... values[offsets[b + 1] - 1]
+    public double[] getColumnByBucket(int column, int[] offsets) {
+        int[] next = Arrays.copyOf(offsets, offsets.length);
+        double[] values = new double[size];
+        for (int row = 0; row < size; row++) {
+            values[next[bucketColumn[row]]++] = columns[column][row];
+        }
+        return values;
+    }
+
+
+    //Conversions from and to the nested maps (risk factor -> bucket -> value) used by the map based API
+
+    public static SensitivityStore fromMap(Map<String, Map<Integer, Double>> sensitivities) {
+        SensitivityStore store = new SensitivityStore(2);
+        sensitivities.forEach((riskFactor, bucketMap) ->
+                bucketMap.forEach((bucket, value) -> store.add(store.getRow(riskFactor, bucket), SENSITIVITY, value)));
+        return store;
+    }
+
+    public static SensitivityStore fromCurvatureMap(Map<String, Map<Integer, Double[]>> curvatureRisk) {
+        SensitivityStore store = new SensitivityStore(2);
+        curvatureRisk.forEach((riskFactor, bucketMap) ->
+                bucketMap.forEach((bucket, values) -> {
+                    int row = store.getRow(riskFactor, bucket);
+                    store.add(row, CVR_PLUS, values[0]);
+                    store.add(row, CVR_MINUS, values[1]);
+                }));
+        return store;
+    }
+
+    public Map<String, Map<Integer, Double>> toMap(int column) {
+        Map<String, Map<Integer, Double>> sensitivities = new LinkedHashMap<>();
+        for (int row = 0; row < size; row++) {
+            sensitivities.computeIfAbsent(getRiskFactor(riskFactorIdColumn[row]), k -> new LinkedHashMap<>())
+                    .put(bucketColumn[row], columns[column][row]);
+        }
+        return sensitivities;
+    }
+
+    public Map<String, Map<Integer, Double[]>> toCurvatureMap() {
+        Map<String, Map<Integer, Double[]>> curvatureRisk = new LinkedHashMap<>();
+        for (int row = 0; row < size; row++) {
+            curvatureRisk.computeIfAbsent(getRiskFactor(riskFactorIdColumn[row]), k -> new LinkedHashMap<>())
+                    .put(bucketColumn[row], new Double[]{columns[CVR_PLUS][row], columns[CVR_MINUS][row]});
+        }
+        return curvatureRisk;
+    }
+}
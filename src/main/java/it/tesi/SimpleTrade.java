@@ -0,0 +1,291 @@
+package it.tesi;
+
+//Trade holding its own fields, e.g. the trades of the streaming parser and of the benchmarks.
+//The trades of a TradeBook are views on its columns instead (TradeBook.get).
+public class SimpleTrade extends Trade {
+    private String portfolio;
+    private int dealNumber;
+    private String assetType;
+    private String optionStyle;
+    //Ids of the RiskFactorRegistry (-1 = no risk factor)
+    private int riskFactorDeltaId = -1;
+    private int riskFactorVegaId = -1;
+    private int riskFactorRepoId = -1;
+    private int riskFactorVegaTenorsId = -1;
+    private int riskFactorRateTenorsId = -1;
+    private int rateBucket = -1;
+    private String underlying;
+    private int bucket;
+    private double optionType;
+    private String currency;
+    private double amount;
+    private double volatility;
+    private double[] strikes;
+    private double underlyingPrice;
+    private double maturity;
+    private double[] exerciseDates;
+    private double riskFreeRate;
+    //Repo rate / continuous dividend yield of the underlying
+    private double repoRate;
+    private double value;
+    private double delta;
+    private double vega;
+    private double curvatureRiskPlus;
+    private double curvatureRiskMinus;
+    private double valueStandardError;
+    private double deltaStandardError;
+    private double vegaStandardError;
+    //Vega of each regulatory tenor (null = not priced yet)
+    private double[] vegaByTenor;
+    //dV/dr and dV/dq (sensitivities to a 1bp move of the rate and of the repo rate, divided by 0.0001)
+    private double rateDelta;
+    private double repoDelta;
+
+
+    public SimpleTrade(String portfolio, int dealNumber, String assetType, String optionStyle,
+                       String riskFactorDelta, String riskFactorVega, String underlying, int bucket, double optionType, String currency,
+                       double amount, double volatility, double[] strikes,
+                       double underlyingPrice, double maturity, double[] exerciseDates, double riskFreeRate,
+                       double value, double delta, double vega, double curvatureRiskPlus, double curvatureRiskMinus) {
+        this(portfolio, dealNumber, assetType, optionStyle, riskFactorDelta, riskFactorVega, underlying, bucket, optionType, currency,
+                amount, volatility, strikes, underlyingPrice, maturity, exerciseDates, riskFreeRate, 0.0,
+                value, delta, vega, curvatureRiskPlus, curvatureRiskMinus);
+    }
+
+    public SimpleTrade(String portfolio, int dealNumber, String assetType, String optionStyle,
+                       String riskFactorDelta, String riskFactorVega, String underlying, int bucket, double optionType, String currency,
+                       double amount, double volatility, double[] strikes,
+                       double underlyingPrice, double maturity, double[] exerciseDates, double riskFreeRate, double repoRate,
+                       double value, double delta, double vega, double curvatureRiskPlus, double curvatureRiskMinus) {
+        this(portfolio, dealNumber, assetType, optionStyle,
+                RiskFactorRegistry.getDefault().getId(riskFactorDelta), RiskFactorRegistry.getDefault().getId(riskFactorVega),
+                underlying, bucket, optionType, currency, amount, volatility, strikes, underlyingPrice, maturity, exerciseDates,
+                riskFreeRate, repoRate, value, delta, vega, curvatureRiskPlus, curvatureRiskMinus);
+    }
+
+    //Risk factors as ids of the RiskFactorRegistry; the repo, implied volatility tenors and rate ids are registered from
+    //asset type, underlying and currency (RiskFactorRegistry.getTradeRiskFactors)
+    public SimpleTrade(String portfolio, int dealNumber, String assetType, String optionStyle,
+                       int riskFactorDeltaId, int riskFactorVegaId, String underlying, int bucket, double optionType, String currency,
+                       double amount, double volatility, double[] strikes,
+                       double underlyingPrice, double maturity, double[] exerciseDates, double riskFreeRate, double repoRate,
+                       double value, double delta, double vega, double curvatureRiskPlus, double curvatureRiskMinus) {
+        this.portfolio = portfolio;
+        this.dealNumber = dealNumber;
+        this.assetType = assetType;
+        this.optionStyle = optionStyle;
+        this.riskFactorDeltaId = riskFactorDeltaId;
+        this.riskFactorVegaId = riskFactorVegaId;
+        RiskFactorRegistry.TradeRiskFactors tradeRiskFactors = RiskFactorRegistry.getDefault().getTradeRiskFactors(assetType, underlying, currency);
+        this.riskFactorRepoId = tradeRiskFactors.getRepoId();
+        this.riskFactorVegaTenorsId = tradeRiskFactors.getVolatilityTenorsId();
+        this.riskFactorRateTenorsId = tradeRiskFactors.getRateTenorsId();
+        this.rateBucket = tradeRiskFactors.getRateBucket();
+        this.underlying = underlying;
+        this.bucket = bucket;
+        this.optionType = optionType;
+        this.currency = currency;
+        this.amount = amount;
+        this.volatility = volatility;
+        this.strikes = strikes;
+        this.underlyingPrice = underlyingPrice;
+        this.maturity = maturity;
+        this.exerciseDates = exerciseDates;
+        this.riskFreeRate = riskFreeRate;
+        this.repoRate = repoRate;
+        this.value = value;
+        this.delta = delta;
+        this.vega = vega;
+        this.curvatureRiskPlus = curvatureRiskPlus;
+        this.curvatureRiskMinus = curvatureRiskMinus;
+    }
+
+    @Override
+    public String getPortfolio() {
+        return portfolio;
+    }
+
+    @Override
+    public int getDealNumber() {
+        return dealNumber;
+    }
+
+    @Override
+    public String getAssetType() {
+        return assetType;
+    }
+
+    @Override
+    public String getOptionStyle() {
+        return optionStyle;
+    }
+
+    @Override
+    public int getRiskFactorDeltaId() {
+        return riskFactorDeltaId;
+    }
+
+    @Override
+    public int getRiskFactorVegaId() {
+        return riskFactorVegaId;
+    }
+
+    @Override
+    public int getRiskFactorRepoId() {
+        return riskFactorRepoId;
+    }
+
+    @Override
+    public int getRiskFactorVegaTenorsId() {
+        return riskFactorVegaTenorsId;
+    }
+
+    @Override
+    public int getRiskFactorRateTenorsId() {
+        return riskFactorRateTenorsId;
+    }
+
+    @Override
+    public int getRateBucket() {
+        return rateBucket;
+    }
+
+    @Override
+    public String getUnderlying() {
+        return underlying;
+    }
+
+    @Override
+    public int getBucket() {
+        return bucket;
+    }
+
+    @Override
+    public double getOptionType() {
+        return optionType;
+    }
+
+    @Override
+    public String getCurrency() {
+        return currency;
+    }
+
+    @Override
+    public double getAmount() {
+        return amount;
+    }
+
+    @Override
+    public double getVolatility() {
+        return volatility;
+    }
+
+    @Override
+    public double[] getStrikes() {
+        return strikes;
+    }
+
+    @Override
+    public double getUnderlyingPrice() {
+        return underlyingPrice;
+    }
+
+    @Override
+    public double getMaturity() {
+        return maturity;
+    }
+
+    @Override
+    public double[] getExerciseDates() {
+        return exerciseDates;
+    }
+
+    @Override
+    public double getRiskFreeRate() {
+        return riskFreeRate;
+    }
+
+    @Override
+    public double getRepoRate() {
+        return repoRate;
+    }
+
+    @Override
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public double getDelta() {
+        return delta;
+    }
+
+    @Override
+    public double getVega() {
+        return vega;
+    }
+
+    @Override
+    public double getCurvatureRiskPlus() {
+        return curvatureRiskPlus;
+    }
+
+    @Override
+    public double getCurvatureRiskMinus() {
+        return curvatureRiskMinus;
+    }
+
+    @Override
+    public void setCurvatureRisk(double plus, double minus) {
+        this.curvatureRiskPlus = plus;
+        this.curvatureRiskMinus = minus;
+    }
+
+    @Override
+    public void setStandardErrors(double valueStandardError, double deltaStandardError, double vegaStandardError) {
+        this.valueStandardError = valueStandardError;
+        this.deltaStandardError = deltaStandardError;
+        this.vegaStandardError = vegaStandardError;
+    }
+
+    @Override
+    public double[] getVegaByTenor() {
+        return vegaByTenor;
+    }
+
+    @Override
+    public void setVegaByTenor(double[] vegaByTenor) {
+        this.vegaByTenor = vegaByTenor;
+    }
+
+    @Override
+    public double getRateDelta() {
+        return rateDelta;
+    }
+
+    @Override
+    public double getRepoDelta() {
+        return repoDelta;
+    }
+
+    @Override
+    public void setRateAndRepoDelta(double rateDelta, double repoDelta) {
+        this.rateDelta = rateDelta;
+        this.repoDelta = repoDelta;
+    }
+
+    @Override
+    public double getValueStandardError() {
+        return valueStandardError;
+    }
+
+    @Override
+    public double getDeltaStandardError() {
+        return deltaStandardError;
+    }
+
+    @Override
+    public double getVegaStandardError() {
+        return vegaStandardError;
+    }
+}
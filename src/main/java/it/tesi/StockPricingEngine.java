@@ -0,0 +1,22 @@
+package it.tesi;
+
+public class StockPricingEngine implements PricingEngine {
+
+    @Override
+    public String getName() {
+        return "Stock";
+    }
+
+    @Override
+    public PricingResult calculate(Trade trade) {
+        double value = trade.getUnderlyingPrice();
+
+        return new PricingResult(value, value, 0.0,
+                String.format("Value: %.6f | Delta: %.6f | Vega: %.6f\n", value, value, 0.0));
+    }
+
+    @Override
+    public double getValue(Trade trade, double underlyingPrice) {
+        return underlyingPrice;
+    }
+}
@@ -0,0 +1,268 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+//Streaming ingestion of a trade CSV: a reader thread parses the records into batches of batchSize trades and passes
+//them through a bounded queue to numberOfThreads pricing workers (greeks and curvature revaluations); the calling
+//thread adds the priced batches to the net delta, vega, repo, rate and curvature stores and drops them.
+//Pricing starts with the first batch and at most maximumBatchesInFlight batches are read and not yet added
+//(the reader waits otherwise), so the memory does not depend on the size of the file.
+//The batches are added in file order: the stores are the same as the ones of the list based pipeline.
+public class StreamingTradePipeline {
+
+    private final AADPricer pricer;
+    private final CurvatureRiskCalculator curvatureRiskCalculator;
+    private int batchSize = 1000;
+    private int numberOfThreads = 1;
+    private int maximumBatchesInFlight = 4;
+
+
+    public StreamingTradePipeline(AADPricer pricer, CurvatureRiskCalculator curvatureRiskCalculator) {
+        this.pricer = pricer;
+        this.curvatureRiskCalculator = curvatureRiskCalculator;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("La dimensione dei batch deve essere positiva: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    //Number of pricing workers
+    public void setNumberOfThreads(int numberOfThreads) {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Il numero di thread deve essere positivo: " + numberOfThreads);
+        }
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    //Batches read and not yet added to the stores (back-pressure on the reader)
+    public void setMaximumBatchesInFlight(int maximumBatchesInFlight) {
+        if (maximumBatchesInFlight < 1) {
+            throw new IllegalArgumentException("Il numero di batch in coda deve essere positivo: " + maximumBatchesInFlight);
+        }
+        this.maximumBatchesInFlight = maximumBatchesInFlight;
+    }
+
+    public int getMaximumBatchesInFlight() {
+        return maximumBatchesInFlight;
+    }
+
+    public Result process(InputStream inputStream) throws CalculationException {
+        try {
+            return process(CsvParser.streamCsvTrade(inputStream));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Trades of any source (CSV, TradeSnapshot.stream()); the stream is closed by the reader
+    public Result process(Stream<Trade> trades) throws CalculationException {
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(maximumBatchesInFlight + numberOfThreads);
+        BlockingQueue<Batch> pricedBatches = new LinkedBlockingQueue<>();
+        Semaphore batchesInFlight = new Semaphore(maximumBatchesInFlight);
+
+        //Own pool for the run: the reader and the workers loop until the end of the stream and would hold the workers
+        //of an executor shared with the pricer
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads + 1);
+        try {
+            executor.execute(() -> read(trades, batches, pricedBatches, batchesInFlight));
+            for (int i = 0; i < numberOfThreads; i++) {
+                executor.execute(() -> price(batches, pricedBatches));
+            }
+            return merge(pricedBatches, batchesInFlight);
+        } finally {
+            //Stops the reader and the workers also when a batch has failed
+            executor.shutdownNow();
+        }
+    }
+
+    //Reader: batches of the file, then one end of input marker per worker and the number of batches for the merge
+    private void read(Stream<Trade> trades, BlockingQueue<Batch> batches, BlockingQueue<Batch> pricedBatches, Semaphore batchesInFlight) {
+        int numberOfBatches = 0;
+        try (trades) {
+            List<Trade> batch = new ArrayList<>(batchSize);
+            for (Iterator<Trade> iterator = trades.iterator(); iterator.hasNext(); ) {
+                batch.add(iterator.next());
+                if (batch.size() == batchSize || !iterator.hasNext()) {
+                    batchesInFlight.acquire();
+                    batches.put(new Batch(numberOfBatches++, batch, null));
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            for (int i = 0; i < numberOfThreads; i++) {
+                batches.put(Batch.END_OF_INPUT);
+            }
+            pricedBatches.put(new Batch(numberOfBatches, null, null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            //Also an Error (e.g. OutOfMemoryError) is passed to the merge, which would wait forever otherwise
+            pricedBatches.add(new Batch(numberOfBatches, null, e));
+        }
+    }
+
+    //Worker: greeks of every trade of the batch and CVR+ and CVR- of the options
+    private void price(BlockingQueue<Batch> batches, BlockingQueue<Batch> pricedBatches) {
+        int sequence = -1;
+        try {
+            for (Batch batch = batches.take(); batch != Batch.END_OF_INPUT; batch = batches.take()) {
+                sequence = batch.sequence;
+                //Results written in place into the columns of the batch
+                TradeBook book = TradeBook.of(batch.trades);
+                for (int i = 0; i < book.size(); i++) {
+                    pricer.calculateGreeks(book, i);
+                    if (book.get(i).getAssetType().equalsIgnoreCase("Option")) {
+                        double[] contribution = curvatureRiskCalculator.calculateContribution(book.get(i));
+                        book.setCurvatureRisk(i, contribution[0], contribution[1]);
+                    }
+                }
+                pricedBatches.put(new Batch(batch.sequence, book.asList(), null));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            pricedBatches.add(new Batch(sequence, null, e));
+        }
+    }
+
+    //Adds the priced batches to the stores in file order, releasing a batch to the reader for each one added
+    private Result merge(BlockingQueue<Batch> pricedBatches, Semaphore batchesInFlight) throws CalculationException {
+        Result result = new Result();
+        Map<Integer, Batch> pendingBatches = new HashMap<>();
+        int numberOfBatches = -1;
+        int nextSequence = 0;
+
+        try {
+            while (numberOfBatches < 0 || nextSequence < numberOfBatches) {
+                Batch batch = pricedBatches.take();
+                if (batch.failure != null) {
+                    throw getException(batch.failure);
+                }
+                if (batch.trades == null) {
+                    numberOfBatches = batch.sequence;
+                    continue;
+                }
+
+                pendingBatches.put(batch.sequence, batch);
+                for (Batch next = pendingBatches.remove(nextSequence); next != null; next = pendingBatches.remove(nextSequence)) {
+                    next.trades.forEach(result::add);
+                    nextSequence++;
+                    batchesInFlight.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CalculationException(e);
+        }
+
+        result.numberOfBatches = nextSequence;
+        return result;
+    }
+
+    private static CalculationException getException(Throwable failure) {
+        if (failure instanceof CalculationException) {
+            return (CalculationException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new CalculationException(failure);
+    }
+
+
+    //Batch of trades in file order (sequence); trades == null is the number of batches of the file (sequence)
+    private static final class Batch {
+        private static final Batch END_OF_INPUT = new Batch(-1, List.of(), null);
+
+        private final int sequence;
+        private final List<Trade> trades;
+        private final Throwable failure;
+
+        private Batch(int sequence, List<Trade> trades, Throwable failure) {
+            this.sequence = sequence;
+            this.trades = trades;
+            this.failure = failure;
+        }
+    }
+
+    //Net sensitivities and curvature risk of the file
+    public static final class Result {
+        private final SensitivityStore netSensitivitiesDelta = new SensitivityStore(2);
+        private final SensitivityStore netSensitivitiesVega = new SensitivityStore(2);
+        private final SensitivityStore netSensitivitiesRepo = new SensitivityStore(2);
+        private final SensitivityStore netSensitivitiesRate = new SensitivityStore(2);
+        private final SensitivityStore curvatureRisk = new SensitivityStore(2);
+        private long numberOfTrades;
+        private int numberOfBatches;
+
+        private void add(Trade trade) {
+            SensitivityAggregator.addNetSensitivityDelta(netSensitivitiesDelta, trade);
+            SensitivityAggregator.addNetSensitivityVega(netSensitivitiesVega, trade);
+            SensitivityAggregator.addNetSensitivityRepo(netSensitivitiesRepo, trade);
+            SensitivityAggregator.addNetSensitivityRate(netSensitivitiesRate, trade);
+            if (trade.getAssetType().equalsIgnoreCase("Option")) {
+                int row = curvatureRisk.getRow(trade.getRiskFactorDeltaId(), trade.getBucket());
+                curvatureRisk.add(row, SensitivityStore.CVR_PLUS, trade.getCurvatureRiskPlus());
+                curvatureRisk.add(row, SensitivityStore.CVR_MINUS, trade.getCurvatureRiskMinus());
+            }
+            numberOfTrades++;
+        }
+
+        public SensitivityStore getNetSensitivitiesDelta() {
+            return netSensitivitiesDelta;
+        }
+
+        public SensitivityStore getNetSensitivitiesVega() {
+            return netSensitivitiesVega;
+        }
+
+        public SensitivityStore getNetSensitivitiesRepo() {
+            return netSensitivitiesRepo;
+        }
+
+        public SensitivityStore getNetSensitivitiesRate() {
+            return netSensitivitiesRate;
+        }
+
+        public SensitivityStore getCurvatureRisk() {
+            return curvatureRisk;
+        }
+
+        public long getNumberOfTrades() {
+            return numberOfTrades;
+        }
+
+        public int getNumberOfBatches() {
+            return numberOfBatches;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package it.tesi;
+
+import net.finmath.exception.CalculationException;
+import net.finmath.montecarlo.BrownianMotion;
+import net.finmath.montecarlo.assetderivativevaluation.AssetModelMonteCarloSimulationModel;
+import net.finmath.stochastic.RandomVariable;
+import net.finmath.time.TimeDiscretization;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Map;
+
+// Black-Scholes paths with an implied volatility term structure: one volatility node per regulatory tenor
+// (VolatilityInterpolator.getRegulatoryTenors()), interpolated linearly in time and flat outside the tenors.
+// With w(t) = sigma(t)^2 * t the total implied variance, each step of the time discretization is simulated exactly
+// with the forward variance of the step:
+//
+//     log S(t_j+1) = log S(t_j) + (r - q - v_j / 2) * dt + sqrt(v_j) * dW_j,     v_j = (w(t_j+1) - w(t_j)) / dt
+//
+// (q the repo rate or dividend yield, which lowers the drift and not the discounting), so the European value at T
+// depends only on sigma(T), as with the Black-Scholes formula. With the nodes created as AAD inputs, one backward
+// sweep gives dV/dsigma_k of every tenor, and dV/dr, dV/dq if r and q are inputs too.
+// With all nodes equal to sigma and q = 0 the paths are those of BlackScholesModel. Numeraire, times and weights are
+// the ones of the model on the same Brownian motion (the numeraire depends on the same rate input).
+public class TermStructureAssetModel implements AssetModelMonteCarloSimulationModel {
+
+    private final AssetModelMonteCarloSimulationModel model;
+    private final BrownianMotion brownianMotion;
+    private final RandomVariable initialValue;
+    private final RandomVariable riskFreeRate;
+    private final RandomVariable repoRate;
+    private final RandomVariable[] volatilities;
+
+    //Martingale part sum sqrt(v_j) * dW_j and asset values, built up to the largest time index requested
+    private RandomVariable[] diffusions;
+    private RandomVariable[] assetValues;
+
+
+    public TermStructureAssetModel(AssetModelMonteCarloSimulationModel model, BrownianMotion brownianMotion,
+                                   RandomVariable initialValue, RandomVariable riskFreeRate, RandomVariable repoRate,
+                                   RandomVariable[] volatilities) {
+        if (volatilities.length != VolatilityInterpolator.getRegulatoryTenors().length) {
+            throw new IllegalArgumentException("Servono " + VolatilityInterpolator.getRegulatoryTenors().length
+                    + " nodi di volatilità, trovati " + volatilities.length);
+        }
+        this.model = model;
+        this.brownianMotion = brownianMotion;
+        this.initialValue = initialValue;
+        this.riskFreeRate = riskFreeRate;
+        this.repoRate = repoRate;
+        this.volatilities = volatilities;
+    }
+
+    @Override
+    public synchronized RandomVariable getAssetValue(int timeIndex, int assetIndex) throws CalculationException {
+        if (assetValues == null) {
+            assetValues = new RandomVariable[getTimeDiscretization().getNumberOfTimes()];
+            diffusions = new RandomVariable[assetValues.length];
+            diffusions[0] = brownianMotion.getRandomVariableForConstant(0.0);
+        }
+        if (assetValues[timeIndex] == null) {
+            for (int j = 1; j <= timeIndex; j++) {
+                if (diffusions[j] == null) {
+                    double dt = getTime(j) - getTime(j - 1);
+                    RandomVariable variance = getTotalVariance(getTime(j)).sub(getTotalVariance(getTime(j - 1))).div(dt).floor(0.0);
+                    diffusions[j] = diffusions[j - 1].add(brownianMotion.getBrownianIncrement(j - 1, 0).mult(variance.sqrt()));
+                }
+            }
+            double time = getTime(timeIndex);
+            RandomVariable logReturn = riskFreeRate.sub(repoRate).mult(time).sub(getTotalVariance(time).div(2.0)).add(diffusions[timeIndex]);
+            assetValues[timeIndex] = initialValue.mult(logReturn.exp());
+        }
+        return assetValues[timeIndex];
+    }
+
+    @Override
+    public RandomVariable getAssetValue(double time, int assetIndex) throws CalculationException {
+        int timeIndex = getTimeIndex(time);
+        if (timeIndex < 0) {
+            throw new IllegalArgumentException("Il tempo " + time + " non appartiene alla discretizzazione temporale.");
+        }
+        return getAssetValue(timeIndex, assetIndex);
+    }
+
+    //w(t) = sigma(t)^2 * t, sigma(t) interpolated between the nodes
+    private RandomVariable getTotalVariance(double time) {
+        double[] weights = VolatilityInterpolator.getInterpolationWeights(time);
+        RandomVariable volatility = null;
+        for (int k = 0; k < weights.length; k++) {
+            if (weights[k] != 0.0) {
+                RandomVariable weightedNode = volatilities[k].mult(weights[k]);
+                volatility = volatility == null ? weightedNode : volatility.add(weightedNode);
+            }
+        }
+        return volatility.squared().mult(time);
+    }
+
+    @Override
+    public int getNumberOfAssets() {
+        return model.getNumberOfAssets();
+    }
+
+    @Override
+    public RandomVariable getNumeraire(int timeIndex) throws CalculationException {
+        return model.getNumeraire(timeIndex);
+    }
+
+    @Override
+    public RandomVariable getNumeraire(double time) throws CalculationException {
+        return model.getNumeraire(time);
+    }
+
+    @Override
+    public RandomVariable getMonteCarloWeights(int timeIndex) throws CalculationException {
+        return model.getMonteCarloWeights(timeIndex);
+    }
+
+    @Override
+    public RandomVariable getMonteCarloWeights(double time) throws CalculationException {
+        return model.getMonteCarloWeights(time);
+    }
+
+    @Override
+    public int getNumberOfPaths() {
+        return model.getNumberOfPaths();
+    }
+
+    @Override
+    public LocalDateTime getReferenceDate() {
+        return model.getReferenceDate();
+    }
+
+    @Override
+    public TimeDiscretization getTimeDiscretization() {
+        return model.getTimeDiscretization();
+    }
+
+    @Override
+    public double getTime(int timeIndex) {
+        return model.getTime(timeIndex);
+    }
+
+    @Override
+    public int getTimeIndex(double time) {
+        return model.getTimeIndex(time);
+    }
+
+    @Override
+    public RandomVariable getRandomVariableForConstant(double value) {
+        return model.getRandomVariableForConstant(value);
+    }
+
+    //The keys of BlackScholesModel (initialValue, riskFreeRate, volatility) modify both the base model and the paths of
+    //this model, a volatility sets all the nodes to the same value. repoRate modifies the drift only.
+    @Override
+    public AssetModelMonteCarloSimulationModel getCloneWithModifiedData(Map<String, Object> dataModified) throws CalculationException {
+        RandomVariable newInitialValue = getRandomVariable(dataModified.get("initialValue"), initialValue);
+        RandomVariable newRiskFreeRate = getRandomVariable(dataModified.get("riskFreeRate"), riskFreeRate);
+        RandomVariable newRepoRate = getRandomVariable(dataModified.get("repoRate"), repoRate);
+        RandomVariable[] newVolatilities = volatilities;
+        if (dataModified.get("volatility") != null) {
+            newVolatilities = new RandomVariable[volatilities.length];
+            Arrays.fill(newVolatilities, getRandomVariable(dataModified.get("volatility"), null));
+        }
+        return new TermStructureAssetModel(model.getCloneWithModifiedData(dataModified), brownianMotion,
+                newInitialValue, newRiskFreeRate, newRepoRate, newVolatilities);
+    }
+
+    //The Brownian motion is cloned with the same seed of the base model, so the paths stay driven by its increments
+    @Override
+    public AssetModelMonteCarloSimulationModel getCloneWithModifiedSeed(int seed) throws CalculationException {
+        return new TermStructureAssetModel(model.getCloneWithModifiedSeed(seed), brownianMotion.getCloneWithModifiedSeed(seed),
+                initialValue, riskFreeRate, repoRate, volatilities);
+    }
+
+    private RandomVariable getRandomVariable(Object value, RandomVariable defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof RandomVariable) {
+            return (RandomVariable) value;
+        }
+        if (value instanceof Number) {
+            return model.getRandomVariableForConstant(((Number) value).doubleValue());
+        }
+        throw new IllegalArgumentException("Valore non valido per la modifica dei dati: " + value);
+    }
+}
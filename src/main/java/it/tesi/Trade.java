@@ -3,165 +3,121 @@ package it.tesi;
 import java.util.Arrays;
 import java.util.Locale;
 
-public class Trade {
-    private String portfolio;
-    private int dealNumber;
-    private String assetType;
-    private String optionStyle;
-    private String riskFactorDelta;
-    private String riskFactorVega;
-    private String underlying;
-    private int bucket;
-    private double optionType;
-    private String currency;
-    private double amount;
-    private double volatility;
-    private double[] strikes;
-    private double underlyingPrice;
-    private double maturity;
-    private double[] exerciseDates;
-    private double riskFreeRate;
-    private double value;
-    private double delta;
-    private double vega;
-    private double curvatureRiskPlus;
-    private double curvatureRiskMinus; 
-
-
-    public Trade(String portfolio, int dealNumber, String assetType, String optionStyle,
-                 String riskFactorDelta, String riskFactorVega, String underlying, int bucket, double optionType, String currency,
-                 double amount, double volatility, double[] strikes,
-                 double underlyingPrice, double maturity, double[] exerciseDates, double riskFreeRate,
-                 double value, double delta, double vega, double curvatureRiskPlus, double curvatureRiskMinus) { 
-        this.portfolio = portfolio;
-        this.dealNumber = dealNumber;
-        this.assetType = assetType;
-        this.optionStyle = optionStyle;
-        this.riskFactorDelta = riskFactorDelta;
-        this.riskFactorVega = riskFactorVega;
-        this.underlying = underlying;
-        this.bucket = bucket;
-        this.optionType = optionType;
-        this.currency = currency;
-        this.amount = amount;
-        this.volatility = volatility;
-        this.strikes = strikes;
-        this.underlyingPrice = underlyingPrice;
-        this.maturity = maturity;
-        this.exerciseDates = exerciseDates;
-        this.riskFreeRate = riskFreeRate;
-        this.value = value;
-        this.delta = delta;
-        this.vega = vega;
-        this.curvatureRiskPlus = curvatureRiskPlus;
-        this.curvatureRiskMinus = curvatureRiskMinus;
-    }
-    
-    public String getPortfolio() {
-        return portfolio;
-    }
-    
-    public int getDealNumber() {
-        return dealNumber;
-    }
-    
-    public String getAssetType() {
-        return assetType;
-    }
+//Terms, market data and results of a trade. No fields: SimpleTrade holds its own, the views of a TradeBook
+//(TradeBook.get) read and write the columns of the book.
+public abstract class Trade {
 
-    public String getOptionStyle() {
-        return optionStyle;
-    }
+    public abstract String getPortfolio();
+
+    public abstract int getDealNumber();
+
+    public abstract String getAssetType();
+
+    public abstract String getOptionStyle();
 
     public String getRiskFactorDelta() {
-        return riskFactorDelta;
+        return getRiskFactorName(getRiskFactorDeltaId());
     }
-    
+
     public String getRiskFactorVega() {
-        return riskFactorVega;
-    }
-    
-    public String getUnderlying() {
-        return underlying;
+        return getRiskFactorName(getRiskFactorVegaId());
     }
 
-    public int getBucket() {
-        return bucket;
-    }
+    //Ids used by the grouping of the sensitivities (the names are only rendered for the output)
+    public abstract int getRiskFactorDeltaId();
 
-    public double getOptionType() {
-        return optionType;
-    }
-    
-    public String getCurrency() {
-        return currency;
-    }
+    public abstract int getRiskFactorVegaId();
 
-    public double getAmount() {
-        return amount;
-    }
-    
-    public double getVolatility() {
-        return volatility;
-    }
+    //Repo rate of the underlying, implied volatilities of the underlying at the regulatory tenors (tenor k: id + k) and
+    //rates of the currency at the tenors of RiskFactorRegistry.getRateTenors() (tenor k: id + k), with the bucket of
+    //the currency: registered with the trade, so that the net sensitivities index them directly (-1 for the stocks)
+    public abstract int getRiskFactorRepoId();
 
-    public double[] getStrikes() {
-        return strikes;
-    }
-    
-    public double getUnderlyingPrice() {
-        return underlyingPrice;
-    }
+    public abstract int getRiskFactorVegaTenorsId();
 
-    public double getMaturity() {
-        return maturity;
-    }
+    public abstract int getRiskFactorRateTenorsId();
 
-    public double[] getExerciseDates() {
-        return exerciseDates;
-    }
+    public abstract int getRateBucket();
 
-    public double getRiskFreeRate() {
-        return riskFreeRate;
+    private static String getRiskFactorName(int riskFactorId) {
+        return riskFactorId < 0 ? null : RiskFactorRegistry.getDefault().getName(riskFactorId);
     }
 
-    public double getValue() {
-    	return value;
-    }
+    public abstract String getUnderlying();
 
-    public double getDelta() {
-        return delta;
-    }
+    public abstract int getBucket();
 
-    public double getVega() {
-        return vega;
-    }
-    
-	public double getCurvatureRiskPlus() {
-        return curvatureRiskPlus;
-    }
+    public abstract double getOptionType();
 
-    public double getCurvatureRiskMinus() {
-        return curvatureRiskMinus;
-    }
+    public abstract String getCurrency();
 
-    public void setCurvatureRisk(double plus, double minus) {
-        this.curvatureRiskPlus = plus;
-        this.curvatureRiskMinus = minus;
-    }
+    public abstract double getAmount();
+
+    public abstract double getVolatility();
+
+    public abstract double[] getStrikes();
+
+    public abstract double getUnderlyingPrice();
+
+    public abstract double getMaturity();
+
+    public abstract double[] getExerciseDates();
+
+    public abstract double getRiskFreeRate();
+
+    //Repo rate / continuous dividend yield of the underlying
+    public abstract double getRepoRate();
+
+    public abstract double getValue();
+
+    public abstract double getDelta();
+
+    public abstract double getVega();
+
+    public abstract double getCurvatureRiskPlus();
+
+    public abstract double getCurvatureRiskMinus();
+
+    public abstract void setCurvatureRisk(double plus, double minus);
+
+    //Monte Carlo standard errors of value, delta and vega (0 for deterministic engines)
+    public abstract void setStandardErrors(double valueStandardError, double deltaStandardError, double vegaStandardError);
+
+    //Vega allocated to the tenors of VolatilityInterpolator.getRegulatoryTenors() (null = not priced yet)
+    public abstract double[] getVegaByTenor();
+
+    public abstract void setVegaByTenor(double[] vegaByTenor);
+
+    //Sensitivities to the risk free rate (rate risk factors of the currency) and to the repo rate (repo risk factor):
+    //dV/dr and dV/dq, sensitivities to a 1bp move divided by 0.0001
+    public abstract double getRateDelta();
+
+    public abstract double getRepoDelta();
+
+    public abstract void setRateAndRepoDelta(double rateDelta, double repoDelta);
+
+    public abstract double getValueStandardError();
+
+    public abstract double getDeltaStandardError();
+
+    public abstract double getVegaStandardError();
 
 
 
     @Override
     public String toString() {
-        return String.format(Locale.US, 
+        return String.format(Locale.US,
                 "Trade [Portfolio=%s, DealNumber=%d, AssetType=%s, OptionStyle=%s, RiskFactorDelta=%s, " +
                 "RiskFactorVega=%s, Underlying=%s, Bucket=%d, OptionType=%.2f, Currency=%s, Amount=%.2f, " +
                 "Volatility=%.2f, Strikes=%s, UnderlyingPrice=%.2f, Maturity=%.6f, " +
-                "ExerciseDates=%s, RiskFreeRate=%.3f, Value =%.6f, Delta=%.6f, Vega=%.6f, " +
-                "CurvatureRiskPlus=%.6f, CurvatureRiskMinus=%.6f]",
-                portfolio, dealNumber, assetType, optionStyle, riskFactorDelta, riskFactorVega, underlying, bucket,
-                optionType, currency, amount, volatility, Arrays.toString(strikes), underlyingPrice, maturity,
-                Arrays.toString(exerciseDates), riskFreeRate, value, delta, vega, curvatureRiskPlus, curvatureRiskMinus);
+                "ExerciseDates=%s, RiskFreeRate=%.3f, RepoRate=%.3f, Value =%.6f, Delta=%.6f, Vega=%.6f, " +
+                "RateDelta=%.6f, RepoDelta=%.6f, " +
+                "CurvatureRiskPlus=%.6f, CurvatureRiskMinus=%.6f, ValueStdError=%.6f, DeltaStdError=%.6f, VegaStdError=%.6f]",
+                getPortfolio(), getDealNumber(), getAssetType(), getOptionStyle(), getRiskFactorDelta(), getRiskFactorVega(),
+                getUnderlying(), getBucket(), getOptionType(), getCurrency(), getAmount(), getVolatility(),
+                Arrays.toString(getStrikes()), getUnderlyingPrice(), getMaturity(), Arrays.toString(getExerciseDates()),
+                getRiskFreeRate(), getRepoRate(), getValue(), getDelta(), getVega(), getRateDelta(), getRepoDelta(),
+                getCurvatureRiskPlus(), getCurvatureRiskMinus(),
+                getValueStandardError(), getDeltaStandardError(), getVegaStandardError());
     }
 }
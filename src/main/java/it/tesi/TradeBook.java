@@ -0,0 +1,438 @@
+package it.tesi;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+//Trades stored by column: one primitive array per numeric field, the risk factors as ids of the RiskFactorRegistry and
+//int codes for the other strings (asset type, option style, underlying, ...), decoded by a dictionary of the book.
+//The engines see trade i through a view (get(i)), a Trade without fields whose getters read the columns, created on
+//demand: pricing and curvature write value, delta, vega, standard errors and CVR in place into the columns, without
+//copies of the trades. The parser and the snapshot write the fields of the trades directly into the columns.
+//The trades are added by a single thread before the pricing; afterwards the result columns of different trades can be
+//written by different threads.
+public class TradeBook {
+
+    //Double columns
+    private static final int OPTION_TYPE = 0;
+    private static final int AMOUNT = 1;
+    private static final int VOLATILITY = 2;
+    private static final int UNDERLYING_PRICE = 3;
+    private static final int MATURITY = 4;
+    private static final int RISK_FREE_RATE = 5;
+    private static final int VALUE = 6;
+    private static final int DELTA = 7;
+    private static final int VEGA = 8;
+    private static final int CVR_PLUS = 9;
+    private static final int CVR_MINUS = 10;
+    private static final int VALUE_STANDARD_ERROR = 11;
+    private static final int DELTA_STANDARD_ERROR = 12;
+    private static final int VEGA_STANDARD_ERROR = 13;
+    private static final int REPO_RATE = 14;
+    private static final int RATE_DELTA = 15;
+    private static final int REPO_DELTA = 16;
+    //Vega of the regulatory tenors, one column per tenor
+    private static final int VEGA_BY_TENOR = 17;
+    private static final int NUMBER_OF_TENORS = VolatilityInterpolator.getRegulatoryTenors().length;
+    private static final int DOUBLE_COLUMNS = VEGA_BY_TENOR + NUMBER_OF_TENORS;
+
+    //Int columns: risk factors as ids of the RiskFactorRegistry (first ids of the tenor blocks for the implied volatility
+    //and rate tenors), the ones from PORTFOLIO on as dictionary codes (-1 is null)
+    private static final int DEAL_NUMBER = 0;
+    private static final int BUCKET = 1;
+    private static final int RISK_FACTOR_DELTA = 2;
+    private static final int RISK_FACTOR_VEGA = 3;
+    private static final int RISK_FACTOR_REPO = 4;
+    private static final int RISK_FACTOR_VEGA_TENORS = 5;
+    private static final int RISK_FACTOR_RATE_TENORS = 6;
+    private static final int RATE_BUCKET = 7;
+    private static final int PORTFOLIO = 8;
+    private static final int ASSET_TYPE = 9;
+    private static final int OPTION_STYLE = 10;
+    private static final int UNDERLYING = 11;
+    private static final int CURRENCY = 12;
+    private static final int INT_COLUMNS = 13;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private double[][] doubleColumns;
+    private int[][] intColumns;
+    //Strike and exercise date arrays of the trades (shared with the added trades, not copied)
+    private double[][] strikes;
+    private double[][] exerciseDates;
+    private int size;
+
+
+    public TradeBook() {
+        this(16);
+    }
+
+    public TradeBook(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.doubleColumns = new double[DOUBLE_COLUMNS][capacity];
+        this.intColumns = new int[INT_COLUMNS][capacity];
+        this.strikes = new double[capacity][];
+        this.exerciseDates = new double[capacity][];
+    }
+
+    public static TradeBook of(Collection<Trade> trades) {
+        TradeBook book = new TradeBook(trades.size());
+        trades.forEach(book::add);
+        return book;
+    }
+
+    //Adds the fields and results of the trade, returns its index in the book
+    public int add(Trade trade) {
+        int i = add(trade.getPortfolio(), trade.getDealNumber(), trade.getAssetType(), trade.getOptionStyle(),
+                trade.getRiskFactorDeltaId(), trade.getRiskFactorVegaId(), trade.getRiskFactorRepoId(),
+                trade.getRiskFactorVegaTenorsId(), trade.getRiskFactorRateTenorsId(), trade.getRateBucket(),
+                trade.getUnderlying(), trade.getBucket(),
+                trade.getOptionType(), trade.getCurrency(), trade.getAmount(), trade.getVolatility(), trade.getStrikes(),
+                trade.getUnderlyingPrice(), trade.getMaturity(), trade.getExerciseDates(), trade.getRiskFreeRate(), trade.getRepoRate());
+        setGreeks(i, trade.getValue(), trade.getDelta(), trade.getVega());
+        setCurvatureRisk(i, trade.getCurvatureRiskPlus(), trade.getCurvatureRiskMinus());
+        setStandardErrors(i, trade.getValueStandardError(), trade.getDeltaStandardError(), trade.getVegaStandardError());
+        setRateAndRepoDelta(i, trade.getRateDelta(), trade.getRepoDelta());
+        if (trade.getVegaByTenor() != null) {
+            setVegaByTenor(i, trade.getVegaByTenor());
+        }
+        return i;
+    }
+
+    //Adds a trade from its fields, written directly into the columns (the results are zero), returns its index in the book.
+    //The risk factor ids are the ones of Trade (-1 = none).
+    public int add(String portfolio, int dealNumber, String assetType, String optionStyle, int riskFactorDeltaId, int riskFactorVegaId,
+                   int riskFactorRepoId, int riskFactorVegaTenorsId, int riskFactorRateTenorsId, int rateBucket, String underlying, int bucket, double optionType, String currency, double amount, double volatility, double[] strikes,
+                   double underlyingPrice, double maturity, double[] exerciseDates, double riskFreeRate, double repoRate) {
+        if (size == intColumns[0].length) {
+            int capacity = 2 * size;
+            for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+                doubleColumns[column] = Arrays.copyOf(doubleColumns[column], capacity);
+            }
+            for (int column = 0; column < INT_COLUMNS; column++) {
+                intColumns[column] = Arrays.copyOf(intColumns[column], capacity);
+            }
+            this.strikes = Arrays.copyOf(this.strikes, capacity);
+            this.exerciseDates = Arrays.copyOf(this.exerciseDates, capacity);
+        }
+
+        int i = size;
+        doubleColumns[OPTION_TYPE][i] = optionType;
+        doubleColumns[AMOUNT][i] = amount;
+        doubleColumns[VOLATILITY][i] = volatility;
+        doubleColumns[UNDERLYING_PRICE][i] = underlyingPrice;
+        doubleColumns[MATURITY][i] = maturity;
+        doubleColumns[RISK_FREE_RATE][i] = riskFreeRate;
+        doubleColumns[REPO_RATE][i] = repoRate;
+
+        intColumns[DEAL_NUMBER][i] = dealNumber;
+        intColumns[BUCKET][i] = bucket;
+        intColumns[RISK_FACTOR_DELTA][i] = riskFactorDeltaId;
+        intColumns[RISK_FACTOR_VEGA][i] = riskFactorVegaId;
+        intColumns[RISK_FACTOR_REPO][i] = riskFactorRepoId;
+        intColumns[RISK_FACTOR_VEGA_TENORS][i] = riskFactorVegaTenorsId;
+        intColumns[RISK_FACTOR_RATE_TENORS][i] = riskFactorRateTenorsId;
+        intColumns[RATE_BUCKET][i] = rateBucket;
+        intColumns[PORTFOLIO][i] = getCode(portfolio);
+        intColumns[ASSET_TYPE][i] = getCode(assetType);
+        intColumns[OPTION_STYLE][i] = getCode(optionStyle);
+        intColumns[UNDERLYING][i] = getCode(underlying);
+        intColumns[CURRENCY][i] = getCode(currency);
+
+        this.strikes[i] = strikes;
+        this.exerciseDates[i] = exerciseDates;
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //View of trade i, created at every call (the views have no state of their own: any of them reads the same columns)
+    public Trade get(int trade) {
+        if (trade < 0 || trade >= size) {
+            throw new IndexOutOfBoundsException(trade);
+        }
+        return new TradeView(trade);
+    }
+
+    //Views of all the trades, in book order
+    public List<Trade> asList() {
+        return new TradeList();
+    }
+
+    public double getValue(int trade) {
+        return doubleColumns[VALUE][trade];
+    }
+
+    public double getDelta(int trade) {
+        return doubleColumns[DELTA][trade];
+    }
+
+    public double getVega(int trade) {
+        return doubleColumns[VEGA][trade];
+    }
+
+    public void setGreeks(int trade, double value, double delta, double vega) {
+        doubleColumns[VALUE][trade] = value;
+        doubleColumns[DELTA][trade] = delta;
+        doubleColumns[VEGA][trade] = vega;
+    }
+
+    public void setStandardErrors(int trade, double valueStandardError, double deltaStandardError, double vegaStandardError) {
+        doubleColumns[VALUE_STANDARD_ERROR][trade] = valueStandardError;
+        doubleColumns[DELTA_STANDARD_ERROR][trade] = deltaStandardError;
+        doubleColumns[VEGA_STANDARD_ERROR][trade] = vegaStandardError;
+    }
+
+    public double[] getVegaByTenor(int trade) {
+        double[] vegaByTenor = new double[NUMBER_OF_TENORS];
+        for (int k = 0; k < NUMBER_OF_TENORS; k++) {
+            vegaByTenor[k] = doubleColumns[VEGA_BY_TENOR + k][trade];
+        }
+        return vegaByTenor;
+    }
+
+    public void setVegaByTenor(int trade, double[] vegaByTenor) {
+        for (int k = 0; k < NUMBER_OF_TENORS; k++) {
+            doubleColumns[VEGA_BY_TENOR + k][trade] = vegaByTenor[k];
+        }
+    }
+
+    public void setRateAndRepoDelta(int trade, double rateDelta, double repoDelta) {
+        doubleColumns[RATE_DELTA][trade] = rateDelta;
+        doubleColumns[REPO_DELTA][trade] = repoDelta;
+    }
+
+    public void setCurvatureRisk(int trade, double plus, double minus) {
+        doubleColumns[CVR_PLUS][trade] = plus;
+        doubleColumns[CVR_MINUS][trade] = minus;
+    }
+
+    private int getCode(String value) {
+        if (value == null) {
+            return -1;
+        }
+        return codes.computeIfAbsent(value, key -> {
+            dictionary.add(key);
+            return dictionary.size() - 1;
+        });
+    }
+
+    private String getString(int column, int trade) {
+        int code = intColumns[column][trade];
+        return code < 0 ? null : dictionary.get(code);
+    }
+
+
+    //Trade i of the book: only its index, every getter and setter goes to the columns
+    private final class TradeView extends Trade {
+        private final int index;
+
+        private TradeView(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getPortfolio() {
+            return getString(PORTFOLIO, index);
+        }
+
+        @Override
+        public int getDealNumber() {
+            return intColumns[DEAL_NUMBER][index];
+        }
+
+        @Override
+        public String getAssetType() {
+            return getString(ASSET_TYPE, index);
+        }
+
+        @Override
+        public String getOptionStyle() {
+            return getString(OPTION_STYLE, index);
+        }
+
+        @Override
+        public int getRiskFactorDeltaId() {
+            return intColumns[RISK_FACTOR_DELTA][index];
+        }
+
+        @Override
+        public int getRiskFactorVegaId() {
+            return intColumns[RISK_FACTOR_VEGA][index];
+        }
+
+        @Override
+        public int getRiskFactorRepoId() {
+            return intColumns[RISK_FACTOR_REPO][index];
+        }
+
+        @Override
+        public int getRiskFactorVegaTenorsId() {
+            return intColumns[RISK_FACTOR_VEGA_TENORS][index];
+        }
+
+        @Override
+        public int getRiskFactorRateTenorsId() {
+            return intColumns[RISK_FACTOR_RATE_TENORS][index];
+        }
+
+        @Override
+        public int getRateBucket() {
+            return intColumns[RATE_BUCKET][index];
+        }
+
+        @Override
+        public String getUnderlying() {
+            return getString(UNDERLYING, index);
+        }
+
+        @Override
+        public int getBucket() {
+            return intColumns[BUCKET][index];
+        }
+
+        @Override
+        public double getOptionType() {
+            return doubleColumns[OPTION_TYPE][index];
+        }
+
+        @Override
+        public String getCurrency() {
+            return getString(CURRENCY, index);
+        }
+
+        @Override
+        public double getAmount() {
+            return doubleColumns[AMOUNT][index];
+        }
+
+        @Override
+        public double getVolatility() {
+            return doubleColumns[VOLATILITY][index];
+        }
+
+        @Override
+        public double[] getStrikes() {
+            return strikes[index];
+        }
+
+        @Override
+        public double getUnderlyingPrice() {
+            return doubleColumns[UNDERLYING_PRICE][index];
+        }
+
+        @Override
+        public double getMaturity() {
+            return doubleColumns[MATURITY][index];
+        }
+
+        @Override
+        public double[] getExerciseDates() {
+            return exerciseDates[index];
+        }
+
+        @Override
+        public double getRiskFreeRate() {
+            return doubleColumns[RISK_FREE_RATE][index];
+        }
+
+        @Override
+        public double getRepoRate() {
+            return doubleColumns[REPO_RATE][index];
+        }
+
+        @Override
+        public double getValue() {
+            return doubleColumns[VALUE][index];
+        }
+
+        @Override
+        public double getDelta() {
+            return doubleColumns[DELTA][index];
+        }
+
+        @Override
+        public double getVega() {
+            return doubleColumns[VEGA][index];
+        }
+
+        @Override
+        public double getCurvatureRiskPlus() {
+            return doubleColumns[CVR_PLUS][index];
+        }
+
+        @Override
+        public double getCurvatureRiskMinus() {
+            return doubleColumns[CVR_MINUS][index];
+        }
+
+        @Override
+        public void setCurvatureRisk(double plus, double minus) {
+            TradeBook.this.setCurvatureRisk(index, plus, minus);
+        }
+
+        @Override
+        public void setStandardErrors(double valueStandardError, double deltaStandardError, double vegaStandardError) {
+            TradeBook.this.setStandardErrors(index, valueStandardError, deltaStandardError, vegaStandardError);
+        }
+
+        @Override
+        public double getRateDelta() {
+            return doubleColumns[RATE_DELTA][index];
+        }
+
+        @Override
+        public double getRepoDelta() {
+            return doubleColumns[REPO_DELTA][index];
+        }
+
+        @Override
+        public void setRateAndRepoDelta(double rateDelta, double repoDelta) {
+            TradeBook.this.setRateAndRepoDelta(index, rateDelta, repoDelta);
+        }
+
+        @Override
+        public double[] getVegaByTenor() {
+            return TradeBook.this.getVegaByTenor(index);
+        }
+
+        @Override
+        public void setVegaByTenor(double[] vegaByTenor) {
+            TradeBook.this.setVegaByTenor(index, vegaByTenor);
+        }
+
+        @Override
+        public double getValueStandardError() {
+            return doubleColumns[VALUE_STANDARD_ERROR][index];
+        }
+
+        @Override
+        public double getDeltaStandardError() {
+            return doubleColumns[DELTA_STANDARD_ERROR][index];
+        }
+
+        @Override
+        public double getVegaStandardError() {
+            return doubleColumns[VEGA_STANDARD_ERROR][index];
+        }
+    }
+
+    private final class TradeList extends AbstractList<Trade> implements RandomAccess {
+        @Override
+        public Trade get(int index) {
+            return TradeBook.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
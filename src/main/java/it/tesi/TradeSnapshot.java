@@ -0,0 +1,457 @@
+package it.tesi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+//Binary columnar snapshot of a trade file, written once from the CSV (CsvParser.writeSnapshot) and then mapped
+//read only by the following runs: the fields of a trade are read in place from the file, without parsing.
+//Layout (little endian):
+//  header       magic, version, trades n, strings m, strikes, exercise dates, string bytes, reserved (8 int)
+//  double       12 columns of n values (DOUBLE_COLUMNS), all strikes, all exercise dates
+//  int          9 columns of n values (INT_COLUMNS), strike offsets (n + 1), exercise date offsets (n + 1),
+//               string offsets (m + 1)
+//  byte         UTF-8 strings of the dictionary
+//The strings of a trade (portfolio, underlying, risk factors, ...) are ids into the dictionary, -1 is null.
+//The strikes of trade i are strikes[strikeOffsets[i] ... strikeOffsets[i + 1]), the same for the exercise dates.
+//The bucket is the one of the mapping in use when the snapshot was written.
+public class TradeSnapshot {
+
+    private static final int MAGIC = 0x54534E50;
+    //Version 2: repo rate column
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+
+    //Double columns
+    private static final int OPTION_TYPE = 0;
+    private static final int AMOUNT = 1;
+    private static final int VOLATILITY = 2;
+    private static final int UNDERLYING_PRICE = 3;
+    private static final int MATURITY = 4;
+    private static final int RISK_FREE_RATE = 5;
+    private static final int VALUE = 6;
+    private static final int DELTA = 7;
+    private static final int VEGA = 8;
+    private static final int CVR_PLUS = 9;
+    private static final int CVR_MINUS = 10;
+    private static final int REPO_RATE = 11;
+    private static final int DOUBLE_COLUMNS = 12;
+
+    //Int columns (the ones after BUCKET are dictionary ids)
+    private static final int DEAL_NUMBER = 0;
+    private static final int BUCKET = 1;
+    private static final int PORTFOLIO = 2;
+    private static final int ASSET_TYPE = 3;
+    private static final int OPTION_STYLE = 4;
+    private static final int RISK_FACTOR_DELTA = 5;
+    private static final int RISK_FACTOR_VEGA = 6;
+    private static final int UNDERLYING = 7;
+    private static final int CURRENCY = 8;
+    private static final int INT_COLUMNS = 9;
+
+    //Registry id of a dictionary id not looked up yet (getTradeBook)
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final ByteBuffer buffer;
+    private final int numberOfTrades;
+    private final String[] dictionary;
+    private final int strikesOffset;
+    private final int exerciseDatesOffset;
+    private final int intColumnsOffset;
+    private final int strikeOffsetsOffset;
+    private final int exerciseDateOffsetsOffset;
+
+
+    private TradeSnapshot(ByteBuffer buffer, String source) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("File di snapshot dei trade non valido: " + source);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Versione dello snapshot dei trade non supportata in " + source + ": " + buffer.getInt(4));
+        }
+
+        this.numberOfTrades = buffer.getInt(8);
+        int numberOfStrings = buffer.getInt(12);
+        int numberOfStrikes = buffer.getInt(16);
+        int numberOfExerciseDates = buffer.getInt(20);
+        int stringBytes = buffer.getInt(24);
+
+        this.strikesOffset = HEADER_BYTES + DOUBLE_COLUMNS * numberOfTrades * Double.BYTES;
+        this.exerciseDatesOffset = strikesOffset + numberOfStrikes * Double.BYTES;
+        this.intColumnsOffset = exerciseDatesOffset + numberOfExerciseDates * Double.BYTES;
+        this.strikeOffsetsOffset = intColumnsOffset + INT_COLUMNS * numberOfTrades * Integer.BYTES;
+        this.exerciseDateOffsetsOffset = strikeOffsetsOffset + (numberOfTrades + 1) * Integer.BYTES;
+        int stringOffsetsOffset = exerciseDateOffsetsOffset + (numberOfTrades + 1) * Integer.BYTES;
+        int stringsOffset = stringOffsetsOffset + (numberOfStrings + 1) * Integer.BYTES;
+        if (buffer.capacity() != stringsOffset + stringBytes) {
+            throw new IOException("File di snapshot dei trade troncato: " + source);
+        }
+
+        //The dictionary is small (distinct strings), it is decoded once
+        this.dictionary = new String[numberOfStrings];
+        for (int id = 0; id < numberOfStrings; id++) {
+            int from = buffer.getInt(stringOffsetsOffset + id * Integer.BYTES);
+            int to = buffer.getInt(stringOffsetsOffset + (id + 1) * Integer.BYTES);
+            byte[] bytes = new byte[to - from];
+            buffer.get(stringsOffset + from, bytes);
+            dictionary[id] = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    //Maps the snapshot read only (the mapping stays valid after the channel is closed)
+    public static TradeSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File di snapshot dei trade troppo grande (massimo 2 GB): " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new TradeSnapshot(buffer.order(ByteOrder.LITTLE_ENDIAN), file.toString());
+        }
+    }
+
+    //True if the file is a snapshot of the version written by this class (an older one has to be written again)
+    public static boolean isCurrentVersion(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header);
+            return !header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(4) == VERSION;
+        }
+    }
+
+    public int getNumberOfTrades() {
+        return numberOfTrades;
+    }
+
+    public int getDealNumber(int trade) {
+        return getInt(DEAL_NUMBER, trade);
+    }
+
+    public int getBucket(int trade) {
+        return getInt(BUCKET, trade);
+    }
+
+    public String getAssetType(int trade) {
+        return getString(ASSET_TYPE, trade);
+    }
+
+    public String getUnderlying(int trade) {
+        return getString(UNDERLYING, trade);
+    }
+
+    public String getRiskFactorDelta(int trade) {
+        return getString(RISK_FACTOR_DELTA, trade);
+    }
+
+    public String getRiskFactorVega(int trade) {
+        return getString(RISK_FACTOR_VEGA, trade);
+    }
+
+    public double getAmount(int trade) {
+        return getDouble(AMOUNT, trade);
+    }
+
+    public double getUnderlyingPrice(int trade) {
+        return getDouble(UNDERLYING_PRICE, trade);
+    }
+
+    public double getVolatility(int trade) {
+        return getDouble(VOLATILITY, trade);
+    }
+
+    public double getMaturity(int trade) {
+        return getDouble(MATURITY, trade);
+    }
+
+    public double getRepoRate(int trade) {
+        return getDouble(REPO_RATE, trade);
+    }
+
+    public double[] getStrikes(int trade) {
+        return getDoubles(strikesOffset, strikeOffsetsOffset, trade);
+    }
+
+    public double[] getExerciseDates(int trade) {
+        return getDoubles(exerciseDatesOffset, exerciseDateOffsetsOffset, trade);
+    }
+
+    //Trade object of the engines, built from the columns
+    public Trade getTrade(int trade) {
+        return new SimpleTrade(
+                getString(PORTFOLIO, trade),
+                getInt(DEAL_NUMBER, trade),
+                getString(ASSET_TYPE, trade),
+                getString(OPTION_STYLE, trade),
+                getString(RISK_FACTOR_DELTA, trade),
+                getString(RISK_FACTOR_VEGA, trade),
+                getString(UNDERLYING, trade),
+                getInt(BUCKET, trade),
+                getDouble(OPTION_TYPE, trade),
+                getString(CURRENCY, trade),
+                getDouble(AMOUNT, trade),
+                getDouble(VOLATILITY, trade),
+                getStrikes(trade),
+                getDouble(UNDERLYING_PRICE, trade),
+                getDouble(MATURITY, trade),
+                getExerciseDates(trade),
+                getDouble(RISK_FREE_RATE, trade),
+                getDouble(REPO_RATE, trade),
+                getDouble(VALUE, trade),
+                getDouble(DELTA, trade),
+                getDouble(VEGA, trade),
+                getDouble(CVR_PLUS, trade),
+                getDouble(CVR_MINUS, trade)
+        );
+    }
+
+    public List<Trade> getTrades() {
+        List<Trade> trades = new ArrayList<>(numberOfTrades);
+        for (int trade = 0; trade < numberOfTrades; trade++) {
+            trades.add(getTrade(trade));
+        }
+        return trades;
+    }
+
+    //Columns of the snapshot copied into the columns of a book, without Trade objects. The ids of the risk factor names
+    //are looked up once per dictionary id, not once per trade.
+    public TradeBook getTradeBook() {
+        RiskFactorRegistry registry = RiskFactorRegistry.getDefault();
+        int[] riskFactorIds = getUnknownIds();
+        TradeBook book = new TradeBook(numberOfTrades);
+        for (int trade = 0; trade < numberOfTrades; trade++) {
+            String assetType = getString(ASSET_TYPE, trade);
+            String underlying = getString(UNDERLYING, trade);
+            String currency = getString(CURRENCY, trade);
+            RiskFactorRegistry.TradeRiskFactors tradeRiskFactors = registry.getTradeRiskFactors(assetType, underlying, currency);
+            int i = book.add(
+                    getString(PORTFOLIO, trade),
+                    getInt(DEAL_NUMBER, trade),
+                    assetType,
+                    getString(OPTION_STYLE, trade),
+                    getRegistryId(riskFactorIds, RISK_FACTOR_DELTA, trade, registry::getId),
+                    getRegistryId(riskFactorIds, RISK_FACTOR_VEGA, trade, registry::getId),
+                    tradeRiskFactors.getRepoId(),
+                    tradeRiskFactors.getVolatilityTenorsId(),
+                    tradeRiskFactors.getRateTenorsId(),
+                    tradeRiskFactors.getRateBucket(),
+                    underlying,
+                    getInt(BUCKET, trade),
+                    getDouble(OPTION_TYPE, trade),
+                    currency,
+                    getDouble(AMOUNT, trade),
+                    getDouble(VOLATILITY, trade),
+                    getStrikes(trade),
+                    getDouble(UNDERLYING_PRICE, trade),
+                    getDouble(MATURITY, trade),
+                    getExerciseDates(trade),
+                    getDouble(RISK_FREE_RATE, trade),
+                    getDouble(REPO_RATE, trade));
+            book.setGreeks(i, getDouble(VALUE, trade), getDouble(DELTA, trade), getDouble(VEGA, trade));
+            book.setCurvatureRisk(i, getDouble(CVR_PLUS, trade), getDouble(CVR_MINUS, trade));
+        }
+        return book;
+    }
+
+    private int[] getUnknownIds() {
+        int[] ids = new int[dictionary.length];
+        Arrays.fill(ids, UNKNOWN);
+        return ids;
+    }
+
+    //Registry id of the string of the column, cached in ids by dictionary id (-1 for null)
+    private int getRegistryId(int[] ids, int column, int trade, ToIntFunction<String> registration) {
+        int code = getInt(column, trade);
+        if (code < 0) {
+            return -1;
+        }
+        if (ids[code] == UNKNOWN) {
+            ids[code] = registration.applyAsInt(dictionary[code]);
+        }
+        return ids[code];
+    }
+
+    //Trades built one at a time (for the streaming pipeline)
+    public Stream<Trade> stream() {
+        return IntStream.range(0, numberOfTrades).mapToObj(this::getTrade);
+    }
+
+    //Absolute reads: the buffer is shared by the threads without copies
+    private double getDouble(int column, int trade) {
+        return buffer.getDouble(HEADER_BYTES + (column * numberOfTrades + trade) * Double.BYTES);
+    }
+
+    private int getInt(int column, int trade) {
+        return buffer.getInt(intColumnsOffset + (column * numberOfTrades + trade) * Integer.BYTES);
+    }
+
+    private String getString(int column, int trade) {
+        int id = getInt(column, trade);
+        return id < 0 ? null : dictionary[id];
+    }
+
+    private double[] getDoubles(int valuesOffset, int offsetsOffset, int trade) {
+        int from = buffer.getInt(offsetsOffset + trade * Integer.BYTES);
+        int to = buffer.getInt(offsetsOffset + (trade + 1) * Integer.BYTES);
+        double[] values = new double[to - from];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getDouble(valuesOffset + (from + i) * Double.BYTES);
+        }
+        return values;
+    }
+
+
+    //Columns of the trades added so far, written to the snapshot file by write
+    public static class Writer {
+
+        private final Map<String, Integer> dictionaryIds = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private double[][] doubleColumns = new double[DOUBLE_COLUMNS][1024];
+        private int[][] intColumns = new int[INT_COLUMNS][1024];
+        private double[] strikes = new double[1024];
+        private double[] exerciseDates = new double[1024];
+        private int[] strikeOffsets = new int[1025];
+        private int[] exerciseDateOffsets = new int[1025];
+        private int numberOfTrades;
+
+        public void add(Trade trade) {
+            if (numberOfTrades == intColumns[0].length) {
+                int capacity = 2 * numberOfTrades;
+                for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+                    doubleColumns[column] = Arrays.copyOf(doubleColumns[column], capacity);
+                }
+                for (int column = 0; column < INT_COLUMNS; column++) {
+                    intColumns[column] = Arrays.copyOf(intColumns[column], capacity);
+                }
+                strikeOffsets = Arrays.copyOf(strikeOffsets, capacity + 1);
+                exerciseDateOffsets = Arrays.copyOf(exerciseDateOffsets, capacity + 1);
+            }
+
+            int i = numberOfTrades;
+            doubleColumns[OPTION_TYPE][i] = trade.getOptionType();
+            doubleColumns[AMOUNT][i] = trade.getAmount();
+            doubleColumns[VOLATILITY][i] = trade.getVolatility();
+            doubleColumns[UNDERLYING_PRICE][i] = trade.getUnderlyingPrice();
+            doubleColumns[MATURITY][i] = trade.getMaturity();
+            doubleColumns[RISK_FREE_RATE][i] = trade.getRiskFreeRate();
+            doubleColumns[REPO_RATE][i] = trade.getRepoRate();
+            doubleColumns[VALUE][i] = trade.getValue();
+            doubleColumns[DELTA][i] = trade.getDelta();
+            doubleColumns[VEGA][i] = trade.getVega();
+            doubleColumns[CVR_PLUS][i] = trade.getCurvatureRiskPlus();
+            doubleColumns[CVR_MINUS][i] = trade.getCurvatureRiskMinus();
+
+            intColumns[DEAL_NUMBER][i] = trade.getDealNumber();
+            intColumns[BUCKET][i] = trade.getBucket();
+            intColumns[PORTFOLIO][i] = getId(trade.getPortfolio());
+            intColumns[ASSET_TYPE][i] = getId(trade.getAssetType());
+            intColumns[OPTION_STYLE][i] = getId(trade.getOptionStyle());
+            intColumns[RISK_FACTOR_DELTA][i] = getId(trade.getRiskFactorDelta());
+            intColumns[RISK_FACTOR_VEGA][i] = getId(trade.getRiskFactorVega());
+            intColumns[UNDERLYING][i] = getId(trade.getUnderlying());
+            intColumns[CURRENCY][i] = getId(trade.getCurrency());
+
+            strikes = append(strikes, strikeOffsets[i], trade.getStrikes());
+            strikeOffsets[i + 1] = strikeOffsets[i] + trade.getStrikes().length;
+            exerciseDates = append(exerciseDates, exerciseDateOffsets[i], trade.getExerciseDates());
+            exerciseDateOffsets[i + 1] = exerciseDateOffsets[i] + trade.getExerciseDates().length;
+            numberOfTrades++;
+        }
+
+        public int getNumberOfTrades() {
+            return numberOfTrades;
+        }
+
+        //Writes a temporary file next to the snapshot and renames it, so a reader never maps a partial snapshot
+        public void write(Path file) throws IOException {
+            byte[][] strings = new byte[dictionary.size()][];
+            int stringBytes = 0;
+            for (int id = 0; id < strings.length; id++) {
+                strings[id] = dictionary.get(id).getBytes(StandardCharsets.UTF_8);
+                stringBytes += strings[id].length;
+            }
+
+            int n = numberOfTrades;
+            int numberOfStrikes = strikeOffsets[n];
+            int numberOfExerciseDates = exerciseDateOffsets[n];
+            long size = HEADER_BYTES
+                    + (long) (DOUBLE_COLUMNS * n + numberOfStrikes + numberOfExerciseDates) * Double.BYTES
+                    + (long) (INT_COLUMNS * n + 2 * (n + 1) + strings.length + 1) * Integer.BYTES
+                    + stringBytes;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot dei trade troppo grande (massimo 2 GB): " + n + " trade");
+            }
+
+            Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                ByteBuffer buffer = mappedBuffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(strings.length)
+                        .putInt(numberOfStrikes).putInt(numberOfExerciseDates).putInt(stringBytes).putInt(0);
+
+                for (double[] column : doubleColumns) {
+                    buffer.asDoubleBuffer().put(column, 0, n);
+                    buffer.position(buffer.position() + n * Double.BYTES);
+                }
+                buffer.asDoubleBuffer().put(strikes, 0, numberOfStrikes);
+                buffer.position(buffer.position() + numberOfStrikes * Double.BYTES);
+                buffer.asDoubleBuffer().put(exerciseDates, 0, numberOfExerciseDates);
+                buffer.position(buffer.position() + numberOfExerciseDates * Double.BYTES);
+
+                for (int[] column : intColumns) {
+                    buffer.asIntBuffer().put(column, 0, n);
+                    buffer.position(buffer.position() + n * Integer.BYTES);
+                }
+                buffer.asIntBuffer().put(strikeOffsets, 0, n + 1);
+                buffer.position(buffer.position() + (n + 1) * Integer.BYTES);
+                buffer.asIntBuffer().put(exerciseDateOffsets, 0, n + 1);
+                buffer.position(buffer.position() + (n + 1) * Integer.BYTES);
+
+                int offset = 0;
+                buffer.putInt(offset);
+                for (byte[] string : strings) {
+                    offset += string.length;
+                    buffer.putInt(offset);
+                }
+                for (byte[] string : strings) {
+                    buffer.put(string);
+                }
+                mappedBuffer.force();
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private int getId(String value) {
+            if (value == null) {
+                return -1;
+            }
+            return dictionaryIds.computeIfAbsent(value, key -> {
+                dictionary.add(key);
+                return dictionary.size() - 1;
+            });
+        }
+
+        private static double[] append(double[] values, int size, double[] newValues) {
+            if (size + newValues.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(2 * values.length, size + newValues.length));
+            }
+            System.arraycopy(newValues, 0, values, size, newValues.length);
+            return values;
+        }
+    }
+}
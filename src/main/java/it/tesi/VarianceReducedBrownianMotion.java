@@ -0,0 +1,192 @@
+package it.tesi;
+
+import net.finmath.functions.NormalDistribution;
+import net.finmath.montecarlo.BrownianMotion;
+import net.finmath.montecarlo.BrownianMotionFromMersenneRandomNumbers;
+import net.finmath.montecarlo.RandomVariableFromArrayFactory;
+import net.finmath.montecarlo.RandomVariableFactory;
+import net.finmath.randomnumbers.MersenneTwister;
+import net.finmath.randomnumbers.SobolSequence;
+import net.finmath.stochastic.RandomVariable;
+import net.finmath.time.TimeDiscretization;
+
+//Brownian motion with antithetic or Sobol/Brownian bridge increments (see PathGenerator).
+//As BrownianMotionFromMersenneRandomNumbers, the increments are generated lazily on the first request.
+public class VarianceReducedBrownianMotion implements BrownianMotion {
+
+    //The points of the Sobol sequence are multiples of 2^-52
+    private static final double SOBOL_SCALE = 0x1p52;
+
+    private final TimeDiscretization timeDiscretization;
+    private final int numberOfFactors;
+    private final int numberOfPaths;
+    private final int seed;
+    private final PathGenerator pathGenerator;
+    private final RandomVariableFactory randomVariableFactory = new RandomVariableFromArrayFactory();
+
+    //brownianIncrements[timeIndex][factor]
+    private RandomVariable[][] brownianIncrements;
+
+
+    public VarianceReducedBrownianMotion(TimeDiscretization timeDiscretization, int numberOfFactors, int numberOfPaths, int seed, PathGenerator pathGenerator) {
+        if (pathGenerator == PathGenerator.MERSENNE) {
+            throw new IllegalArgumentException("Per il generatore MERSENNE usare BrownianMotionFromMersenneRandomNumbers.");
+        }
+        if (pathGenerator == PathGenerator.ANTITHETIC && numberOfPaths % 2 != 0) {
+            throw new IllegalArgumentException("Il numero di path deve essere pari per le variabili antitetiche: " + numberOfPaths);
+        }
+        this.timeDiscretization = timeDiscretization;
+        this.numberOfFactors = numberOfFactors;
+        this.numberOfPaths = numberOfPaths;
+        this.seed = seed;
+        this.pathGenerator = pathGenerator;
+    }
+
+    @Override
+    public RandomVariable getBrownianIncrement(int timeIndex, int factor) {
+        synchronized (this) {
+            if (brownianIncrements == null) {
+                double[][][] increments = pathGenerator == PathGenerator.ANTITHETIC ? getAntitheticIncrements() : getSobolBridgeIncrements();
+
+                brownianIncrements = new RandomVariable[timeDiscretization.getNumberOfTimeSteps()][numberOfFactors];
+                for (int i = 0; i < brownianIncrements.length; i++) {
+                    for (int k = 0; k < numberOfFactors; k++) {
+                        brownianIncrements[i][k] = randomVariableFactory.createRandomVariable(timeDiscretization.getTime(i + 1), increments[i][k]);
+                    }
+                }
+            }
+        }
+        return brownianIncrements[timeIndex][factor];
+    }
+
+    //increments[timeIndex][factor][path]: the second half of the paths mirrors the first one
+    private double[][][] getAntitheticIncrements() {
+        int halfNumberOfPaths = numberOfPaths / 2;
+        BrownianMotion brownianMotion = new BrownianMotionFromMersenneRandomNumbers(timeDiscretization, numberOfFactors, halfNumberOfPaths, seed);
+
+        double[][][] increments = new double[timeDiscretization.getNumberOfTimeSteps()][numberOfFactors][numberOfPaths];
+        for (int i = 0; i < increments.length; i++) {
+            for (int k = 0; k < numberOfFactors; k++) {
+                double[] realizations = brownianMotion.getBrownianIncrement(i, k).getRealizations();
+                for (int path = 0; path < halfNumberOfPaths; path++) {
+                    increments[i][k][path] = realizations[path];
+                    increments[i][k][path + halfNumberOfPaths] = -realizations[path];
+                }
+            }
+        }
+        return increments;
+    }
+
+    //increments[timeIndex][factor][path]: the first Sobol coordinate gives W(T), the following ones fill the
+    //remaining times by bisection, so that the best distributed coordinates drive the largest scales of the path
+    private double[][][] getSobolBridgeIncrements() {
+        int numberOfTimeSteps = timeDiscretization.getNumberOfTimeSteps();
+        int dimension = numberOfTimeSteps * numberOfFactors;
+
+        int[] bridgeOrder = new int[numberOfTimeSteps];
+        int[] leftIndex = new int[numberOfTimeSteps];
+        int[] rightIndex = new int[numberOfTimeSteps];
+        buildBridge(bridgeOrder, leftIndex, rightIndex);
+
+        //Random digital shift (XOR of the binary digits of the points) drawn from the seed. Unlike an additive shift,
+        //it keeps the net structure of the sequence; unlike the unshifted sequence, it has no joint corner points
+        //(e.g. all coordinates equal to 1 - 2^-16), which give extreme paths destabilizing the Bermudan regression.
+        MersenneTwister mersenneTwister = new MersenneTwister(seed);
+        long[] digitalShift = new long[dimension];
+        for (int d = 0; d < dimension; d++) {
+            digitalShift[d] = (long) (mersenneTwister.nextDouble() * SOBOL_SCALE);
+        }
+
+        SobolSequence sobolSequence = new SobolSequence(dimension);
+        double[][][] increments = new double[numberOfTimeSteps][numberOfFactors][numberOfPaths];
+        double[] brownianPath = new double[numberOfTimeSteps + 1];
+
+        for (int path = 0; path < numberOfPaths; path++) {
+            double[] uniforms = sobolSequence.getNext();
+            for (int k = 0; k < numberOfFactors; k++) {
+                for (int j = 0; j < numberOfTimeSteps; j++) {
+                    int d = k * numberOfTimeSteps + j;
+                    long digits = ((long) (uniforms[d] * SOBOL_SCALE)) ^ digitalShift[d];
+                    double normal = NormalDistribution.inverseCumulativeDistribution((digits + 0.5) / SOBOL_SCALE);
+
+                    //W(t_m) given W(t_l) and W(t_r)
+                    int m = bridgeOrder[j], l = leftIndex[j], r = rightIndex[j];
+                    double timeLeft = timeDiscretization.getTime(l), time = timeDiscretization.getTime(m), timeRight = timeDiscretization.getTime(r);
+                    if (j == 0) {
+                        brownianPath[m] = Math.sqrt(time - timeLeft) * normal;
+                    } else {
+                        double weight = (time - timeLeft) / (timeRight - timeLeft);
+                        brownianPath[m] = (1 - weight) * brownianPath[l] + weight * brownianPath[r]
+                                + Math.sqrt(weight * (timeRight - time)) * normal;
+                    }
+                }
+                for (int i = 0; i < numberOfTimeSteps; i++) {
+                    increments[i][k][path] = brownianPath[i + 1] - brownianPath[i];
+                }
+            }
+        }
+        return increments;
+    }
+
+    //Order in which the time indices are filled: the last time first, then midpoints of the known intervals
+    private static void buildBridge(int[] bridgeOrder, int[] leftIndex, int[] rightIndex) {
+        int numberOfTimeSteps = bridgeOrder.length;
+        boolean[] isKnown = new boolean[numberOfTimeSteps + 1];
+        isKnown[0] = true;
+
+        bridgeOrder[0] = numberOfTimeSteps;
+        leftIndex[0] = 0;
+        rightIndex[0] = numberOfTimeSteps;
+        isKnown[numberOfTimeSteps] = true;
+
+        int filled = 1;
+        while (filled < numberOfTimeSteps) {
+            int left = 0;
+            for (int index = 1; index <= numberOfTimeSteps; index++) {
+                if (isKnown[index]) {
+                    if (index - left > 1) {
+                        int middle = (left + index) / 2;
+                        bridgeOrder[filled] = middle;
+                        leftIndex[filled] = left;
+                        rightIndex[filled] = index;
+                        filled++;
+                    }
+                    left = index;
+                }
+            }
+            for (int j = 0; j < filled; j++) {
+                isKnown[bridgeOrder[j]] = true;
+            }
+        }
+    }
+
+    @Override
+    public TimeDiscretization getTimeDiscretization() {
+        return timeDiscretization;
+    }
+
+    @Override
+    public int getNumberOfFactors() {
+        return numberOfFactors;
+    }
+
+    @Override
+    public int getNumberOfPaths() {
+        return numberOfPaths;
+    }
+
+    @Override
+    public RandomVariable getRandomVariableForConstant(double value) {
+        return randomVariableFactory.createRandomVariable(value);
+    }
+
+    @Override
+    public BrownianMotion getCloneWithModifiedSeed(int seed) {
+        return new VarianceReducedBrownianMotion(timeDiscretization, numberOfFactors, numberOfPaths, seed, pathGenerator);
+    }
+
+    @Override
+    public BrownianMotion getCloneWithModifiedTimeDiscretization(TimeDiscretization newTimeDiscretization) {
+        return new VarianceReducedBrownianMotion(newTimeDiscretization, numberOfFactors, numberOfPaths, seed, pathGenerator);
+    }
+}
@@ -0,0 +1,97 @@
+package it.tesi;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+//SIMD loops of the Vector API (jdk.incubator.vector): full vectors of the preferred species, scalar tail.
+//Only loaded by QuadraticFormKernel.getDefault() when the module is present.
+public class VectorQuadraticFormKernel implements QuadraticFormKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getName() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+
+    @Override
+    public double sum(double[] x, int from, int to) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int upperBound = from + SPECIES.loopBound(to - from); i < upperBound; i += SPECIES.length()) {
+            sum = sum.add(DoubleVector.fromArray(SPECIES, x, i));
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            result += x[i];
+        }
+        return result;
+    }
+
+    @Override
+    public double sumOfSquares(double[] x, int from, int to) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int upperBound = from + SPECIES.loopBound(to - from); i < upperBound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+            sum = v.fma(v, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            result += x[i] * x[i];
+        }
+        return result;
+    }
+
+    @Override
+    public double sumOfPositive(double[] x, int from, int to) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int upperBound = from + SPECIES.loopBound(to - from); i < upperBound; i += SPECIES.length()) {
+            sum = sum.add(DoubleVector.fromArray(SPECIES, x, i).max(0.0));
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            result += Math.max(x[i], 0);
+        }
+        return result;
+    }
+
+    @Override
+    public double sumOfPositiveSquares(double[] x, int from, int to) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = from;
+        for (int upperBound = from + SPECIES.loopBound(to - from); i < upperBound; i += SPECIES.length()) {
+            DoubleVector positive = DoubleVector.fromArray(SPECIES, x, i).max(0.0);
+            sum = positive.fma(positive, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            double positive = Math.max(x[i], 0);
+            result += positive * positive;
+        }
+        return result;
+    }
+
+    @Override
+    public double sumOfTenorProducts(double[] tenors, double[] a, int n) {
+        double sum = 0.0;
+        for (int t = 0; t < n; t++) {
+            double scale = -0.01 / tenors[t];
+            DoubleVector crossTerms = DoubleVector.zero(SPECIES);
+            int u = t + 1;
+            for (int upperBound = u + SPECIES.loopBound(n - u); u < upperBound; u += SPECIES.length()) {
+                DoubleVector correlation = DoubleVector.fromArray(SPECIES, tenors, u).sub(tenors[t]).mul(scale)
+                        .lanewise(VectorOperators.EXP);
+                crossTerms = correlation.fma(DoubleVector.fromArray(SPECIES, a, u), crossTerms);
+            }
+            double crossTerm = crossTerms.reduceLanes(VectorOperators.ADD);
+            for (; u < n; u++) {
+                crossTerm += Math.exp(scale * (tenors[u] - tenors[t])) * a[u];
+            }
+            sum += a[t] * crossTerm;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,11 @@
+package it.tesi;
+
+//Allocation of the vega of an option to the vega risk factors (implied volatility of an underlying at a tenor)
+public enum VegaAllocation {
+
+    //Whole vega on the regulatory tenor nearest to the maturity of the option
+    NEAREST_TENOR,
+
+    //Vega of each tenor node of the volatility term structure (Trade.getVegaByTenor()) on the risk factor of that tenor
+    TENOR_NODES
+}
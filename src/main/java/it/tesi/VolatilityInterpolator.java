@@ -1,7 +1,5 @@
 package it.tesi;
 
-import java.util.Locale;
-
 import net.finmath.time.TimeDiscretization;
 import net.finmath.time.TimeDiscretizationFromArray;
 
@@ -11,31 +9,66 @@ public class VolatilityInterpolator {
     private static final TimeDiscretization timeDiscretization = new TimeDiscretizationFromArray(MATURITIES);
 
     
+    //Regulatory tenors of the vega risk factors (years)
+    public static double[] getRegulatoryTenors() {
+        return MATURITIES.clone();
+    }
+
+    //Weights of the regulatory tenors in the implied volatility at the given time: linear interpolation between the
+    //two tenors around the time, flat before the first and after the last tenor (the weights sum to 1)
+    public static double[] getInterpolationWeights(double time) {
+        return getInterpolationWeights(MATURITIES, time);
+    }
+
+    //Same weights on other increasing tenors (e.g. the rate tenors of RiskFactorRegistry.getRateTenors())
+    public static double[] getInterpolationWeights(double[] tenors, double time) {
+        double[] weights = new double[tenors.length];
+        if (time <= tenors[0]) {
+            weights[0] = 1.0;
+        } else if (time >= tenors[tenors.length - 1]) {
+            weights[tenors.length - 1] = 1.0;
+        } else {
+            int upper = 1;
+            while (tenors[upper] < time) {
+                upper++;
+            }
+            double lambda = (time - tenors[upper - 1]) / (tenors[upper] - tenors[upper - 1]);
+            weights[upper - 1] = 1.0 - lambda;
+            weights[upper] = lambda;
+        }
+        return weights;
+    }
+
     //Find the nearest tenor for a given data maturity
     public static double getNearestRegulatoryTenor(double maturity) {
+        return MATURITIES[getNearestRegulatoryTenorIndex(maturity)];
+    }
+
+    //Index of the nearest tenor in getRegulatoryTenors()
+    public static int getNearestRegulatoryTenorIndex(double maturity) {
         int indexGreaterOrEqual = timeDiscretization.getTimeIndexNearestGreaterOrEqual(maturity);
         int indexLessOrEqual = timeDiscretization.getTimeIndexNearestLessOrEqual(maturity);
 
         if (indexGreaterOrEqual < 0) {
-            return MATURITIES[0];
+            return 0;
         } else if (indexGreaterOrEqual >= MATURITIES.length) {
-            return MATURITIES[MATURITIES.length - 1];
+            return MATURITIES.length - 1;
         }
 
         if (indexLessOrEqual >= 0) {
             double lower = MATURITIES[indexLessOrEqual];
             double upper = MATURITIES[indexGreaterOrEqual];
 
-            return (Math.abs(maturity - lower) < Math.abs(maturity - upper)) ? lower : upper;
+            return (Math.abs(maturity - lower) < Math.abs(maturity - upper)) ? indexLessOrEqual : indexGreaterOrEqual;
         }
 
-        return MATURITIES[indexGreaterOrEqual];
+        return indexGreaterOrEqual;
     }
 
     
-    //Produce the formatted riskFactorVega, while including underlying and tenor
+    //Produce the formatted riskFactorVega, while including underlying and tenor (formatted once per risk factor)
     public static String getFormattedRiskFactorVega(String underlying, double maturity) {
-        double nearestTenor = getNearestRegulatoryTenor(maturity);
-        return String.format(Locale.US, "ImpliedVol-%s-%.1fY", underlying, nearestTenor);
+        RiskFactorRegistry registry = RiskFactorRegistry.getDefault();
+        return registry.getName(registry.getImpliedVolatilityId(underlying, maturity));
     }
 }